@@ -0,0 +1,145 @@
+package com.example.stepcounter;
+
+import android.Manifest;
+import android.app.Instrumentation;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the startup path on a device in the manner of a macrobenchmark and reports p50 and max in ms as
+ * instrumentation status and in logcat, e.g. with
+ * ./gradlew :app:connectedDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.stepcounter.StartupLatencyTest
+ * Every iteration launches MainActivity and measures the time until its main thread is idle after the first frame,
+ * then presses Start through the service and measures the time until the first sample of the session arrives, as
+ * recorded by the Metrics of debug builds. Closing the Activity destroys the service, so every iteration creates it
+ * and its StepPipeline again. The process of the test already runs, so the cold start of the process is not in it;
+ * that is measured with adb shell am start -W -S -n com.example.stepcounter/.MainActivity
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupLatencyTest {
+    private static final String TAG = "StartupLatency";
+    private static final int ITERATIONS = 10;
+    private static final long TIMEOUTMS = 5000;
+
+    @Test
+    public void launchAndStart() throws InterruptedException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = instrumentation.getTargetContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // No permission dialog over the Activity; the hardware step sensor is used if there is one
+            instrumentation.getUiAutomation().grantRuntimePermission(context.getPackageName(),
+                    Manifest.permission.ACTIVITY_RECOGNITION);
+        }
+        LatencyHistogram launchToIdle = new LatencyHistogram("launch to idle");
+        LatencyHistogram startToFirstSample = new LatencyHistogram("start to first sample");
+        for (int i = 0; i < ITERATIONS; i++) {
+            long launchNs = SystemClock.elapsedRealtimeNanos();
+            try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+                instrumentation.waitForIdleSync();
+                launchToIdle.Record(SystemClock.elapsedRealtimeNanos() - launchNs);
+
+                ServiceBinding serviceBinding = new ServiceBinding();
+                context.bindService(new Intent(context, StepCounterService.class), serviceBinding,
+                        Context.BIND_AUTO_CREATE);
+                try {
+                    final StepCounterService service = serviceBinding.Await();
+                    assumeTrue("Metrics are recorded by debug builds only", service.GetMetrics().IsEnabled());
+                    final CountDownLatch started = new CountDownLatch(1);
+                    final AtomicBoolean isStarted = new AtomicBoolean();
+                    instrumentation.runOnMainSync(new Runnable() {
+                        @Override
+                        public void run() {
+                            service.Start(new StepCounterService.StartListener() {
+                                @Override
+                                public void Started(boolean result) {
+                                    isStarted.set(result);
+                                    started.countDown();
+                                }
+                            });
+                        }
+                    });
+                    assertTrue(started.await(TIMEOUTMS, TimeUnit.MILLISECONDS));
+                    assertTrue(isStarted.get());
+                    startToFirstSample.Record(AwaitFirstSample(service));
+                    instrumentation.runOnMainSync(new Runnable() {
+                        @Override
+                        public void run() {
+                            service.Finish();
+                        }
+                    });
+                } finally {
+                    context.unbindService(serviceBinding);
+                }
+            }
+        }
+
+        Bundle results = new Bundle();
+        for (LatencyHistogram latencyHistogram : new LatencyHistogram[]{launchToIdle, startToFirstSample}) {
+            LatencyHistogram.Snapshot snapshot = latencyHistogram.TakeSnapshot();
+            String key = snapshot.GetName().replace(' ', '_');
+            results.putDouble(key + "_p50_ms", snapshot.GetPercentile(0.5) / 1e6);
+            results.putDouble(key + "_max_ms", snapshot.GetMax() / 1e6);
+            Log.i(TAG, snapshot.toString());
+        }
+        // 2 is the status of results that are reported while the test runs
+        instrumentation.sendStatus(2, results);
+    }
+
+    /**
+     * @return The time from Start to the first sample in nanoseconds
+     */
+    private static long AwaitFirstSample(StepCounterService service) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUTMS;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            LatencyHistogram.Snapshot snapshot = service.GetMetrics().TakeSnapshot().GetStartToFirstSample();
+            if (snapshot.GetCount() > 0) {
+                // One session per service, so the maximum is its only value
+                return snapshot.GetMax();
+            }
+            Thread.sleep(1);
+        }
+        fail("No sample within " + TIMEOUTMS + " ms after Start");
+        return 0;
+    }
+
+    private static class ServiceBinding implements ServiceConnection {
+        private final CountDownLatch connected = new CountDownLatch(1);
+        private volatile StepCounterService service;
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((StepCounterService.LocalBinder) binder).GetService();
+            connected.countDown();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+        }
+
+        StepCounterService Await() throws InterruptedException {
+            assertTrue(connected.await(TIMEOUTMS, TimeUnit.MILLISECONDS));
+            return service;
+        }
+    }
+}
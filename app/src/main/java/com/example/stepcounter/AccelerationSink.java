@@ -0,0 +1,14 @@
+package com.example.stepcounter;
+
+/**
+ * The AccelerationSink interface accepts measurements of the acceleration sensor one at a time.
+ */
+public interface AccelerationSink {
+    /**
+     * @param timestampNs Sensor timestamp in nanoseconds since the device started
+     * @param x Acceleration along the x axis
+     * @param y Acceleration along the y axis
+     * @param z Acceleration along the z axis
+     */
+    void AddAccelerationData(long timestampNs, float x, float y, float z);
+}
@@ -0,0 +1,292 @@
+package com.example.stepcounter;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.os.Process;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The AccelerometerStepSource class runs the StepDetector on the raw acceleration sensor and records the samples.
+ * It is used when the device has no hardware step sensor. A SamplingRateController lowers the sampling rate
+ * at rest and raises it while jogging or running; the StepDetector keeps its state when the rate changes.
+ * The sensor thread only copies every sample into a SampleChannel, so onSensorChanged returns at once; a detector
+ * thread drains the channel and runs the recorder, the StepDetector and the SamplingRateController.
+ * Pause, Resume and Finish are posted to the sensor thread and sent as Control messages on the same channel,
+ * so they apply exactly between the samples delivered before and after them.
+ */
+public class AccelerometerStepSource implements StepSource, AccelerationSink {
+    private static final String TAG = "ASS";
+    static final String RECORDINGSDIRECTORY = "recordings";
+    // The longest report latency the channel holds a batch of; a longer one is shortened to it
+    static final int MAXREPORTLATENCYUS = 10000000;
+    // Time the detector thread may fall behind the sensor thread on top of a batch
+    private static final int CATCHUPUS = 1000000;
+    private static final int CHANNELCAPACITY = ChannelCapacity(MAXREPORTLATENCYUS);
+
+    private final Context context;
+    private final Sensor accelerometerSensor;
+    private final SensorIngestion sensorIngestion;
+    private final Metrics metrics;
+    private final SampleChannel sampleChannel = new SampleChannel(CHANNELCAPACITY);
+    private int maxReportLatencyUs;
+    private volatile DetectorProfile detectorProfile = DetectorProfile.DEFAULT;
+    private volatile DetectionMode detectionMode = DetectionMode.STREAMING;
+    // Set before the detector thread starts
+    private String sessionName;
+    private StepListener stepListener;
+    // Set before FINISH is sent
+    private Runnable onFinished;
+    // Used on the detector thread only
+    private DetectorProfile appliedProfile;
+    private DetectionMode appliedDetectionMode;
+    private boolean isPaused = false;
+    private boolean isFinished = false;
+    private final StepDetector stepDetector;
+    private SampleRecorder sampleRecorder;
+    private SamplingRateController samplingRateController;
+    private int samplingPeriodUs = SamplingRateController.NORMALSAMPLINGPERIODUS;
+    private final StepListener controlledStepListener = new StepListener() {
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+            ApplySamplingPeriod(samplingRateController.Step(stepType));
+            stepListener.Step(accelerationData, stepType);
+        }
+    };
+    private final SampleChannel.Receiver receiver = new SampleChannel.Receiver() {
+        @Override
+        public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+            if (isPaused || isFinished) {
+                return;
+            }
+            if (sampleRecorder != null) {
+                sampleRecorder.AddAccelerationData(timestampNs, x, y, z);
+            }
+            stepDetector.AddAccelerationData(timestampNs, x, y, z);
+            ApplySamplingPeriod(samplingRateController.AddAccelerationData(timestampNs, x, y, z));
+        }
+
+        @Override
+        public void Control(SampleChannel.Control control) {
+            switch (control) {
+                case PAUSE:
+                    // The steps of the samples before the pause still count
+                    if (!isPaused && !isFinished) {
+                        stepDetector.Flush();
+                    }
+                    isPaused = true;
+                    break;
+                case RESUME:
+                    isPaused = false;
+                    break;
+                case FINISH:
+                    if (!isPaused && !isFinished) {
+                        stepDetector.Flush();
+                    }
+                    isFinished = true;
+                    break;
+            }
+        }
+    };
+
+    public AccelerometerStepSource(Context context, SensorManager sensorManager, Sensor accelerometerSensor,
+                                   int maxReportLatencyUs, Metrics metrics) {
+        this.context = context;
+        this.accelerometerSensor = accelerometerSensor;
+        this.maxReportLatencyUs = Math.min(maxReportLatencyUs, MAXREPORTLATENCYUS);
+        this.sensorIngestion = new SensorIngestion(sensorManager, accelerometerSensor, this, new FileLogSink(context));
+        this.sensorIngestion.SetMetrics(metrics);
+        this.metrics = metrics;
+        // Built with the source, e.g. by the StepPipeline before the session starts
+        this.stepDetector = new StepDetector(context);
+        this.stepDetector.RegisterStepListener(controlledStepListener);
+        this.stepDetector.SetMetrics(metrics);
+    }
+
+    @Override
+    public void Start(String sessionName, long timeOffsetToUnix, StepListener stepListener) {
+        this.sessionName = sessionName;
+        this.stepListener = stepListener;
+        stepDetector.SetTimeOffsetToUnix(timeOffsetToUnix);
+        Thread detectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_MORE_FAVORABLE);
+                RunDetector();
+            }
+        }, "StepDetector");
+        detectorThread.start();
+        sensorIngestion.Start(SamplingRateController.NORMALSAMPLINGPERIODUS, maxReportLatencyUs);
+    }
+
+    @Override
+    public void SetMaxReportLatency(int maxReportLatencyUs) {
+        this.maxReportLatencyUs = Math.min(maxReportLatencyUs, MAXREPORTLATENCYUS);
+        if (sensorIngestion.IsRegistered()) {
+            // Flushes the FIFO before it registers again, so the samples waiting there are not dropped
+            sensorIngestion.SetMaxReportLatency(this.maxReportLatencyUs);
+        }
+    }
+
+    @Override
+    public void SetDetectorProfile(DetectorProfile detectorProfile) {
+        // Taken over by the detector thread before its next batch of messages
+        this.detectorProfile = detectorProfile;
+    }
+
+    @Override
+    public void SetDetectionMode(DetectionMode detectionMode) {
+        // Taken over by the detector thread like the profile
+        this.detectionMode = detectionMode;
+    }
+
+    @Override
+    public void Pause() {
+        SendControl(SampleChannel.Control.PAUSE);
+    }
+
+    @Override
+    public void Resume() {
+        SendControl(SampleChannel.Control.RESUME);
+    }
+
+    @Override
+    public void Finish(Runnable onFinished) {
+        this.onFinished = onFinished;
+        // The last batch in the FIFO is delivered first, so FINISH follows every sample of the session
+        sensorIngestion.Stop(new Runnable() {
+            @Override
+            public void run() {
+                OfferControl(SampleChannel.Control.FINISH);
+                sensorIngestion.Shutdown();
+            }
+        });
+    }
+
+    @Override
+    public boolean NeedsWakeLock() {
+        return !accelerometerSensor.isWakeUpSensor();
+    }
+
+    /**
+     * Called on the sensor thread for every measurement. A sample that does not fit into the channel is dropped.
+     */
+    @Override
+    public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+        sampleChannel.Offer(timestampNs, x, y, z);
+    }
+
+    private void SendControl(final SampleChannel.Control control) {
+        sensorIngestion.Post(new Runnable() {
+            @Override
+            public void run() {
+                OfferControl(control);
+            }
+        });
+    }
+
+    /**
+     * Runs on the sensor thread.
+     */
+    private void OfferControl(SampleChannel.Control control) {
+        if (!sampleChannel.OfferControl(control)) {
+            LogToFile.log(context, TAG, "Dropped control message " + control);
+        }
+    }
+
+    /**
+     * Runs on the detector thread until the FINISH message.
+     */
+    private void RunDetector() {
+        StartSession();
+        while (!isFinished) {
+            sampleChannel.AwaitMessages();
+            DetectorProfile profile = detectorProfile;
+            if (profile != appliedProfile) {
+                appliedProfile = profile;
+                stepDetector.SetProfile(profile);
+            }
+            DetectionMode mode = detectionMode;
+            if (mode != appliedDetectionMode) {
+                // Sends the steps of the old mode before its state is discarded
+                stepDetector.Flush();
+                appliedDetectionMode = mode;
+                stepDetector.SetDetectionMode(mode);
+            }
+            sampleChannel.Drain(receiver);
+        }
+        EndSession();
+    }
+
+    /**
+     * Runs on the detector thread: deletes the recordings beyond the retention, creates the recorder of the session
+     * and configures the detector.
+     */
+    private void StartSession() {
+        File recordingsDirectory = context.getExternalFilesDir(RECORDINGSDIRECTORY);
+        int prunedSessions = SampleRecorder.Prune(recordingsDirectory, SampleRecorder.MAXRECORDEDSESSIONS,
+                SampleRecorder.MAXRECORDINGBYTES);
+        if (prunedSessions > 0) {
+            LogToFile.log(context, TAG, "Deleted the recordings of %d sessions", prunedSessions);
+        }
+        sampleRecorder = new SampleRecorder(recordingsDirectory, sessionName, new FileLogSink(context));
+        appliedDetectionMode = detectionMode;
+        stepDetector.SetDetectionMode(appliedDetectionMode);
+        appliedProfile = detectorProfile;
+        stepDetector.SetProfile(appliedProfile);
+        samplingRateController = new SamplingRateController();
+        samplingPeriodUs = SamplingRateController.NORMALSAMPLINGPERIODUS;
+    }
+
+    /**
+     * Runs on the detector thread after FINISH: closes the recorder, releases the session and calls onFinished.
+     */
+    private void EndSession() {
+        CloseSampleRecorder();
+        long droppedSamples = sampleChannel.GetDroppedSamples();
+        if (droppedSamples > 0) {
+            LogToFile.log(context, TAG, "Channel full, dropped %d samples", droppedSamples);
+        }
+        samplingRateController = null;
+        stepListener = null;
+        if (onFinished != null) {
+            onFinished.run();
+            onFinished = null;
+        }
+    }
+
+    /**
+     * Runs on the detector thread: registers again if the SamplingRateController chose another rate.
+     */
+    private void ApplySamplingPeriod(int samplingPeriodUs) {
+        if (samplingPeriodUs != this.samplingPeriodUs) {
+            this.samplingPeriodUs = samplingPeriodUs;
+            sensorIngestion.SetSamplingPeriod(samplingPeriodUs);
+        }
+    }
+
+    /**
+     * A flush delivers up to maxReportLatencyUs of samples at once. The channel holds them at the fastest rate,
+     * twice over because sensors may deliver faster than requested, plus CATCHUPUS and the CONTROLRESERVE.
+     * @return The smallest power of two that holds that many slots
+     */
+    static int ChannelCapacity(int maxReportLatencyUs) {
+        long samples = 2L * (maxReportLatencyUs + CATCHUPUS) / SamplingRateController.FASTSAMPLINGPERIODUS
+                + SampleChannel.CONTROLRESERVE;
+        return Integer.highestOneBit((int) samples - 1) << 1;
+    }
+
+    private void CloseSampleRecorder() {
+        if (sampleRecorder == null) {
+            return;
+        }
+        try {
+            sampleRecorder.close();
+        } catch (IOException e) {
+            LogToFile.log(context, TAG, "Could not close recording: " + e);
+        }
+        sampleRecorder = null;
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.stepcounter;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.IllegalFormatException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The AsyncLogWriter class moves log output off the calling thread.
+ * Records are put into a bounded lock-free ring buffer and a single background thread drains them
+ * into one long-lived buffered FileChannel. The message is only formatted when the record is drained,
+ * so a caller pays for a few array stores and never for string building or file access.
+ * If the ring buffer is full the record is dropped and counted instead of blocking the caller.
+ * If the file cannot be opened or written, the writer thread keeps running and tries again at the next flush
+ * interval; the records wait in the ring buffer meanwhile.
+ */
+public class AsyncLogWriter {
+    private static final String TAG = "ALW";
+    private static final int CAPACITY = 4096; // must be a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final int SIZEOFWRITEBUFFER = 64 * 1024;
+    private static final long MAXFILESIZE = 1024 * 1024;
+    private static final int MAXBACKUPFILES = 3;
+    private static final long FLUSHINTERVALNANOS = 250_000_000L;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Set in tail by the writer thread when it shuts down, so no producer can claim a slot afterwards
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private static final byte ARGSNONE = 0;
+    private static final byte ARGSDOUBLE = 1;
+    private static final byte ARGSLONG = 2;
+    private static final byte ARGSLONGDOUBLE = 3;
+
+    // Slot sequence numbers of the ring buffer (bounded multi-producer queue with one consumer)
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private long head;
+    private long reportedDroppedRecords;
+
+    // Record slots, written by the producer that claimed the slot and read by the writer thread
+    private final String[] tags = new String[CAPACITY];
+    private final String[] messages = new String[CAPACITY];
+    private final byte[] argumentKinds = new byte[CAPACITY];
+    private final long[] longArguments = new long[CAPACITY];
+    private final double[] doubleArguments = new double[CAPACITY];
+
+    private final File logFile;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(SIZEOFWRITEBUFFER);
+    private final StringBuilder lineBuilder = new StringBuilder(256);
+    private final Thread writerThread;
+    private FileChannel channel;
+    private boolean isFailed = false;
+    private volatile boolean running = true;
+    // Writer that was shut down before this one; its thread is awaited before the file is opened
+    private AsyncLogWriter previous;
+
+    public AsyncLogWriter(File logFile) {
+        this(logFile, null);
+    }
+
+    /**
+     * @param previous A writer of the same file that was shut down and may still be writing, or null
+     */
+    public AsyncLogWriter(File logFile, AsyncLogWriter previous) {
+        this.logFile = logFile;
+        this.previous = previous;
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RunWriter();
+            }
+        }, "AsyncLogWriter");
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+    }
+
+    /**
+     * The Append method queues a message that is written as it is.
+     * @param tag The log tag
+     * @param message The message
+     * @return true if the record was queued, false if it was dropped because the buffer is full
+     */
+    public boolean Append(String tag, String message) {
+        return Offer(tag, message, ARGSNONE, 0L, 0.0);
+    }
+
+    /**
+     * The Append method queues a message that is formatted with String.format(format, value)
+     * on the writer thread.
+     */
+    public boolean Append(String tag, String format, double value) {
+        return Offer(tag, format, ARGSDOUBLE, 0L, value);
+    }
+
+    /**
+     * The Append method queues a message that is formatted with String.format(format, value)
+     * on the writer thread.
+     */
+    public boolean Append(String tag, String format, long value) {
+        return Offer(tag, format, ARGSLONG, value, 0.0);
+    }
+
+    /**
+     * The Append method queues a message that is formatted with String.format(format, first, second)
+     * on the writer thread.
+     */
+    public boolean Append(String tag, String format, long first, double second) {
+        return Offer(tag, format, ARGSLONGDOUBLE, first, second);
+    }
+
+    /**
+     * The GetDroppedRecords method returns how many records were dropped because the buffer was full.
+     * @return long: The number of dropped records since the writer was created.
+     */
+    public long GetDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * The Shutdown method lets the writer thread write everything queued so far, close the log file and end.
+     * It does not wait for that, so it can be called on the main thread. Records appended afterwards are dropped
+     * and counted; a record whose slot was claimed before the writer closed the ring buffer is still written.
+     */
+    public void Shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+    }
+
+    private boolean Offer(String tag, String message, byte argumentKind, long longArgument, double doubleArgument) {
+        if (!running) {
+            droppedRecords.incrementAndGet();
+            return false;
+        }
+        long position = tail.get();
+        int index;
+        while (true) {
+            if ((position & CLOSED) != 0) {
+                droppedRecords.incrementAndGet();
+                return false;
+            }
+            index = (int) (position & MASK);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The writer has not freed this slot yet, so the buffer is full
+                droppedRecords.incrementAndGet();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        tags[index] = tag;
+        messages[index] = message;
+        argumentKinds[index] = argumentKind;
+        longArguments[index] = longArgument;
+        doubleArguments[index] = doubleArgument;
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    private void RunWriter() {
+        if (previous != null) {
+            AwaitPrevious();
+        }
+        while (running) {
+            LockSupport.parkNanos(this, FLUSHINTERVALNANOS);
+            TryDrain();
+        }
+        long end = CloseQueue();
+        TryDrain();
+        while (head != end && !isFailed) {
+            // A producer claimed the slot before the ring buffer was closed and is still storing the record
+            Thread.yield();
+            TryDrain();
+        }
+        CloseChannel();
+    }
+
+    /**
+     * Marks tail as CLOSED, so every later Offer drops its record.
+     * @return The position after the last slot that was claimed
+     */
+    private long CloseQueue() {
+        while (true) {
+            long position = tail.get();
+            if (tail.compareAndSet(position, position | CLOSED)) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Waits until the previous writer closed the file, so the lines of both are not interleaved.
+     */
+    private void AwaitPrevious() {
+        try {
+            previous.writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        previous = null;
+    }
+
+    /**
+     * The TryDrain method opens the file if it is not open and drains the ring buffer into it. If that fails,
+     * the lines in the write buffer are lost and the file is opened again at the next flush interval.
+     */
+    private void TryDrain() {
+        try {
+            if (channel == null) {
+                OpenChannel();
+            }
+            Drain();
+            isFailed = false;
+        } catch (IOException e) {
+            if (!isFailed) {
+                // Once per failure, not at every flush interval
+                Log.e(TAG, "Không thể ghi log vào file", e);
+                isFailed = true;
+            }
+            writeBuffer.clear();
+            CloseChannel();
+        }
+    }
+
+    /**
+     * The Drain method formats and writes all records that are currently in the ring buffer,
+     * reports newly dropped records and flushes the write buffer to the file.
+     */
+    private void Drain() throws IOException {
+        while (true) {
+            int index = (int) (head & MASK);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            String tag = tags[index];
+            String line = Format(messages[index], argumentKinds[index], longArguments[index], doubleArguments[index]);
+            tags[index] = null;
+            messages[index] = null;
+            sequences.lazySet(index, head + CAPACITY);
+            head++;
+
+            Log.d(tag, line);
+            WriteLine(tag, line);
+        }
+
+        long dropped = droppedRecords.get();
+        if (dropped != reportedDroppedRecords) {
+            String line = "dropped " + (dropped - reportedDroppedRecords) + " log records";
+            reportedDroppedRecords = dropped;
+            Log.w(TAG, line);
+            WriteLine(TAG, line);
+        }
+        Flush();
+    }
+
+    private String Format(String message, byte argumentKind, long longArgument, double doubleArgument) {
+        try {
+            switch (argumentKind) {
+                case ARGSDOUBLE:
+                    return String.format(message, doubleArgument);
+                case ARGSLONG:
+                    return String.format(message, longArgument);
+                case ARGSLONGDOUBLE:
+                    return String.format(message, longArgument, doubleArgument);
+                default:
+                    return message;
+            }
+        } catch (IllegalFormatException e) {
+            // A wrong format must not end the writer thread
+            return message;
+        }
+    }
+
+    private void WriteLine(String tag, String message) throws IOException {
+        lineBuilder.setLength(0);
+        lineBuilder.append(tag).append(": ").append(message).append('\n');
+        byte[] bytes = lineBuilder.toString().getBytes(UTF8);
+        if (bytes.length > writeBuffer.remaining()) {
+            Flush();
+        }
+        if (bytes.length > writeBuffer.capacity()) {
+            channel.write(ByteBuffer.wrap(bytes));
+        } else {
+            writeBuffer.put(bytes);
+        }
+    }
+
+    private void Flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+        if (channel.size() >= MAXFILESIZE) {
+            Rotate();
+        }
+    }
+
+    /**
+     * The Rotate method renames app.log to app.log.1, app.log.1 to app.log.2 and so on,
+     * deletes the oldest backup and starts a new log file.
+     */
+    private void Rotate() throws IOException {
+        CloseChannel();
+        File oldest = new File(logFile.getPath() + "." + MAXBACKUPFILES);
+        if (oldest.exists() && !oldest.delete()) {
+            Log.w(TAG, "Could not delete " + oldest);
+        }
+        for (int i = MAXBACKUPFILES - 1; i >= 1; i--) {
+            File backup = new File(logFile.getPath() + "." + i);
+            if (backup.exists() && !backup.renameTo(new File(logFile.getPath() + "." + (i + 1)))) {
+                Log.w(TAG, "Could not rotate " + backup);
+            }
+        }
+        if (!logFile.renameTo(new File(logFile.getPath() + ".1"))) {
+            Log.w(TAG, "Could not rotate " + logFile);
+        }
+        OpenChannel();
+    }
+
+    private void OpenChannel() throws IOException {
+        channel = new FileOutputStream(logFile, true).getChannel(); // true để ghi tiếp vào cuối file
+    }
+
+    private void CloseChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close " + logFile, e);
+        }
+        channel = null;
+    }
+}
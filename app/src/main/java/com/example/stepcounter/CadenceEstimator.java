@@ -0,0 +1,158 @@
+package com.example.stepcounter;
+
+/**
+ * The CadenceEstimator class follows the steps after the StepDetector and keeps rolling statistics of the last
+ * SIZEOFWINDOW steps: the cadence in steps per minute, the variance of the step intervals and the mean magnitude
+ * of the high points. It also gives a smoothed StepType: the type only changes when another type has at least
+ * MINVOTES of the last SIZEOFWINDOW steps, so single steps near a threshold do not make it flicker between
+ * WALKING and JOGGING.
+ * Every window is a circular buffer with running sums, so Add costs the same for every step and allocates nothing.
+ * A pause longer than MAXINTERVALMS starts a new bout: the intervals are cleared, the smoothed type is kept.
+ * It must be used on one thread.
+ */
+public class CadenceEstimator {
+    static final int SIZEOFWINDOW = 8;
+    static final int MINVOTES = 6;
+    static final long MAXINTERVALMS = 2000;
+    private static final int MASK = SIZEOFWINDOW - 1; // SIZEOFWINDOW is a power of two
+
+    // Step intervals in milliseconds; the sums are exact
+    private final long[] intervals = new long[SIZEOFWINDOW];
+    private int intervalCount = 0;
+    private int intervalIndex = 0;
+    private long intervalSum = 0;
+    private long intervalSumOfSquares = 0;
+    // Magnitudes of the high points; the sum is calculated again when the window wraps, so it cannot drift
+    private final double[] magnitudes = new double[SIZEOFWINDOW];
+    private int magnitudeCount = 0;
+    private int magnitudeIndex = 0;
+    private double magnitudeSum = 0;
+    // Types of the last steps and how often each type occurs among them
+    private final StepType[] stepTypes = new StepType[SIZEOFWINDOW];
+    private final int[] votes = new int[StepType.values().length];
+    private int stepTypeCount = 0;
+    private int stepTypeIndex = 0;
+
+    private long lastTime = 0;
+    private boolean hasStep = false;
+    private StepType stepType = null;
+
+    /**
+     * Adds a step. STATIONARY is ignored, it is no step.
+     * @param time Time of the step in milliseconds; steps must be added in time order
+     * @param value Magnitude of the high point of the step
+     */
+    public void Add(long time, double value, StepType stepType) {
+        if (stepType == StepType.STATIONARY) {
+            return;
+        }
+        if (hasStep) {
+            long interval = time - lastTime;
+            if (interval > MAXINTERVALMS) {
+                ClearIntervals();
+            } else {
+                AddInterval(interval);
+            }
+        }
+        hasStep = true;
+        lastTime = time;
+        AddMagnitude(value);
+        AddStepType(stepType);
+    }
+
+    /**
+     * @return Steps per minute over the intervals in the window, 0 before the second step of a bout
+     */
+    public double GetCadence() {
+        return intervalSum > 0 ? 60000.0 * intervalCount / intervalSum : 0;
+    }
+
+    /**
+     * @return Variance of the step intervals in the window in ms^2, a measure of how even the gait is
+     */
+    public double GetIntervalVariance() {
+        if (intervalCount < 2) {
+            return 0;
+        }
+        double mean = (double) intervalSum / intervalCount;
+        return Math.max(0, (double) intervalSumOfSquares / intervalCount - mean * mean);
+    }
+
+    public double GetMeanMagnitude() {
+        return magnitudeCount > 0 ? magnitudeSum / magnitudeCount : 0;
+    }
+
+    /**
+     * @return The smoothed type of the recent steps, null before the first step
+     */
+    public StepType GetStepType() {
+        return stepType;
+    }
+
+    public void Reset() {
+        ClearIntervals();
+        magnitudeCount = 0;
+        magnitudeIndex = 0;
+        magnitudeSum = 0;
+        for (int i = 0; i < votes.length; i++) {
+            votes[i] = 0;
+        }
+        stepTypeCount = 0;
+        stepTypeIndex = 0;
+        hasStep = false;
+        stepType = null;
+    }
+
+    private void AddInterval(long interval) {
+        if (intervalCount == SIZEOFWINDOW) {
+            long oldest = intervals[intervalIndex];
+            intervalSum -= oldest;
+            intervalSumOfSquares -= oldest * oldest;
+        } else {
+            intervalCount++;
+        }
+        intervals[intervalIndex] = interval;
+        intervalSum += interval;
+        intervalSumOfSquares += interval * interval;
+        intervalIndex = (intervalIndex + 1) & MASK;
+    }
+
+    private void ClearIntervals() {
+        intervalCount = 0;
+        intervalIndex = 0;
+        intervalSum = 0;
+        intervalSumOfSquares = 0;
+    }
+
+    private void AddMagnitude(double value) {
+        if (magnitudeCount == SIZEOFWINDOW) {
+            magnitudeSum -= magnitudes[magnitudeIndex];
+        } else {
+            magnitudeCount++;
+        }
+        magnitudes[magnitudeIndex] = value;
+        magnitudeSum += value;
+        magnitudeIndex = (magnitudeIndex + 1) & MASK;
+        if (magnitudeIndex == 0) {
+            magnitudeSum = 0;
+            for (int i = 0; i < magnitudeCount; i++) {
+                magnitudeSum += magnitudes[i];
+            }
+        }
+    }
+
+    private void AddStepType(StepType newStepType) {
+        if (stepTypeCount == SIZEOFWINDOW) {
+            votes[stepTypes[stepTypeIndex].ordinal()]--;
+        } else {
+            stepTypeCount++;
+        }
+        stepTypes[stepTypeIndex] = newStepType;
+        int newVotes = ++votes[newStepType.ordinal()];
+        stepTypeIndex = (stepTypeIndex + 1) & MASK;
+        // The first steps set the type, later ones need a clear majority to change it
+        if (stepType == null || (newStepType != stepType && newVotes >= MINVOTES)) {
+            stepType = newStepType;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.stepcounter;
+
+public enum DetectionMode {
+    BATCH,
+    STREAMING,
+    FREQUENCY
+}
@@ -0,0 +1,141 @@
+package com.example.stepcounter;
+
+/**
+ * The DetectorProfile class holds the parameters of the StepDetector. A profile is immutable, so it can be
+ * handed to a running StepDetector from any thread and shared by several detectors; to change a parameter
+ * a new profile is created with one of the With methods.
+ */
+public final class DetectorProfile {
+    public static final int MAXSIZEOFLISTDATA = 256;
+    public static final DetectorProfile DEFAULT = new DetectorProfile("default", 5, 12, 23, 50, 500, 0.8f);
+
+    private final String name;
+    private final double walkingThreshold;
+    private final double joggingThreshold;
+    private final double runningThreshold;
+    private final int sizeOfListData;
+    private final int durationOfStep;
+    private final float alpha;
+
+    /**
+     * @param name Name under which the profile is stored, e.g. the user it is calibrated for
+     * @param walkingThreshold Vector length a high point must exceed to be a step
+     * @param joggingThreshold Vector length above which a step is JOGGING
+     * @param runningThreshold Vector length above which a step is RUNNING
+     * @param sizeOfListData Samples per batch in BATCH mode, 1 to MAXSIZEOFLISTDATA
+     * @param durationOfStep Milliseconds within which only the highest high point is a step
+     * @param alpha Weight of the previous gravity in the low pass filter, 0 to 1
+     */
+    public DetectorProfile(String name, double walkingThreshold, double joggingThreshold, double runningThreshold,
+                           int sizeOfListData, int durationOfStep, float alpha) {
+        if (!(walkingThreshold >= 0 && walkingThreshold <= joggingThreshold && joggingThreshold <= runningThreshold)) {
+            throw new IllegalArgumentException("Thresholds must be ascending: " + walkingThreshold + ", "
+                    + joggingThreshold + ", " + runningThreshold);
+        }
+        if (sizeOfListData < 1 || sizeOfListData > MAXSIZEOFLISTDATA) {
+            throw new IllegalArgumentException("Invalid sizeOfListData: " + sizeOfListData);
+        }
+        if (durationOfStep < 1) {
+            throw new IllegalArgumentException("Invalid durationOfStep: " + durationOfStep);
+        }
+        if (!(alpha >= 0 && alpha < 1)) {
+            throw new IllegalArgumentException("Invalid alpha: " + alpha);
+        }
+        this.name = name;
+        this.walkingThreshold = walkingThreshold;
+        this.joggingThreshold = joggingThreshold;
+        this.runningThreshold = runningThreshold;
+        this.sizeOfListData = sizeOfListData;
+        this.durationOfStep = durationOfStep;
+        this.alpha = alpha;
+    }
+
+    public String GetName() {
+        return name;
+    }
+
+    public double GetWalkingThreshold() {
+        return walkingThreshold;
+    }
+
+    public double GetJoggingThreshold() {
+        return joggingThreshold;
+    }
+
+    public double GetRunningThreshold() {
+        return runningThreshold;
+    }
+
+    public int GetSizeOfListData() {
+        return sizeOfListData;
+    }
+
+    public int GetDurationOfStep() {
+        return durationOfStep;
+    }
+
+    public float GetAlpha() {
+        return alpha;
+    }
+
+    public DetectorProfile WithName(String name) {
+        return new DetectorProfile(name, walkingThreshold, joggingThreshold, runningThreshold, sizeOfListData,
+                durationOfStep, alpha);
+    }
+
+    public DetectorProfile WithThresholds(double walkingThreshold, double joggingThreshold, double runningThreshold) {
+        return new DetectorProfile(name, walkingThreshold, joggingThreshold, runningThreshold, sizeOfListData,
+                durationOfStep, alpha);
+    }
+
+    public DetectorProfile WithSizeOfListData(int sizeOfListData) {
+        return new DetectorProfile(name, walkingThreshold, joggingThreshold, runningThreshold, sizeOfListData,
+                durationOfStep, alpha);
+    }
+
+    public DetectorProfile WithDurationOfStep(int durationOfStep) {
+        return new DetectorProfile(name, walkingThreshold, joggingThreshold, runningThreshold, sizeOfListData,
+                durationOfStep, alpha);
+    }
+
+    public DetectorProfile WithAlpha(float alpha) {
+        return new DetectorProfile(name, walkingThreshold, joggingThreshold, runningThreshold, sizeOfListData,
+                durationOfStep, alpha);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof DetectorProfile)) {
+            return false;
+        }
+        DetectorProfile profile = (DetectorProfile) other;
+        return name.equals(profile.name)
+                && Double.compare(walkingThreshold, profile.walkingThreshold) == 0
+                && Double.compare(joggingThreshold, profile.joggingThreshold) == 0
+                && Double.compare(runningThreshold, profile.runningThreshold) == 0
+                && sizeOfListData == profile.sizeOfListData
+                && durationOfStep == profile.durationOfStep
+                && Float.compare(alpha, profile.alpha) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = name.hashCode();
+        hash = 31 * hash + Double.valueOf(walkingThreshold).hashCode();
+        hash = 31 * hash + Double.valueOf(joggingThreshold).hashCode();
+        hash = 31 * hash + Double.valueOf(runningThreshold).hashCode();
+        hash = 31 * hash + sizeOfListData;
+        hash = 31 * hash + durationOfStep;
+        hash = 31 * hash + Float.floatToIntBits(alpha);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: walking %.1f, jogging %.1f, running %.1f, batch %d, step %d ms, alpha %.2f",
+                name, walkingThreshold, joggingThreshold, runningThreshold, sizeOfListData, durationOfStep, alpha);
+    }
+}
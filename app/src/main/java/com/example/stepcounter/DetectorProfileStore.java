@@ -0,0 +1,77 @@
+package com.example.stepcounter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * The DetectorProfileStore class keeps calibrated DetectorProfiles in the SharedPreferences of the app, one per
+ * name (e.g. per user), and remembers which of them is active.
+ */
+public class DetectorProfileStore {
+    private static final String TAG = "DPS";
+    private static final String PREFERENCES = "detector_profiles";
+    private static final String KEYACTIVE = "active";
+
+    private final SharedPreferences preferences;
+    private final LogSink logSink;
+
+    public DetectorProfileStore(Context context, LogSink logSink) {
+        this.preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        this.logSink = logSink;
+    }
+
+    /**
+     * Stores profile under its name; an existing profile with that name is replaced.
+     */
+    public void Save(DetectorProfile profile) {
+        String prefix = profile.GetName() + ".";
+        preferences.edit()
+                .putLong(prefix + "walking", Double.doubleToLongBits(profile.GetWalkingThreshold()))
+                .putLong(prefix + "jogging", Double.doubleToLongBits(profile.GetJoggingThreshold()))
+                .putLong(prefix + "running", Double.doubleToLongBits(profile.GetRunningThreshold()))
+                .putInt(prefix + "sizeOfListData", profile.GetSizeOfListData())
+                .putInt(prefix + "durationOfStep", profile.GetDurationOfStep())
+                .putFloat(prefix + "alpha", profile.GetAlpha())
+                .apply();
+    }
+
+    /**
+     * @return The profile stored under name, or null if there is none or it is invalid
+     */
+    public DetectorProfile Load(String name) {
+        String prefix = name + ".";
+        if (!preferences.contains(prefix + "walking")) {
+            return null;
+        }
+        DetectorProfile profile = DetectorProfile.DEFAULT;
+        try {
+            return new DetectorProfile(name,
+                    LoadDouble(prefix + "walking", profile.GetWalkingThreshold()),
+                    LoadDouble(prefix + "jogging", profile.GetJoggingThreshold()),
+                    LoadDouble(prefix + "running", profile.GetRunningThreshold()),
+                    preferences.getInt(prefix + "sizeOfListData", profile.GetSizeOfListData()),
+                    preferences.getInt(prefix + "durationOfStep", profile.GetDurationOfStep()),
+                    preferences.getFloat(prefix + "alpha", profile.GetAlpha()));
+        } catch (IllegalArgumentException e) {
+            logSink.Log(TAG, "Invalid profile " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void SetActive(String name) {
+        preferences.edit().putString(KEYACTIVE, name).apply();
+    }
+
+    /**
+     * @return The active profile, or DetectorProfile.DEFAULT if none is active
+     */
+    public DetectorProfile LoadActive() {
+        String name = preferences.getString(KEYACTIVE, null);
+        DetectorProfile profile = name != null ? Load(name) : null;
+        return profile != null ? profile : DetectorProfile.DEFAULT;
+    }
+
+    private double LoadDouble(String key, double defaultValue) {
+        return Double.longBitsToDouble(preferences.getLong(key, Double.doubleToLongBits(defaultValue)));
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.stepcounter;
+
+import android.content.Context;
+
+/**
+ * The FileLogSink class writes log messages with LogToFile.
+ */
+public class FileLogSink implements LogSink {
+    private final Context context;
+
+    public FileLogSink(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void Log(String tag, String message) {
+        LogToFile.log(context, tag, message);
+    }
+
+    @Override
+    public void Log(String tag, String format, double value) {
+        LogToFile.log(context, tag, format, value);
+    }
+
+    @Override
+    public void Log(String tag, String format, long value) {
+        LogToFile.log(context, tag, format, value);
+    }
+}
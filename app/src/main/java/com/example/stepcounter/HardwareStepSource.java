@@ -0,0 +1,364 @@
+package com.example.stepcounter;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * The HardwareStepSource class counts steps with the low power TYPE_STEP_COUNTER or TYPE_STEP_DETECTOR sensor,
+ * so the app processor can sleep while the hardware counts. Because these sensors do not tell the StepType,
+ * the acceleration sensor is sampled for a short window at the start of the session and then at most once per
+ * CLASSIFICATIONINTERVALNS while steps arrive; the most frequent type the StepDetector finds in the window
+ * is used for the following steps.
+ * A new report latency and Finish flush the FIFO of the step sensor first, so no batched steps are lost.
+ * Everything runs on one HandlerThread, which Start creates; a source that is prepared but not started has no thread,
+ * and its methods run on the calling thread.
+ */
+public class HardwareStepSource implements StepSource, SensorEventListener2 {
+    private static final String TAG = "HSS";
+    private static final int SAMPLINGPERIODUS = 20000; // 50 Hz, only during a classification window
+    private static final long DURATIONOFWINDOWMS = 5000;
+    private static final long CLASSIFICATIONINTERVALNS = 60000000000L;
+    // A step counter event with several new steps spreads them over at most this time per step before it
+    private static final long MAXSTEPINTERVALNS = 1000000000L;
+    // In case the sensor never completes the flush of Finish
+    private static final long FLUSHTIMEOUTMS = 1000;
+
+    private final Context context;
+    private final SensorManager sensorManager;
+    private final Sensor stepSensor;
+    private final boolean isStepCounter;
+    private final TimeSource timeSource = new SystemTimeSource();
+    private final Sensor accelerometerSensor;
+    private final Metrics metrics;
+    // Created by Start
+    private HandlerThread handlerThread;
+    private Handler handler;
+    private SensorIngestion classificationIngestion;
+    // Used on the handler thread only
+    private int maxReportLatencyUs;
+    private StepListener stepListener;
+    private Runnable onFinished;
+    private boolean isPaused = false;
+    // Registers again with maxReportLatencyUs once the FIFO is flushed
+    private boolean isReregistering = false;
+    private boolean isFinishing = false;
+    // Flushes requested but not completed yet; each one completes with its own onFlushCompleted
+    private int pendingFlushes = 0;
+    private final AccelerationData stepData = new AccelerationData();
+    private long lastStepCount = -1;
+    private long lastStepCountTimeNs;
+    private long timeOffsetToUnix;
+    // Created with the first classification window and reset for every further one
+    private StepDetector classificationDetector;
+    private final int[] classifiedSteps = new int[StepType.values().length];
+    private boolean isClassifying = false;
+    private long lastClassificationNs = Long.MIN_VALUE;
+    private StepType stepType = StepType.WALKING;
+    private DetectorProfile detectorProfile = DetectorProfile.DEFAULT;
+
+    private final StepListener classificationListener = new StepListener() {
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+            classifiedSteps[stepType.ordinal()]++;
+        }
+    };
+    private final AccelerationSink classificationSink = new AccelerationSink() {
+        @Override
+        public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+            if (isClassifying) {
+                classificationDetector.AddAccelerationData(timestampNs, x, y, z);
+            }
+        }
+    };
+    private final Runnable endClassification = new Runnable() {
+        @Override
+        public void run() {
+            EndClassification();
+        }
+    };
+    private final Runnable endSession = new Runnable() {
+        @Override
+        public void run() {
+            EndSession();
+        }
+    };
+
+    /**
+     * @param stepSensor A TYPE_STEP_COUNTER or TYPE_STEP_DETECTOR sensor
+     * @param accelerometerSensor Acceleration sensor for the StepType, or null to count every step as WALKING
+     */
+    public HardwareStepSource(Context context, SensorManager sensorManager, Sensor stepSensor, Sensor accelerometerSensor,
+                              int maxReportLatencyUs, Metrics metrics) {
+        this.context = context;
+        this.sensorManager = sensorManager;
+        this.stepSensor = stepSensor;
+        this.isStepCounter = stepSensor.getType() == Sensor.TYPE_STEP_COUNTER;
+        this.maxReportLatencyUs = maxReportLatencyUs;
+        this.accelerometerSensor = accelerometerSensor;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void Start(String sessionName, final long timeOffsetToUnix, final StepListener stepListener) {
+        handlerThread = new HandlerThread("HardwareStepSource", Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+        classificationIngestion = accelerometerSensor == null ? null
+                : new SensorIngestion(sensorManager, accelerometerSensor, classificationSink, new FileLogSink(context), handler);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                HardwareStepSource.this.stepListener = stepListener;
+                lastStepCount = -1;
+                // One anchor per session, so the steps keep the spacing of their sensor timestamps
+                HardwareStepSource.this.timeOffsetToUnix = timeOffsetToUnix;
+                sensorManager.registerListener(HardwareStepSource.this, stepSensor, SensorManager.SENSOR_DELAY_NORMAL,
+                        maxReportLatencyUs, handler);
+                StartClassification(timeSource.ElapsedRealtime() * 1000000L);
+            }
+        });
+    }
+
+    @Override
+    public void SetMaxReportLatency(final int maxReportLatencyUs) {
+        Post(new Runnable() {
+            @Override
+            public void run() {
+                HardwareStepSource.this.maxReportLatencyUs = maxReportLatencyUs;
+                if (stepListener == null || isReregistering) {
+                    // Start or onFlushCompleted registers with the new latency
+                    return;
+                }
+                // Unregistering drops the steps in the FIFO, so they are flushed first
+                isReregistering = true;
+                if (!Flush()) {
+                    Reregister();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void SetDetectionMode(DetectionMode detectionMode) {
+        // The steps come from the step detector sensor; the classification keeps STREAMING
+    }
+
+    @Override
+    public void SetDetectorProfile(final DetectorProfile detectorProfile) {
+        Post(new Runnable() {
+            @Override
+            public void run() {
+                // Used from the next classification window on
+                HardwareStepSource.this.detectorProfile = detectorProfile;
+            }
+        });
+    }
+
+    @Override
+    public void Pause() {
+        SetPaused(true);
+    }
+
+    @Override
+    public void Resume() {
+        SetPaused(false);
+    }
+
+    @Override
+    public void Finish(final Runnable onFinished) {
+        Post(new Runnable() {
+            @Override
+            public void run() {
+                HardwareStepSource.this.onFinished = onFinished;
+                // The steps in the FIFO still count; EndSession follows the last onFlushCompleted
+                if (stepListener != null && (Flush() || pendingFlushes > 0)) {
+                    isFinishing = true;
+                    handler.postDelayed(endSession, FLUSHTIMEOUTMS);
+                } else {
+                    EndSession();
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean NeedsWakeLock() {
+        // The step counter keeps counting in hardware while the app processor sleeps
+        return !isStepCounter && !stepSensor.isWakeUpSensor();
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        if (stepListener == null) {
+            return;
+        }
+        if (isStepCounter) {
+            // Total since boot; the first event of a session is only the reference
+            long stepCount = (long) event.values[0];
+            if (lastStepCount >= 0 && stepCount > lastStepCount) {
+                // The counter reports the steps since its last event at once; they are spread evenly up to this
+                // event, so the cadence of the steps is kept
+                long steps = stepCount - lastStepCount;
+                long fromNs = Math.max(lastStepCountTimeNs, event.timestamp - steps * MAXSTEPINTERVALNS);
+                for (long i = 1; i <= steps; i++) {
+                    SendStep(fromNs + (event.timestamp - fromNs) * i / steps);
+                }
+            }
+            lastStepCount = stepCount;
+            lastStepCountTimeNs = event.timestamp;
+        } else {
+            SendStep(event.timestamp);
+        }
+        if (event.timestamp - lastClassificationNs >= CLASSIFICATIONINTERVALNS) {
+            StartClassification(event.timestamp);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        if (pendingFlushes > 0) {
+            pendingFlushes--;
+        }
+        if (pendingFlushes > 0) {
+            // A later flush, e.g. the one of Finish, delivers the rest of the FIFO
+            return;
+        }
+        if (isFinishing) {
+            EndSession();
+        } else if (isReregistering) {
+            Reregister();
+        }
+    }
+
+    /**
+     * Runs on the handler thread: asks the step sensor to deliver its FIFO and counts the flush until it completes.
+     * @return False if the sensor could not flush
+     */
+    private boolean Flush() {
+        if (!sensorManager.flush(this)) {
+            return false;
+        }
+        pendingFlushes++;
+        return true;
+    }
+
+    private void Reregister() {
+        isReregistering = false;
+        if (stepListener == null) {
+            return;
+        }
+        sensorManager.unregisterListener(this);
+        sensorManager.registerListener(this, stepSensor, SensorManager.SENSOR_DELAY_NORMAL, maxReportLatencyUs, handler);
+    }
+
+    /**
+     * Runs on the handler thread after the FIFO is flushed: unregisters, calls onFinished and ends the thread.
+     */
+    private void EndSession() {
+        isFinishing = false;
+        isReregistering = false;
+        pendingFlushes = 0;
+        sensorManager.unregisterListener(this);
+        if (handler != null) {
+            handler.removeCallbacks(endSession);
+            handler.removeCallbacks(endClassification);
+        }
+        if (classificationIngestion != null) {
+            classificationIngestion.Shutdown();
+        }
+        isClassifying = false;
+        if (stepListener != null && onFinished != null) {
+            onFinished.run();
+        }
+        stepListener = null;
+        onFinished = null;
+        if (handlerThread != null) {
+            handlerThread.quitSafely();
+        }
+    }
+
+    /**
+     * Runs action on the handler thread, or at once if the source was not started.
+     */
+    private void Post(Runnable action) {
+        if (handler != null) {
+            handler.post(action);
+        } else {
+            action.run();
+        }
+    }
+
+    private void SetPaused(final boolean isPaused) {
+        Post(new Runnable() {
+            @Override
+            public void run() {
+                HardwareStepSource.this.isPaused = isPaused;
+            }
+        });
+    }
+
+    private void SendStep(long timestampNs) {
+        if (isPaused) {
+            // The step counter still moves lastStepCount, so these steps are not sent after Resume either
+            return;
+        }
+        stepData.SetTime(timestampNs / 1000000L + timeOffsetToUnix);
+        stepData.SetValue(0);
+        stepData.SetX(0);
+        stepData.SetY(0);
+        stepData.SetZ(0);
+        if (metrics.IsEnabled()) {
+            metrics.steps.incrementAndGet();
+            metrics.sensorToStep.Record((timeSource.ElapsedRealtime() * 1000000L) - timestampNs);
+        }
+        stepListener.Step(stepData, stepType);
+    }
+
+    private void StartClassification(long timestampNs) {
+        if (classificationIngestion == null || isClassifying) {
+            return;
+        }
+        isClassifying = true;
+        lastClassificationNs = timestampNs;
+        for (int i = 0; i < classifiedSteps.length; i++) {
+            classifiedSteps[i] = 0;
+        }
+        if (classificationDetector == null) {
+            classificationDetector = new StepDetector(context);
+            classificationDetector.SetDetectionMode(DetectionMode.STREAMING);
+            classificationDetector.RegisterStepListener(classificationListener);
+        } else {
+            // The previous window was a minute ago or longer
+            classificationDetector.Reset();
+        }
+        classificationDetector.SetProfile(detectorProfile);
+        classificationDetector.SetTimeOffsetToUnix(timeOffsetToUnix);
+        classificationIngestion.Start(SAMPLINGPERIODUS, 0);
+        handler.postDelayed(endClassification, DURATIONOFWINDOWMS);
+    }
+
+    private void EndClassification() {
+        classificationIngestion.Stop();
+        isClassifying = false;
+        classificationDetector.Flush();
+        int best = -1;
+        for (StepType candidate : StepType.values()) {
+            if (candidate != StepType.STATIONARY && classifiedSteps[candidate.ordinal()] > Math.max(best, 0)) {
+                best = classifiedSteps[candidate.ordinal()];
+                stepType = candidate;
+            }
+        }
+        LogToFile.log(context, TAG, "Classified steps: " + stepType);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.stepcounter;
+
+/**
+ * The HighPoints class contains the peak extraction of the BATCH mode.
+ * Both methods work on the circular buffers of StepDetector and run in a single pass without allocating.
+ */
+final class HighPoints {
+    private HighPoints() {
+    }
+
+    /**
+     * The Find method finds the data sets whose total acceleration is higher than threshold.
+     * For every run of such data sets the buffer index of the highest one is written to highPointIndexes.
+     * Of equal values the last one is taken. A run that is still going on at the end of the batch is ignored.
+     * @param values Circular buffer with the total acceleration
+     * @param mask Buffer length - 1, the buffer length must be a power of two
+     * @param firstIndex Buffer index of the first data set of the batch
+     * @param count Number of data sets in the batch
+     * @param threshold WALKINGTHRESHOLD
+     * @param highPointIndexes Receives the buffer indexes of the high points
+     * @return int: The number of high points.
+     */
+    static int Find(double[] values, int mask, int firstIndex, int count, double threshold, int[] highPointIndexes) {
+        int highPointCount = 0;
+        int runMaxIndex = -1;
+        for (int i = 0; i < count; i++) {
+            int index = (firstIndex + i) & mask;
+            if (values[index] > threshold) {
+                if (runMaxIndex < 0 || values[index] >= values[runMaxIndex]) {
+                    runMaxIndex = index;
+                }
+            } else if (runMaxIndex >= 0) {
+                highPointIndexes[highPointCount++] = runMaxIndex;
+                runMaxIndex = -1;
+            }
+        }
+        return highPointCount;
+    }
+
+    /**
+     * The RemoveNear method removes every high point that has a higher high point less than duration
+     * before or after it (of two equal high points the later one is kept).
+     * The high points are pushed onto a monotonic deque that only keeps high points within duration
+     * which are higher than all later ones, so every high point is pushed and removed once.
+     * The remaining high points are moved to the front of highPointIndexes in their original order.
+     * @param times Circular buffer with the time of the data sets, in the same unit as duration
+     * @param values Circular buffer with the total acceleration
+     * @param highPointIndexes Buffer indexes of the high points in time order
+     * @param highPointCount Number of high points
+     * @param duration durationOfStep
+     * @param deque Scratch array with at least highPointCount elements
+     * @param suppressed Scratch array with at least highPointCount elements
+     * @return int: The number of remaining high points.
+     */
+    static int RemoveNear(long[] times, double[] values, int[] highPointIndexes, int highPointCount, long duration,
+                          int[] deque, boolean[] suppressed) {
+        int dequeHead = 0;
+        int dequeTail = 0;
+        for (int i = 0; i < highPointCount; i++) {
+            long time = times[highPointIndexes[i]];
+            double value = values[highPointIndexes[i]];
+            while (dequeHead < dequeTail && time - times[highPointIndexes[deque[dequeHead]]] >= duration) {
+                dequeHead++;
+            }
+            while (dequeHead < dequeTail && values[highPointIndexes[deque[dequeTail - 1]]] <= value) {
+                suppressed[deque[--dequeTail]] = true;
+            }
+            // Whatever is left in the deque is within duration and higher
+            suppressed[i] = dequeHead < dequeTail;
+            deque[dequeTail++] = i;
+        }
+
+        int remainingCount = 0;
+        for (int i = 0; i < highPointCount; i++) {
+            if (!suppressed[i]) {
+                highPointIndexes[remainingCount++] = highPointIndexes[i];
+            }
+        }
+        return remainingCount;
+    }
+}
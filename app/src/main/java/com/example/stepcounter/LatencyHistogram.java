@@ -0,0 +1,128 @@
+package com.example.stepcounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class counts durations in nanoseconds in log-linear buckets like an HDR histogram:
+ * below 32 ns every value has its own bucket, above that every power of two is split into 32 buckets,
+ * so a reported value is at most about 3 % above the recorded one. Values above MAXVALUE (about 18 minutes)
+ * are counted as MAXVALUE. Record is lock-free and does not allocate; it can be called from several threads
+ * while another thread takes snapshots.
+ */
+public class LatencyHistogram {
+    static final int SUBBUCKETBITS = 5;
+    static final int SUBBUCKETCOUNT = 1 << SUBBUCKETBITS;
+    static final long MAXVALUE = (1L << 40) - 1;
+    static final int BUCKETCOUNT = BucketIndex(MAXVALUE) + 1;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETCOUNT);
+    private final AtomicLong max = new AtomicLong(0);
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String GetName() {
+        return name;
+    }
+
+    /**
+     * Counts one duration. Negative durations are counted as 0.
+     */
+    public void Record(long valueNs) {
+        long value = Math.max(0, Math.min(MAXVALUE, valueNs));
+        counts.incrementAndGet(BucketIndex(value));
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * @return A copy of the counts; values recorded while copying may or may not be in it
+     */
+    public Snapshot TakeSnapshot() {
+        long[] copy = new long[BUCKETCOUNT];
+        for (int i = 0; i < BUCKETCOUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(name, copy, max.get());
+    }
+
+    static int BucketIndex(long value) {
+        if (value < SUBBUCKETCOUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUBBUCKETBITS;
+        return SUBBUCKETCOUNT + shift * SUBBUCKETCOUNT + (int) ((value >>> shift) - SUBBUCKETCOUNT);
+    }
+
+    /**
+     * @return The largest value that is counted in the bucket
+     */
+    static long UpperBound(int index) {
+        if (index < SUBBUCKETCOUNT) {
+            return index;
+        }
+        int shift = (index - SUBBUCKETCOUNT) / SUBBUCKETCOUNT;
+        long subBucket = SUBBUCKETCOUNT + (index - SUBBUCKETCOUNT) % SUBBUCKETCOUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * The counts of a LatencyHistogram at one point in time.
+     */
+    public static class Snapshot {
+        private final String name;
+        private final long[] counts;
+        private final long max;
+        private final long totalCount;
+
+        Snapshot(String name, long[] counts, long max) {
+            this.name = name;
+            this.counts = counts;
+            this.max = max;
+            long totalCount = 0;
+            for (long count : counts) {
+                totalCount += count;
+            }
+            this.totalCount = totalCount;
+        }
+
+        public String GetName() {
+            return name;
+        }
+
+        public long GetCount() {
+            return totalCount;
+        }
+
+        public long GetMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile Between 0 and 1, e.g. 0.99
+         * @return The upper bound of the bucket that contains the percentile, at most the maximum; 0 if empty
+         */
+        public long GetPercentile(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(percentile * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(UpperBound(i), max);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: n=%d p50=%.3f ms p90=%.3f ms p99=%.3f ms max=%.3f ms", name, totalCount,
+                    GetPercentile(0.5) / 1e6, GetPercentile(0.9) / 1e6, GetPercentile(0.99) / 1e6, max / 1e6);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.stepcounter;
+
+/**
+ * The LogSink interface receives the log messages of the step detection.
+ * Messages with a format are only formatted by the sink, so a sink that drops them costs nothing.
+ */
+public interface LogSink {
+    void Log(String tag, String message);
+
+    void Log(String tag, String format, double value);
+
+    void Log(String tag, String format, long value);
+}
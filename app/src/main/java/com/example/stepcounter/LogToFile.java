@@ -1,27 +1,80 @@
 package com.example.stepcounter;
 
 import android.content.Context;
-import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 
+/**
+ * The LogToFile class writes log messages to Logcat and to app.log in the external files directory.
+ * Messages are handed to an AsyncLogWriter, so the calling thread (for example the sensor thread)
+ * never opens the file or formats the message itself.
+ */
 public class LogToFile {
-    private static final String TAG = "LTF";
+    private static final String LOGFILENAME = "app.log";
+    private static final Object lock = new Object();
+    private static volatile AsyncLogWriter writer;
+    // Shut down and maybe still writing; the next writer waits for it on its own thread
+    private static AsyncLogWriter previousWriter;
 
     public static void log(Context context, String tag, String message) {
-        // Logcat log
-        Log.d(tag, message);
-
-        // Ghi log vào file
-        File logFile = new File(context.getExternalFilesDir(null), "app.log");
-        try {
-            FileOutputStream fos = new FileOutputStream(logFile, true); // true để ghi tiếp vào cuối file
-            fos.write((tag + ": " + message + "\n").getBytes());
-            fos.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Không thể ghi log vào file", e);
+        GetWriter(context).Append(tag, message);
+    }
+
+    /**
+     * Like log(Context, String, String), but the message is only built with
+     * String.format(format, value) once the record is written.
+     */
+    public static void log(Context context, String tag, String format, double value) {
+        GetWriter(context).Append(tag, format, value);
+    }
+
+    /**
+     * Like log(Context, String, String), but the message is only built with
+     * String.format(format, value) once the record is written.
+     */
+    public static void log(Context context, String tag, String format, long value) {
+        GetWriter(context).Append(tag, format, value);
+    }
+
+    /**
+     * Like log(Context, String, String), but the message is only built with
+     * String.format(format, first, second) once the record is written.
+     */
+    public static void log(Context context, String tag, String format, long first, double second) {
+        GetWriter(context).Append(tag, format, first, second);
+    }
+
+    /**
+     * The shutdown method lets the writer write all pending messages and close the log file in the background,
+     * so it can be called on the main thread. A later call to log starts a new writer.
+     */
+    public static void shutdown() {
+        AsyncLogWriter currentWriter;
+        synchronized (lock) {
+            currentWriter = writer;
+            writer = null;
+            if (currentWriter != null) {
+                previousWriter = currentWriter;
+            }
+        }
+        if (currentWriter != null) {
+            currentWriter.Shutdown();
+        }
+    }
+
+    private static AsyncLogWriter GetWriter(Context context) {
+        AsyncLogWriter currentWriter = writer;
+        if (currentWriter == null) {
+            synchronized (lock) {
+                currentWriter = writer;
+                if (currentWriter == null) {
+                    File logFile = new File(context.getExternalFilesDir(null), LOGFILENAME);
+                    currentWriter = new AsyncLogWriter(logFile, previousWriter);
+                    previousWriter = null;
+                    writer = currentWriter;
+                }
+            }
         }
+        return currentWriter;
     }
 }
@@ -0,0 +1,69 @@
+package com.example.stepcounter;
+
+/**
+ * The MagnitudeKernel class applies the gravity filter to blocks of samples stored as separate x, y and z arrays,
+ * and calculates the length of the remaining acceleration vector.
+ * The loop keeps the gravity in local variables and has no calls and no branches, so the compiler can unroll it
+ * and overlap the independent work of the next samples with the filter recurrence. All of the arithmetic is in
+ * float: the square root is rounded to float, which the JIT compiles to a single precision instruction. A length
+ * differs from the former double square root by at most one rounding to float.
+ */
+final class MagnitudeKernel {
+    private float alpha;
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ;
+
+    /**
+     * @param alpha Weight of the previous gravity in the low pass filter
+     */
+    MagnitudeKernel(float alpha, float gravityX, float gravityY, float gravityZ) {
+        this.alpha = alpha;
+        this.gravityX = gravityX;
+        this.gravityY = gravityY;
+        this.gravityZ = gravityZ;
+    }
+
+    /**
+     * Changes the weight of the filter; the gravity found so far is kept.
+     */
+    void SetAlpha(float alpha) {
+        this.alpha = alpha;
+    }
+
+    /**
+     * Replaces the gravity found so far, e.g. to start on unrelated samples.
+     */
+    void SetGravity(float gravityX, float gravityY, float gravityZ) {
+        this.gravityX = gravityX;
+        this.gravityY = gravityY;
+        this.gravityZ = gravityZ;
+    }
+
+    /**
+     * Processes the samples from index from to from + count - 1: writes their vector length into values.
+     */
+    void Apply(float[] x, float[] y, float[] z, int from, int count, double[] values) {
+        float alpha = this.alpha;
+        float beta = 1 - alpha;
+        float gx = gravityX;
+        float gy = gravityY;
+        float gz = gravityZ;
+        int end = from + count;
+        for (int i = from; i < end; i++) {
+            float ax = x[i];
+            float ay = y[i];
+            float az = z[i];
+            gx = alpha * gx + beta * ax;
+            gy = alpha * gy + beta * ay;
+            gz = alpha * gz + beta * az;
+            float dx = ax - gx;
+            float dy = ay - gy;
+            float dz = az - gz;
+            values[i] = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+        gravityX = gx;
+        gravityY = gy;
+        gravityZ = gz;
+    }
+}
@@ -1,12 +1,14 @@
 package com.example.stepcounter;
 
+import android.Manifest;
 import android.annotation.SuppressLint;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.content.ServiceConnection;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
@@ -14,29 +16,57 @@ import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
-import java.util.ArrayList;
-
-public class MainActivity extends AppCompatActivity implements SensorEventListener, StepListener{
-    private static final String TAG = "MAIN";
+public class MainActivity extends AppCompatActivity implements UiStatePublisher.Renderer{
+    private static final int REQUESTCODEACTIVITYRECOGNITION = 1;
     private TextView tvJoggingCounter, tvAcivityType,tvRunningCounter, tvWalkingCounter;
     private Button btnStart, btnStop, btnFinish,btnGuiline;
 
-    private SensorManager sensorManager;
-    private Sensor accelerometerSensor;
-    private SensorEventListener sensorEventListener;
-    private StepDetector stepDetector;
-    private StepListener stepListener;
-    private ArrayList<AccelerationData> accelerationDataArrayList;
-    private boolean isAccelerometerSensorPresent;
-    private int amountOfStepRunning = 0;
-    private int amountOfStepJogging = 0;
-    private int amountOfStepWalking = 0;
-    private boolean isStop = false;
-    private boolean isFinish = false;
+    private StepCounterService stepCounterService;
+    private volatile UiStatePublisher uiStatePublisher;
+    private final Runnable countsChanged = new Runnable() {
+        @Override
+        public void run() {
+            // Called on the sensor thread of the service
+            UiStatePublisher publisher = uiStatePublisher;
+            if (publisher != null) {
+                publisher.Invalidate();
+            }
+        }
+    };
+    private final StepCounterService.StartListener startListener = new StepCounterService.StartListener() {
+        @Override
+        public void Started(boolean isStarted) {
+            if (isStarted) {
+                Toast.makeText(getBaseContext(), "Starting!", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(getBaseContext(), "There is no Accelerometer sensor!!!", Toast.LENGTH_SHORT).show();
+            }
+            if (stepCounterService != null) {
+                ShowButtons();
+            }
+        }
+    };
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            stepCounterService = ((StepCounterService.LocalBinder) service).GetService();
+            uiStatePublisher = new UiStatePublisher(stepCounterService.GetStepCounts(), MainActivity.this);
+            // Shows the counts of the running session at once, not only after its next step
+            uiStatePublisher.Attach();
+            stepCounterService.SetCountsChangedCallback(countsChanged);
+            ShowButtons();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            DetachFromService();
+        }
+    };
 
     @SuppressLint("MissingInflatedId")
     @Override
@@ -58,84 +88,44 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         btnStop = (Button) findViewById(R.id.btn_Stop);
         btnFinish = (Button) findViewById(R.id.btn_Finish);
         btnGuiline = findViewById(R.id.btn_guiline);
-        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-        if (sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) != null) {
-            accelerometerSensor = (Sensor) sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-            //sensorManager.registerListener(this, accelerometerSensor, sensorManager.SENSOR_DELAY_UI);
-            sensorEventListener = this;
-            isAccelerometerSensorPresent = true;
-        } else {
-            Toast.makeText(this, "There is no Accelerometer sensor!!!", Toast.LENGTH_SHORT).show();
-            isAccelerometerSensorPresent = false;
-            finish();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // Needed for the hardware step counter; without it the accelerometer is used
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.ACTIVITY_RECOGNITION},
+                    REQUESTCODEACTIVITYRECOGNITION);
         }
 
-        sensorEventListener = this;
-        stepListener = this;
-
         btnStart.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                Toast.makeText(getBaseContext(), "Starting!", Toast.LENGTH_SHORT).show();
-
-
-                if (isStop == false || isFinish == true) {
-                    if (isFinish == true) {
-                        isFinish = false;
-                    }
-                    if (sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) != null) {
-                        accelerometerSensor = (Sensor) sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-                        //sensorManager.registerListener(this, accelerometerSensor, sensorManager.SENSOR_DELAY_UI);
-                        isAccelerometerSensorPresent = true;
-
-                    } else {
-                        Toast.makeText(getBaseContext(), "There is no Accelerometer sensor!!!", Toast.LENGTH_SHORT).show();
-                        isAccelerometerSensorPresent = false;
-                        finish();
-                    }
-                    sensorManager.registerListener(sensorEventListener, accelerometerSensor, sensorManager.SENSOR_DELAY_UI);
-                    accelerationDataArrayList = new ArrayList<>();
-                    stepDetector = new StepDetector(getBaseContext());
-                    stepDetector.RegisterStepListener(stepListener);
-                } else {
-                    isStop = false;
+                if (stepCounterService == null) {
+                    return;
                 }
-
-                btnStart.setEnabled(false);
-                btnStop.setEnabled(true);
-                btnFinish.setEnabled(true);
+                stepCounterService.Start(startListener);
+                // Disabled until the service has its StepSource
+                ShowButtons();
             }
         });
 
         btnStop.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                isStop = true;
+                if (stepCounterService == null) {
+                    return;
+                }
+                stepCounterService.Stop();
                 Toast.makeText(MainActivity.this, "Stopping!", Toast.LENGTH_SHORT).show();
-                btnStart.setText("Continue");
-                btnStop.setEnabled(false);
-                btnStart.setEnabled(true);
+                ShowButtons();
             }
         });
 
         btnFinish.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                sensorManager.unregisterListener(sensorEventListener);
-                //accelerationDataArrayList.clear();
-                isFinish = true;
-                isStop = false;
-                amountOfStepRunning = 0;
-                amountOfStepJogging = 0;
-                amountOfStepWalking = 0;
-                tvWalkingCounter.setText("Walking: " + amountOfStepWalking);
-                tvJoggingCounter.setText("Jogging: " + amountOfStepJogging);
-                tvRunningCounter.setText("Running: " + amountOfStepRunning);
-                btnStart.setText("Start");
-                btnFinish.setEnabled(false);
-                btnStop.setEnabled(false);
-                btnStart.setEnabled(true);
-
+                if (stepCounterService == null) {
+                    return;
+                }
+                stepCounterService.Finish();
+                ShowButtons();
             }
         });
         btnGuiline.setOnClickListener(new View.OnClickListener() {
@@ -146,73 +136,69 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
             }
         });
     }
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        if (event != null) {
-            AccelerationData newAccelerationData = new AccelerationData();
-            newAccelerationData.SetX(event.values[0]);
-            newAccelerationData.SetY(event.values[1]);
-            newAccelerationData.SetZ(event.values[2]);
-            newAccelerationData.SetTime(event.timestamp);
-
-            if (newAccelerationData != null && stepDetector != null) {
-                accelerationDataArrayList.add(newAccelerationData);
-                if (isStop == false && isFinish == false) {
-                    stepDetector.AddAccelerationData(newAccelerationData);
-                }
-            }
-
-        }
-    }
 
     @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
+    protected void onStart() {
+        super.onStart();
+        // The service keeps counting while the Activity is not visible; it looks up the sensors on its own thread,
+        // and Start tells if there is none
+        bindService(new Intent(this, StepCounterService.class), serviceConnection, Context.BIND_AUTO_CREATE);
     }
 
     @Override
-    protected void onPause() {
-        super.onPause();
-        if (isAccelerometerSensorPresent) {
-            sensorManager.unregisterListener(sensorEventListener);
+    protected void onStop() {
+        super.onStop();
+        if (stepCounterService != null) {
+            DetachFromService();
+            unbindService(serviceConnection);
         }
     }
 
-    protected void onResume() {
-        super.onResume();
-        if (isAccelerometerSensorPresent) {
-            Sensor accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-            sensorManager.registerListener(this, accelerometerSensor, SensorManager.SENSOR_DELAY_UI);
+    private void DetachFromService() {
+        if (stepCounterService != null) {
+            stepCounterService.SetCountsChangedCallback(null);
+            stepCounterService = null;
+        }
+        if (uiStatePublisher != null) {
+            uiStatePublisher.Detach();
+            uiStatePublisher = null;
         }
     }
 
+    private void ShowButtons() {
+        boolean isRunning = stepCounterService.IsRunning();
+        boolean isStop = stepCounterService.IsStopped();
+        btnStart.setText(isRunning && isStop ? "Continue" : "Start");
+        btnStart.setEnabled((!isRunning || isStop) && !stepCounterService.IsStarting());
+        btnStop.setEnabled(isRunning && !isStop);
+        btnFinish.setEnabled(isRunning);
+    }
+
     @Override
-    public void Step(AccelerationData accelerationData, StepType stepType) {
-        // Step event coming back from StepDetector
+    public void Render(StepType stepType, int cadence, int walking, int jogging, int running) {
         String activityType = "";
-        switch (stepType) {
-            case RUNNING:
-                activityType = "Running";
-                ++amountOfStepRunning;
-                LogToFile.log(getBaseContext(), TAG, "Running " + amountOfStepRunning);
-                break;
-            case JOGGING:
-                activityType = "Jogging";
-                ++amountOfStepJogging;
-                LogToFile.log(getBaseContext(), TAG, "Jogging " + amountOfStepJogging);
-                break;
-            case WALKING:
-                activityType = "Walking";
-                ++amountOfStepWalking;
-                LogToFile.log(getBaseContext(), TAG, "Walking " + amountOfStepWalking);
-                break;
-            case STATIONARY:
-                activityType = "Stationary";
-                break;
+        if (stepType != null) {
+            switch (stepType) {
+                case RUNNING:
+                    activityType = "Running";
+                    break;
+                case JOGGING:
+                    activityType = "Jogging";
+                    break;
+                case WALKING:
+                    activityType = "Walking";
+                    break;
+                case STATIONARY:
+                    activityType = "Stationary";
+                    break;
+            }
+        }
+        if (cadence > 0 && stepType != StepType.STATIONARY) {
+            activityType += " " + cadence + " steps/min";
         }
-        tvAcivityType.setText(activityType+"");
-        tvWalkingCounter.setText("Walking: " + amountOfStepWalking);
-        tvJoggingCounter.setText("Jogging: " + amountOfStepJogging);
-        tvRunningCounter.setText("Running: " + amountOfStepRunning);
+        tvAcivityType.setText(activityType);
+        tvWalkingCounter.setText("Walking: " + walking);
+        tvJoggingCounter.setText("Jogging: " + jogging);
+        tvRunningCounter.setText("Running: " + running);
     }
-}
\ No newline at end of file
+}
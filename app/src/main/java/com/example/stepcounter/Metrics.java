@@ -0,0 +1,170 @@
+package com.example.stepcounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Metrics class collects counters and latency histograms of the path from the sensor to StepListener.Step.
+ * The counters are AtomicLongs and the histograms are LatencyHistograms, so they can be written on the sensor
+ * thread and read from any thread. When the Metrics are disabled, IsEnabled returns false and the callers skip
+ * reading the clock and recording, so disabled metrics cost one field read per call site.
+ */
+public class Metrics {
+    private static final String TAG = "METRICS";
+    private static final Metrics DISABLED = new Metrics(false);
+
+    private final boolean isEnabled;
+    // Sensor ingestion
+    final AtomicLong samplesIngested = new AtomicLong();
+    final AtomicLong samplesDropped = new AtomicLong();
+    final AtomicLong lateEvents = new AtomicLong();
+    final LatencyHistogram sensorToCallback = new LatencyHistogram("sensor to callback");
+    // StepDetector stages, per batch in BATCH mode; in STREAMING mode magnitude is per sample or block
+    // and classification per step
+    final LatencyHistogram magnitudeStage = new LatencyHistogram("magnitude");
+    final LatencyHistogram findHighPointsStage = new LatencyHistogram("FindHighPoints");
+    final LatencyHistogram removeNearHighPointsStage = new LatencyHistogram("RemoveNearHighPoints");
+    final LatencyHistogram classificationStage = new LatencyHistogram("classification");
+    // From the sensor timestamp of the high point to the StepListener.Step call
+    final AtomicLong steps = new AtomicLong();
+    final LatencyHistogram sensorToStep = new LatencyHistogram("sensor to step");
+    // From StepCounterService.Start to the first sample of the session; 0 while no session waits for its first sample
+    final AtomicLong sessionStartNs = new AtomicLong();
+    final LatencyHistogram startToFirstSample = new LatencyHistogram("start to first sample");
+
+    public Metrics(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+    }
+
+    /**
+     * @return Shared Metrics that record nothing
+     */
+    public static Metrics Disabled() {
+        return DISABLED;
+    }
+
+    public boolean IsEnabled() {
+        return isEnabled;
+    }
+
+    public Snapshot TakeSnapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * The MarkSessionStart method notes when a session was started, so the first sample that is ingested after it
+     * records the time from the start to the first sample.
+     * @param elapsedRealtimeNs SystemClock.elapsedRealtimeNanos at the start
+     */
+    public void MarkSessionStart(long elapsedRealtimeNs) {
+        if (isEnabled) {
+            sessionStartNs.set(elapsedRealtimeNs);
+        }
+    }
+
+    /**
+     * Called for every ingested sample: records the time from the marked session start to the first of them.
+     */
+    void RecordFirstSample(long elapsedRealtimeNs) {
+        long start = sessionStartNs.get();
+        if (start != 0 && sessionStartNs.compareAndSet(start, 0)) {
+            startToFirstSample.Record(elapsedRealtimeNs - start);
+        }
+    }
+
+    /**
+     * Writes a snapshot to logSink, one line per counter group and histogram.
+     */
+    public void Log(LogSink logSink) {
+        if (!isEnabled) {
+            return;
+        }
+        Snapshot snapshot = TakeSnapshot();
+        logSink.Log(TAG, "samples ingested " + snapshot.GetSamplesIngested() + ", dropped " + snapshot.GetSamplesDropped()
+                + ", late events " + snapshot.GetLateEvents() + ", steps " + snapshot.GetSteps());
+        for (LatencyHistogram.Snapshot histogram : snapshot.GetHistograms()) {
+            if (histogram.GetCount() > 0) {
+                logSink.Log(TAG, histogram.toString());
+            }
+        }
+    }
+
+    /**
+     * The counters and histograms of the Metrics at one point in time.
+     */
+    public static class Snapshot {
+        private final long samplesIngested;
+        private final long samplesDropped;
+        private final long lateEvents;
+        private final long steps;
+        private final LatencyHistogram.Snapshot sensorToCallback;
+        private final LatencyHistogram.Snapshot magnitudeStage;
+        private final LatencyHistogram.Snapshot findHighPointsStage;
+        private final LatencyHistogram.Snapshot removeNearHighPointsStage;
+        private final LatencyHistogram.Snapshot classificationStage;
+        private final LatencyHistogram.Snapshot sensorToStep;
+        private final LatencyHistogram.Snapshot startToFirstSample;
+
+        Snapshot(Metrics metrics) {
+            samplesIngested = metrics.samplesIngested.get();
+            samplesDropped = metrics.samplesDropped.get();
+            lateEvents = metrics.lateEvents.get();
+            steps = metrics.steps.get();
+            sensorToCallback = metrics.sensorToCallback.TakeSnapshot();
+            magnitudeStage = metrics.magnitudeStage.TakeSnapshot();
+            findHighPointsStage = metrics.findHighPointsStage.TakeSnapshot();
+            removeNearHighPointsStage = metrics.removeNearHighPointsStage.TakeSnapshot();
+            classificationStage = metrics.classificationStage.TakeSnapshot();
+            sensorToStep = metrics.sensorToStep.TakeSnapshot();
+            startToFirstSample = metrics.startToFirstSample.TakeSnapshot();
+        }
+
+        public long GetSamplesIngested() {
+            return samplesIngested;
+        }
+
+        public long GetSamplesDropped() {
+            return samplesDropped;
+        }
+
+        public long GetLateEvents() {
+            return lateEvents;
+        }
+
+        public long GetSteps() {
+            return steps;
+        }
+
+        public LatencyHistogram.Snapshot GetSensorToCallback() {
+            return sensorToCallback;
+        }
+
+        public LatencyHistogram.Snapshot GetMagnitudeStage() {
+            return magnitudeStage;
+        }
+
+        public LatencyHistogram.Snapshot GetFindHighPointsStage() {
+            return findHighPointsStage;
+        }
+
+        public LatencyHistogram.Snapshot GetRemoveNearHighPointsStage() {
+            return removeNearHighPointsStage;
+        }
+
+        public LatencyHistogram.Snapshot GetClassificationStage() {
+            return classificationStage;
+        }
+
+        public LatencyHistogram.Snapshot GetSensorToStep() {
+            return sensorToStep;
+        }
+
+        public LatencyHistogram.Snapshot GetStartToFirstSample() {
+            return startToFirstSample;
+        }
+
+        public LatencyHistogram.Snapshot[] GetHistograms() {
+            return new LatencyHistogram.Snapshot[]{sensorToCallback, magnitudeStage, findHighPointsStage,
+                    removeNearHighPointsStage, classificationStage, sensorToStep, startToFirstSample};
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.stepcounter;
+
+/**
+ * The PeakWindow class suppresses high points that are near a higher one.
+ * A high point is kept only if no other high point within duration (in the unit of the times) before or after it
+ * is higher (of two equal high points the later one is kept).
+ * The high points are kept in a monotonic deque: every new high point removes the older ones that are not higher,
+ * so each high point is added and removed at most once.
+ * A high point leaves the window once no later high point can be within the duration anymore;
+ * PollConfirmed then returns it if it was not suppressed.
+ */
+class PeakWindow {
+    private static final int CAPACITY = 256; // must be a power of two
+    private static final int MASK = CAPACITY - 1;
+
+    private long duration;
+    private final long[] times = new long[CAPACITY];
+    private final double[] values = new double[CAPACITY];
+    private final float[] xValues = new float[CAPACITY];
+    private final float[] yValues = new float[CAPACITY];
+    private final float[] zValues = new float[CAPACITY];
+    private final boolean[] suppressed = new boolean[CAPACITY];
+    private int head = 0;
+    private int size = 0;
+
+    PeakWindow(long duration) {
+        this.duration = duration;
+    }
+
+    /**
+     * The SetDuration method changes the duration for the high points that are added and polled from now on.
+     */
+    void SetDuration(long duration) {
+        this.duration = duration;
+    }
+
+    /**
+     * The Add method adds a high point. High points must be added in time order and
+     * PollConfirmed(time) must have been called until it returned -1 before.
+     * @return false if the window was full and the high point was not added
+     */
+    boolean Add(long time, double value, float x, float y, float z) {
+        if (size == CAPACITY) {
+            return false;
+        }
+        // Earlier high points within the duration that are not higher are suppressed by this one
+        while (size > 0 && values[(head + size - 1) & MASK] <= value) {
+            size--;
+        }
+        int index = (head + size) & MASK;
+        times[index] = time;
+        values[index] = value;
+        xValues[index] = x;
+        yValues[index] = y;
+        zValues[index] = z;
+        // Everything that is left in the window is higher
+        suppressed[index] = size > 0;
+        size++;
+        return true;
+    }
+
+    /**
+     * The PollConfirmed method removes the oldest high point if it is at least duration older than time.
+     * Suppressed high points are skipped.
+     * @param time No high point later than this can be added anymore
+     * @return int: The slot of the confirmed high point, valid until the next call of Add, or -1.
+     */
+    int PollConfirmed(long time) {
+        while (size > 0 && time - times[head] >= duration) {
+            int index = head;
+            head = (head + 1) & MASK;
+            size--;
+            if (!suppressed[index]) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The PollAny method removes the oldest high point regardless of its time.
+     * It is used when no more high points will be added.
+     * @return int: The slot of the high point, or -1 if the window holds no more unsuppressed high points.
+     */
+    int PollAny() {
+        return PollConfirmed(Long.MAX_VALUE);
+    }
+
+    void Clear() {
+        head = 0;
+        size = 0;
+    }
+
+    long GetTime(int index) {
+        return times[index];
+    }
+
+    double GetValue(int index) {
+        return values[index];
+    }
+
+    float GetX(int index) {
+        return xValues[index];
+    }
+
+    float GetY(int index) {
+        return yValues[index];
+    }
+
+    float GetZ(int index) {
+        return zValues[index];
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.stepcounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The SampleChannel class hands acceleration samples and Control messages from one producer thread to one consumer
+ * thread without locks, in the order they were offered. It is a ring of primitive slots: the producer writes a slot
+ * and then publishes it by advancing tail, the consumer reads it and then frees it by advancing head. Each index is
+ * written by one thread only, so no compare-and-set is needed.
+ * Overflow policy: when the ring is full the new sample is dropped and counted, the consumer sees a gap in the sensor
+ * timestamps as if the sensor had dropped it. The oldest samples cannot be dropped instead because only the consumer
+ * may advance head. CONTROLRESERVE slots are kept free for Control messages, so a pause or finish is never lost
+ * because of samples.
+ * A consumer without messages parks in AwaitMessages; the producer only unparks it if it is parked.
+ */
+public class SampleChannel {
+    /**
+     * Control messages, handled by the consumer in order with the samples.
+     */
+    public enum Control {
+        PAUSE,
+        RESUME,
+        FINISH
+    }
+
+    /**
+     * Receives the messages of the channel on the consumer thread.
+     */
+    public interface Receiver extends AccelerationSink {
+        void Control(Control control);
+    }
+
+    static final int CONTROLRESERVE = 16;
+    private static final byte SAMPLE = -1;
+    private static final Control[] CONTROLS = Control.values();
+
+    private final int capacity;
+    private final int mask;
+    private final long[] timestamps;
+    private final float[] xValues;
+    private final float[] yValues;
+    private final float[] zValues;
+    private final byte[] kinds;
+    // Next slot to read, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+    private final AtomicLong droppedControls = new AtomicLong();
+    private volatile Thread waitingConsumer = null;
+    // Used on the producer thread only: head as last read, so a full check does not read head every time
+    private long cachedHead = 0;
+
+    /**
+     * @param capacity Number of slots, a power of two greater than CONTROLRESERVE
+     */
+    public SampleChannel(int capacity) {
+        if (capacity <= CONTROLRESERVE || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two greater than " + CONTROLRESERVE);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.timestamps = new long[capacity];
+        this.xValues = new float[capacity];
+        this.yValues = new float[capacity];
+        this.zValues = new float[capacity];
+        this.kinds = new byte[capacity];
+    }
+
+    /**
+     * Offers a sample. Must be called on the producer thread.
+     * @return false if the channel was full and the sample was dropped
+     */
+    public boolean Offer(long timestampNs, float x, float y, float z) {
+        long slot = tail.get();
+        if (!HasRoom(slot, capacity - CONTROLRESERVE)) {
+            droppedSamples.incrementAndGet();
+            return false;
+        }
+        int index = (int) slot & mask;
+        timestamps[index] = timestampNs;
+        xValues[index] = x;
+        yValues[index] = y;
+        zValues[index] = z;
+        kinds[index] = SAMPLE;
+        Publish(slot);
+        return true;
+    }
+
+    /**
+     * Offers a Control message, which may use the reserved slots. Must be called on the producer thread.
+     * @return false if CONTROLRESERVE messages are already waiting and control was dropped
+     */
+    public boolean OfferControl(Control control) {
+        long slot = tail.get();
+        if (!HasRoom(slot, capacity)) {
+            droppedControls.incrementAndGet();
+            return false;
+        }
+        kinds[(int) slot & mask] = (byte) control.ordinal();
+        Publish(slot);
+        return true;
+    }
+
+    /**
+     * Passes every message that is waiting to receiver and frees its slot. Must be called on the consumer thread.
+     * @return The number of messages
+     */
+    public int Drain(Receiver receiver) {
+        long start = head.get();
+        long end = tail.get();
+        for (long slot = start; slot < end; slot++) {
+            int index = (int) slot & mask;
+            byte kind = kinds[index];
+            if (kind == SAMPLE) {
+                receiver.AddAccelerationData(timestamps[index], xValues[index], yValues[index], zValues[index]);
+            } else {
+                receiver.Control(CONTROLS[kind]);
+            }
+            // Freed one by one, so the producer gets room while a long batch is handled
+            head.lazySet(slot + 1);
+        }
+        return (int) (end - start);
+    }
+
+    /**
+     * Parks the consumer thread until a message is waiting. It can also return early, e.g. when the thread
+     * is interrupted. Must be called on the consumer thread.
+     */
+    public void AwaitMessages() {
+        if (!IsEmpty()) {
+            return;
+        }
+        waitingConsumer = Thread.currentThread();
+        // Checked again after announcing the wait, so a message published in between is not missed
+        if (IsEmpty()) {
+            LockSupport.park(this);
+        }
+        waitingConsumer = null;
+    }
+
+    public boolean IsEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * @return The number of samples dropped because the channel was full
+     */
+    public long GetDroppedSamples() {
+        return droppedSamples.get();
+    }
+
+    /**
+     * @return The number of Control messages dropped because the reserved slots were full
+     */
+    public long GetDroppedControls() {
+        return droppedControls.get();
+    }
+
+    private boolean HasRoom(long slot, int limit) {
+        if (slot - cachedHead < limit) {
+            return true;
+        }
+        cachedHead = head.get();
+        return slot - cachedHead < limit;
+    }
+
+    private void Publish(long slot) {
+        // A volatile write, not lazySet: it must not be reordered with the read of waitingConsumer below
+        tail.set(slot + 1);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            waitingConsumer = null;
+            LockSupport.unpark(consumer);
+        }
+    }
+}
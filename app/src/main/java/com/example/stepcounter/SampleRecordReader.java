@@ -0,0 +1,70 @@
+package com.example.stepcounter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The SampleRecordReader class reads the segments written by SampleRecorder.
+ * Every segment is memory-mapped read-only and decoded in one pass, so even a session of several hours
+ * is scanned within milliseconds.
+ */
+public class SampleRecordReader {
+    private final File directory;
+    private final String sessionName;
+
+    public SampleRecordReader(File directory, String sessionName) {
+        this.directory = directory;
+        this.sessionName = sessionName;
+    }
+
+    /**
+     * The ReadInto method passes all samples of the session to sink in the order they were recorded.
+     * Timestamps have a resolution of one microsecond and x, y, z one of 1/QUANTIZATIONSTEPS m/s².
+     * @return long: The number of samples.
+     */
+    public long ReadInto(AccelerationSink sink) throws IOException {
+        long sampleCount = 0;
+        for (int segmentNumber = 0; ; segmentNumber++) {
+            File file = SampleRecorder.SegmentFile(directory, sessionName, segmentNumber);
+            if (!file.isFile()) {
+                break;
+            }
+            sampleCount += ReadSegment(file, sink);
+        }
+        return sampleCount;
+    }
+
+    private static int ReadSegment(File file, AccelerationSink sink) throws IOException {
+        try (RandomAccessFile segmentFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = segmentFile.getChannel();
+            if (channel.size() < SampleRecorder.HEADERSIZE) {
+                throw new IOException(file + ": not a sample recording");
+            }
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            if (segment.getInt(0) != SampleRecorder.MAGIC || segment.getInt(4) != SampleRecorder.VERSION) {
+                throw new IOException(file + ": not a sample recording");
+            }
+            long timeUs = segment.getLong(SampleRecorder.OFFSETOFBASETIME) / 1000L;
+            int recordCount = segment.getInt(SampleRecorder.OFFSETOFRECORDCOUNT);
+            long available = (channel.size() - SampleRecorder.HEADERSIZE) / SampleRecorder.RECORDSIZE;
+            if (recordCount < 0 || recordCount > available) {
+                throw new IOException(file + ": invalid record count " + recordCount);
+            }
+            float scale = 1f / SampleRecorder.QUANTIZATIONSTEPS;
+            segment.position(SampleRecorder.HEADERSIZE);
+            for (int i = 0; i < recordCount; i++) {
+                timeUs += segment.getInt();
+                float x = segment.getShort() * scale;
+                float y = segment.getShort() * scale;
+                float z = segment.getShort() * scale;
+                sink.AddAccelerationData(timeUs * 1000L, x, y, z);
+            }
+            return recordCount;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.stepcounter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The SampleRecorder class writes the raw measurements of a session to memory-mapped segment files.
+ * Every sample is a fixed record of RECORDSIZE bytes: the time since the previous sample in microseconds (int)
+ * and x, y, z quantized to 1/QUANTIZATIONSTEPS m/s² (short). A segment starts with a header that holds the
+ * timestamp of its first sample and the number of records. The number is updated with every sample,
+ * so the segment stays readable if the app is killed. When a segment is full, or the time to the previous sample does not fit into an int,
+ * a new segment is started. Appending a sample only writes into mapped memory; there is no system call
+ * except when a segment is rolled over.
+ * SampleRecordReader reads the segments back.
+ * The recordings are not kept forever: Prune deletes all but the newest sessions within a byte budget.
+ */
+public class SampleRecorder implements AccelerationSink, Closeable {
+    private static final String TAG = "SR";
+    static final int MAGIC = 0x31434552; // "REC1" in little endian
+    static final int VERSION = 1;
+    static final int HEADERSIZE = 32;
+    static final int RECORDSIZE = 4 + 3 * 2;
+    static final float QUANTIZATIONSTEPS = 256f; // ±128 m/s² with a resolution of 1/256 m/s²
+    static final int OFFSETOFBASETIME = 8;
+    static final int OFFSETOFRECORDCOUNT = 16;
+    static final String SEGMENTSUFFIX = ".rec";
+    private static final int SEGMENTSIZE = 4 * 1024 * 1024;
+    private static final int MAXRECORDCOUNT = (SEGMENTSIZE - HEADERSIZE) / RECORDSIZE;
+    // Retention of the recordings; 128 MiB hold about 70 hours at 50 Hz
+    static final int MAXRECORDEDSESSIONS = 20;
+    static final long MAXRECORDINGBYTES = 128L * 1024 * 1024;
+
+    private final File directory;
+    private final String sessionName;
+    private final LogSink logSink;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private int segmentNumber = 0;
+    private int recordCount;
+    private long lastTimeUs;
+    private long sampleCount = 0;
+    private long droppedSamples = 0;
+    private boolean isFailed = false;
+
+    /**
+     * @param directory Directory of the segment files, it is created if necessary
+     * @param sessionName Prefix of the segment files of this session
+     * @param logSink Receives errors, because AddAccelerationData cannot throw them
+     */
+    public SampleRecorder(File directory, String sessionName, LogSink logSink) {
+        this.directory = directory;
+        this.sessionName = sessionName;
+        this.logSink = logSink;
+    }
+
+    /**
+     * The AddAccelerationData method appends one sample. If the recorder failed to create a segment, the sample
+     * is only counted as dropped.
+     */
+    @Override
+    public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+        if (isFailed) {
+            droppedSamples++;
+            return;
+        }
+        long timeUs = timestampNs / 1000L;
+        long deltaUs = timeUs - lastTimeUs;
+        if (segment == null || recordCount == MAXRECORDCOUNT || deltaUs < 0 || deltaUs > Integer.MAX_VALUE) {
+            try {
+                StartSegment(timestampNs);
+            } catch (IOException e) {
+                logSink.Log(TAG, "Could not create segment: " + e);
+                isFailed = true;
+                droppedSamples++;
+                return;
+            }
+            deltaUs = 0;
+        }
+        segment.putInt((int) deltaUs);
+        segment.putShort(Quantize(x));
+        segment.putShort(Quantize(y));
+        segment.putShort(Quantize(z));
+        lastTimeUs = timeUs;
+        recordCount++;
+        segment.putInt(OFFSETOFRECORDCOUNT, recordCount);
+        sampleCount++;
+    }
+
+    public long GetSampleCount() {
+        return sampleCount;
+    }
+
+    public long GetDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * The close method finishes the current segment and shrinks its file to the records actually written.
+     */
+    @Override
+    public void close() throws IOException {
+        FinishSegment();
+    }
+
+    /**
+     * The DeleteSession method deletes the segment files of a session.
+     * @return The number of deleted segments
+     */
+    public static int DeleteSession(File directory, String sessionName) {
+        int deletedSegments = 0;
+        for (int segmentNumber = 0; ; segmentNumber++) {
+            File file = SegmentFile(directory, sessionName, segmentNumber);
+            if (!file.isFile()) {
+                return deletedSegments;
+            }
+            if (file.delete()) {
+                deletedSegments++;
+            }
+        }
+    }
+
+    /**
+     * The Prune method keeps the newest maxSessions sessions as long as they fit into maxBytes together and deletes
+     * the segments of all older sessions. A session is as new as its last written segment. It must not be called
+     * while a SampleRecorder writes into directory.
+     * @return The number of deleted sessions
+     */
+    public static int Prune(File directory, int maxSessions, long maxBytes) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        // Per session: time of the last written segment and bytes of all segments
+        final Map<String, long[]> sessions = new HashMap<>();
+        for (File file : files) {
+            String fileName = file.getName();
+            int separator = fileName.lastIndexOf('-');
+            if (!fileName.endsWith(SEGMENTSUFFIX) || separator <= 0) {
+                continue;
+            }
+            String sessionName = fileName.substring(0, separator);
+            long[] session = sessions.get(sessionName);
+            if (session == null) {
+                session = new long[2];
+                sessions.put(sessionName, session);
+            }
+            session[0] = Math.max(session[0], file.lastModified());
+            session[1] += file.length();
+        }
+        List<String> sessionNames = new ArrayList<>(sessions.keySet());
+        Collections.sort(sessionNames, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                // Newest first; session names hold their start time, so they break ties
+                int order = Long.compare(sessions.get(second)[0], sessions.get(first)[0]);
+                return order != 0 ? order : second.compareTo(first);
+            }
+        });
+        int keptSessions = 0;
+        long bytes = 0;
+        int deletedSessions = 0;
+        for (String sessionName : sessionNames) {
+            bytes += sessions.get(sessionName)[1];
+            if (keptSessions < maxSessions && bytes <= maxBytes) {
+                keptSessions++;
+            } else {
+                DeleteSession(directory, sessionName);
+                deletedSessions++;
+            }
+        }
+        return deletedSessions;
+    }
+
+    static File SegmentFile(File directory, String sessionName, int segmentNumber) {
+        return new File(directory, String.format(Locale.US, "%s-%04d%s", sessionName, segmentNumber, SEGMENTSUFFIX));
+    }
+
+    static short Quantize(float value) {
+        int quantized = Math.round(value * QUANTIZATIONSTEPS);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, quantized));
+    }
+
+    private void StartSegment(long timestampNs) throws IOException {
+        FinishSegment();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        segmentFile = new RandomAccessFile(SegmentFile(directory, sessionName, segmentNumber++), "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENTSIZE);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segment.putLong(timestampNs);
+        segment.putInt(0);
+        segment.position(HEADERSIZE);
+        recordCount = 0;
+        lastTimeUs = timestampNs / 1000L;
+    }
+
+    private void FinishSegment() throws IOException {
+        if (segmentFile == null) {
+            return;
+        }
+        try {
+            segment.force();
+            segmentFile.setLength(HEADERSIZE + (long) recordCount * RECORDSIZE);
+        } finally {
+            segmentFile.close();
+            segmentFile = null;
+            segment = null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.stepcounter;
+
+/**
+ * The SamplingRateController class chooses the sampling period of the acceleration sensor from the detected steps
+ * and the signal energy: IDLESAMPLINGPERIODUS when there was no step for IDLEAFTERNS and the signal is quiet,
+ * NORMALSAMPLINGPERIODUS while walking and FASTSAMPLINGPERIODUS while jogging or running, so the short peaks
+ * of fast steps are not missed.
+ * Raising the rate happens at once. Lowering it needs the hold time of the faster level to run out and the level to be
+ * kept for MINDWELLNS, and the energy has a higher threshold to leave IDLE than to stay above it, so the rate
+ * does not switch back and forth at the border of two levels.
+ * It is not thread-safe: all methods must be called on the one thread that runs the StepDetector, in
+ * AccelerometerStepSource the detector thread that drains the SampleChannel. The chosen period is applied with
+ * SensorIngestion.SetSamplingPeriod, which may be called from that thread.
+ */
+public class SamplingRateController {
+    public static final int IDLESAMPLINGPERIODUS = 40000; // 25 Hz
+    public static final int NORMALSAMPLINGPERIODUS = 20000; // 50 Hz
+    public static final int FASTSAMPLINGPERIODUS = 10000; // 100 Hz
+    private static final long IDLEAFTERNS = 20000000000L;
+    private static final long FASTHOLDNS = 10000000000L;
+    private static final long MINDWELLNS = 3000000000L;
+    private static final double TIMECONSTANTNS = 1e9;
+    // Variance of the vector length in (m/s^2)^2; sensor noise alone stays well below ENERGYLOW
+    private static final double ENERGYHIGH = 4.0;
+    private static final double ENERGYLOW = 1.0;
+
+    private int samplingPeriodUs = NORMALSAMPLINGPERIODUS;
+    private boolean hasData = false;
+    private long lastChangeNs;
+    private long lastTimestampNs;
+    private long lastStepNs;
+    private long lastFastStepNs;
+    private double mean;
+    private double energy = 0;
+
+    public int GetSamplingPeriod() {
+        return samplingPeriodUs;
+    }
+
+    public double GetEnergy() {
+        return energy;
+    }
+
+    /**
+     * Updates the signal energy with one measurement.
+     * @return The sampling period that should be used from now on
+     */
+    public int AddAccelerationData(long timestampNs, float x, float y, float z) {
+        double length = Math.sqrt(x * x + y * y + z * z);
+        if (!hasData) {
+            // Start at NORMALSAMPLINGPERIODUS as if a walking step had just been seen
+            hasData = true;
+            mean = length;
+            lastTimestampNs = timestampNs;
+            lastChangeNs = timestampNs;
+            lastStepNs = timestampNs;
+            lastFastStepNs = timestampNs - FASTHOLDNS;
+            return samplingPeriodUs;
+        }
+        long elapsedNs = timestampNs - lastTimestampNs;
+        if (elapsedNs <= 0) {
+            elapsedNs = samplingPeriodUs * 1000L;
+        }
+        // The weight follows the time between two measurements, so the time constant does not change with the rate
+        double weight = elapsedNs / (TIMECONSTANTNS + elapsedNs);
+        double deviation = length - mean;
+        mean += weight * deviation;
+        energy += weight * (deviation * deviation - energy);
+        lastTimestampNs = timestampNs;
+        return Update();
+    }
+
+    /**
+     * Takes a step of the StepDetector into account; it belongs to the latest measurement.
+     * @return The sampling period that should be used from now on
+     */
+    public int Step(StepType stepType) {
+        if (!hasData) {
+            return samplingPeriodUs;
+        }
+        switch (stepType) {
+            case RUNNING:
+            case JOGGING:
+                lastFastStepNs = lastTimestampNs;
+                lastStepNs = lastTimestampNs;
+                break;
+            case WALKING:
+                lastStepNs = lastTimestampNs;
+                break;
+            case STATIONARY:
+                break;
+        }
+        return Update();
+    }
+
+    private int Update() {
+        int target;
+        if (lastTimestampNs - lastFastStepNs < FASTHOLDNS) {
+            target = FASTSAMPLINGPERIODUS;
+        } else if (lastTimestampNs - lastStepNs < IDLEAFTERNS
+                || energy > (samplingPeriodUs == IDLESAMPLINGPERIODUS ? ENERGYHIGH : ENERGYLOW)) {
+            target = NORMALSAMPLINGPERIODUS;
+        } else {
+            target = IDLESAMPLINGPERIODUS;
+        }
+        boolean isFaster = target < samplingPeriodUs;
+        if (isFaster || (target > samplingPeriodUs && lastTimestampNs - lastChangeNs >= MINDWELLNS)) {
+            samplingPeriodUs = target;
+            lastChangeNs = lastTimestampNs;
+        }
+        return samplingPeriodUs;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.stepcounter;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * The SensorIngestion class receives the acceleration sensor on its own HandlerThread and passes every
+ * measurement to an AccelerationSink on that thread, so the main thread never runs the step detection.
+ * With a maxReportLatencyUs greater than 0 the sensor hardware collects the events in its FIFO and delivers them
+ * in batches, so the CPU can sleep in between.
+ * The methods that register and unregister are synchronized, so they can be called from the main thread and from
+ * the threads that handle the samples, e.g. for a SamplingRateController.
+ */
+public class SensorIngestion implements SensorEventListener2 {
+    private static final String TAG = "SI";
+
+    private final SensorManager sensorManager;
+    private final Sensor sensor;
+    private final AccelerationSink accelerationSink;
+    private final LogSink logSink;
+    private HandlerThread handlerThread;
+    private Handler handler;
+    private int samplingPeriodUs;
+    private int maxReportLatencyUs;
+    private boolean isRegistered = false;
+    // Values to register with once the FIFO is flushed, if isPending
+    private boolean isPending = false;
+    private int pendingSamplingPeriodUs;
+    private int pendingMaxReportLatencyUs;
+    // Runs on the sensor thread once the FIFO is flushed and the listener is unregistered, null if none
+    private Runnable pendingStop = null;
+    private Metrics metrics = Metrics.Disabled();
+    // Only used on the sensor thread
+    private long lastTimestamp = 0;
+
+    public SensorIngestion(SensorManager sensorManager, Sensor sensor, AccelerationSink accelerationSink, LogSink logSink) {
+        this.sensorManager = sensorManager;
+        this.sensor = sensor;
+        this.accelerationSink = accelerationSink;
+        this.logSink = logSink;
+    }
+
+    /**
+     * Creates a SensorIngestion that delivers on the thread of handler instead of its own thread.
+     * Shutdown does not end that thread.
+     */
+    public SensorIngestion(SensorManager sensorManager, Sensor sensor, AccelerationSink accelerationSink, LogSink logSink,
+                           Handler handler) {
+        this(sensorManager, sensor, accelerationSink, logSink);
+        this.handler = handler;
+    }
+
+    /**
+     * The Start method registers the listener on the sensor thread. If it is already registered
+     * with other values, it is registered again.
+     * @param samplingPeriodUs Requested time between two measurements in microseconds
+     * @param maxReportLatencyUs Maximum time in microseconds the hardware may keep measurements before delivering them
+     */
+    public synchronized void Start(int samplingPeriodUs, int maxReportLatencyUs) {
+        isPending = false;
+        if (isRegistered && samplingPeriodUs == this.samplingPeriodUs && maxReportLatencyUs == this.maxReportLatencyUs) {
+            return;
+        }
+        Unregister();
+        this.samplingPeriodUs = samplingPeriodUs;
+        this.maxReportLatencyUs = maxReportLatencyUs;
+        if (metrics.IsEnabled()) {
+            // The pause between two registrations does not count as dropped samples
+            GetHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    lastTimestamp = 0;
+                }
+            });
+        }
+        isRegistered = sensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, GetHandler());
+        if (!isRegistered) {
+            logSink.Log(TAG, "Could not register sensor listener");
+        }
+    }
+
+    /**
+     * The SetSamplingPeriod method changes the sampling period while the listener is registered.
+     * The sink and everything it holds are kept. Unregistering drops the measurements that wait in the FIFO,
+     * so with a maxReportLatencyUs greater than 0 the FIFO is flushed first and the listener is registered again
+     * in onFlushCompleted.
+     */
+    public synchronized void SetSamplingPeriod(int samplingPeriodUs) {
+        if (!isRegistered) {
+            this.samplingPeriodUs = samplingPeriodUs;
+        } else if (samplingPeriodUs != GetSamplingPeriod()) {
+            StartAfterFlush(samplingPeriodUs, GetMaxReportLatency());
+        }
+    }
+
+    /**
+     * The SetMaxReportLatency method changes the report latency while the listener is registered, e.g. when the
+     * counters are shown or hidden. Like SetSamplingPeriod it flushes the FIFO before registering again, and the
+     * flush also delivers at once what would otherwise wait for the old, longer latency.
+     */
+    public synchronized void SetMaxReportLatency(int maxReportLatencyUs) {
+        if (!isRegistered) {
+            this.maxReportLatencyUs = maxReportLatencyUs;
+        } else if (maxReportLatencyUs != GetMaxReportLatency()) {
+            StartAfterFlush(GetSamplingPeriod(), maxReportLatencyUs);
+        }
+    }
+
+    /**
+     * The SetMetrics method sets where the ingested, dropped and late samples and the time from the sensor
+     * to onSensorChanged are recorded. It must be called before Start.
+     */
+    public void SetMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The sampling period that is or will be registered
+     */
+    public synchronized int GetSamplingPeriod() {
+        return isPending ? pendingSamplingPeriodUs : samplingPeriodUs;
+    }
+
+    /**
+     * @return The report latency that is or will be registered
+     */
+    public synchronized int GetMaxReportLatency() {
+        return isPending ? pendingMaxReportLatencyUs : maxReportLatencyUs;
+    }
+
+    public synchronized boolean IsRegistered() {
+        return isRegistered;
+    }
+
+    /**
+     * The Stop method unregisters the listener. The sensor thread keeps running.
+     */
+    public synchronized void Stop() {
+        Unregister();
+    }
+
+    /**
+     * The Stop method flushes the FIFO, so the last batch is delivered, then unregisters the listener and runs
+     * onStopped on the sensor thread after the flushed measurements.
+     */
+    public synchronized void Stop(Runnable onStopped) {
+        if (isRegistered && maxReportLatencyUs > 0 && pendingStop == null) {
+            pendingStop = onStopped;
+            if (sensorManager.flush(this)) {
+                return;
+            }
+            pendingStop = null;
+        }
+        Unregister();
+        GetHandler().post(onStopped);
+    }
+
+    /**
+     * The Flush method asks the sensor to deliver the measurements it holds in its FIFO now.
+     */
+    public synchronized void Flush() {
+        if (isRegistered) {
+            sensorManager.flush(this);
+        }
+    }
+
+    /**
+     * The Post method runs action on the sensor thread after the events and actions that are already queued there.
+     */
+    public void Post(Runnable action) {
+        GetHandler().post(action);
+    }
+
+    /**
+     * The Shutdown method unregisters the listener and ends its own sensor thread once all queued actions are done.
+     */
+    public synchronized void Shutdown() {
+        Unregister();
+        if (handlerThread != null) {
+            handlerThread.quitSafely();
+            handlerThread = null;
+            handler = null;
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        if (metrics.IsEnabled()) {
+            RecordEvent(event.timestamp);
+        }
+        accelerationSink.AddAccelerationData(event.timestamp, event.values[0], event.values[1], event.values[2]);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+
+    @Override
+    public synchronized void onFlushCompleted(Sensor sensor) {
+        if (pendingStop != null) {
+            // Called on the sensor thread, so it runs after the flushed measurements
+            Runnable onStopped = pendingStop;
+            Unregister();
+            onStopped.run();
+        } else if (isPending && isRegistered) {
+            Start(pendingSamplingPeriodUs, pendingMaxReportLatencyUs);
+        }
+    }
+
+    /**
+     * Registers with the new values at once if the FIFO is not used, otherwise once it is flushed.
+     */
+    private void StartAfterFlush(int samplingPeriodUs, int maxReportLatencyUs) {
+        if (this.maxReportLatencyUs == 0) {
+            Start(samplingPeriodUs, maxReportLatencyUs);
+            return;
+        }
+        boolean isFlushing = isPending;
+        isPending = true;
+        pendingSamplingPeriodUs = samplingPeriodUs;
+        pendingMaxReportLatencyUs = maxReportLatencyUs;
+        if (!isFlushing && !sensorManager.flush(this)) {
+            Start(samplingPeriodUs, maxReportLatencyUs);
+        }
+    }
+
+    /**
+     * Counts a sample. A gap of more than two sampling periods to the previous sample counts as dropped samples,
+     * an event that arrives later than the report latency plus one sampling period counts as late.
+     */
+    private void RecordEvent(long timestamp) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        metrics.RecordFirstSample(now);
+        long latencyNs = now - timestamp;
+        long samplingPeriodNs = samplingPeriodUs * 1000L;
+        metrics.samplesIngested.incrementAndGet();
+        metrics.sensorToCallback.Record(latencyNs);
+        if (latencyNs > maxReportLatencyUs * 1000L + samplingPeriodNs) {
+            metrics.lateEvents.incrementAndGet();
+        }
+        if (lastTimestamp != 0 && samplingPeriodNs > 0 && timestamp - lastTimestamp > 2 * samplingPeriodNs) {
+            metrics.samplesDropped.addAndGet((timestamp - lastTimestamp) / samplingPeriodNs - 1);
+        }
+        lastTimestamp = timestamp;
+    }
+
+    private Handler GetHandler() {
+        if (handler == null) {
+            handlerThread = new HandlerThread("SensorIngestion", Process.THREAD_PRIORITY_MORE_FAVORABLE);
+            handlerThread.start();
+            handler = new Handler(handlerThread.getLooper());
+        }
+        return handler;
+    }
+
+    private void Unregister() {
+        isPending = false;
+        pendingStop = null;
+        if (isRegistered) {
+            sensorManager.unregisterListener(this);
+            isRegistered = false;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.stepcounter;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The SessionExportReader class reads a file written by SessionExportWriter block by block.
+ * It holds one block at a time in fixed buffers, so a session of several hours is read with constant memory.
+ * A file without the end block, e.g. one that was cut off while it was copied, is an error.
+ */
+public class SessionExportReader implements Closeable {
+    private static final StepType[] STEPTYPES = StepType.values();
+
+    private final ReadableByteChannel channel;
+    private final long timeOffsetToUnix;
+    private final Inflater inflater = new Inflater();
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(SessionExportWriter.SIZEOFBLOCKHEADER)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] compressed = new byte[SessionExportWriter.MAXSIZEOFCOMPRESSEDBLOCK];
+    private final ByteBuffer compressedBuffer = ByteBuffer.wrap(compressed);
+    private final byte[] raw = new byte[SessionExportWriter.MAXSIZEOFRAWBLOCK];
+    private final long[] times = new long[Math.max(SessionExportWriter.SAMPLESPERBLOCK,
+            SessionExportWriter.STEPSPERBLOCK)];
+    private final int[] xValues = new int[SessionExportWriter.SAMPLESPERBLOCK];
+    private final int[] yValues = new int[SessionExportWriter.SAMPLESPERBLOCK];
+    private int rawPosition;
+    private int rawSize;
+
+    /**
+     * Reads the header from channel.
+     */
+    public SessionExportReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(SessionExportWriter.SIZEOFHEADER).order(ByteOrder.LITTLE_ENDIAN);
+        ReadFully(header);
+        header.flip();
+        if (header.getInt() != SessionExportWriter.MAGIC || header.getInt() != SessionExportWriter.VERSION) {
+            throw new IOException("Not a session export");
+        }
+        timeOffsetToUnix = header.getLong();
+    }
+
+    /**
+     * @return Unix time minus sensor time in milliseconds, as passed to the SessionExportWriter
+     */
+    public long GetTimeOffsetToUnix() {
+        return timeOffsetToUnix;
+    }
+
+    /**
+     * The ReadInto method reads the rest of the file once and passes the samples to sampleSink and the steps to
+     * stepSink, each in the order they were written. Samples and steps are written in separate blocks, so a step
+     * can arrive before samples that are older than it. Timestamps have a resolution of one microsecond and
+     * x, y, z one of 1/QUANTIZATIONSTEPS m/s².
+     * @param sampleSink Receives the samples, or null to skip them
+     * @param stepSink Receives the steps, or null to skip them
+     * @return long: The number of samples.
+     */
+    public long ReadInto(AccelerationSink sampleSink, StepSink stepSink) throws IOException {
+        long sampleCount = 0;
+        while (true) {
+            blockHeader.clear();
+            ReadFully(blockHeader);
+            blockHeader.flip();
+            byte kind = blockHeader.get();
+            int count = blockHeader.getInt();
+            rawSize = blockHeader.getInt();
+            int compressedSize = blockHeader.getInt();
+            if (count < 0 || rawSize < 0 || rawSize > raw.length || compressedSize < 0
+                    || compressedSize > compressed.length) {
+                throw new IOException("Invalid block header");
+            }
+            compressedBuffer.clear();
+            compressedBuffer.limit(compressedSize);
+            ReadFully(compressedBuffer);
+            if (kind == SessionExportWriter.BLOCKEND) {
+                return sampleCount;
+            }
+            Inflate(compressedSize);
+            if (kind == SessionExportWriter.BLOCKSAMPLES) {
+                ReadSamples(count, sampleSink);
+                sampleCount += count;
+            } else if (kind == SessionExportWriter.BLOCKSTEPS) {
+                ReadSteps(count, stepSink);
+            } else {
+                throw new IOException("Unknown block kind " + kind);
+            }
+        }
+    }
+
+    /**
+     * The close method releases the Inflater. It does not close the channel.
+     */
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    private void Inflate(int compressedSize) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedSize);
+        try {
+            int size = 0;
+            while (size < rawSize && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, size, rawSize - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += inflated;
+            }
+            if (size != rawSize) {
+                throw new IOException("Block is shorter than " + rawSize + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid block", e);
+        }
+        rawPosition = 0;
+    }
+
+    private void ReadSamples(int count, AccelerationSink sink) throws IOException {
+        if (count > SessionExportWriter.SAMPLESPERBLOCK) {
+            throw new IOException("Invalid sample count " + count);
+        }
+        ReadTimes(count);
+        ReadColumn(count, xValues);
+        ReadColumn(count, yValues);
+        float scale = 1f / SampleRecorder.QUANTIZATIONSTEPS;
+        int z = 0;
+        for (int i = 0; i < count; i++) {
+            z += (int) GetVarLong();
+            if (sink != null) {
+                sink.AddAccelerationData(times[i] * 1000L, xValues[i] * scale, yValues[i] * scale, z * scale);
+            }
+        }
+    }
+
+    private void ReadSteps(int count, StepSink sink) throws IOException {
+        if (count > SessionExportWriter.STEPSPERBLOCK) {
+            throw new IOException("Invalid step count " + count);
+        }
+        ReadTimes(count);
+        if (rawSize - rawPosition < count) {
+            throw new IOException("Block is too short");
+        }
+        for (int i = 0; i < count; i++) {
+            int type = raw[rawPosition++];
+            if (type < 0 || type >= STEPTYPES.length) {
+                throw new IOException("Invalid step type " + type);
+            }
+            if (sink != null) {
+                sink.AddStep(times[i], STEPTYPES[type]);
+            }
+        }
+    }
+
+    private void ReadTimes(int count) throws IOException {
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            time += GetVarLong();
+            times[i] = time;
+        }
+    }
+
+    private void ReadColumn(int count, int[] values) throws IOException {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            value += (int) GetVarLong();
+            values[i] = value;
+        }
+    }
+
+    private long GetVarLong() throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (rawPosition == rawSize) {
+                throw new IOException("Block is too short");
+            }
+            byte b = raw[rawPosition++];
+            zigzag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    private void ReadFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Session export ends without end block");
+            }
+        }
+    }
+}
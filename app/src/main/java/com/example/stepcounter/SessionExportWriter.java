@@ -0,0 +1,212 @@
+package com.example.stepcounter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+
+/**
+ * The SessionExportWriter class streams the samples and steps of a session into a compact file that
+ * SessionExportReader reads back, e.g. to replay a session on a desktop.
+ * The file starts with a header of SIZEOFHEADER bytes: MAGIC, VERSION and the offset from sensor time to Unix time in
+ * milliseconds. Then follow blocks of up to SAMPLESPERBLOCK samples or STEPSPERBLOCK steps, and an empty block of kind
+ * BLOCKEND that marks a complete file. A block header holds the kind, the number of entries and the length of the
+ * payload before and after compression; the payload is deflated.
+ * The payload is stored by column. Sample blocks hold the timestamps in microseconds, then x, y and z quantized like
+ * SampleRecorder; step blocks hold the times in milliseconds, then the StepTypes as bytes. Every number column is
+ * the zigzag varint of the difference to the previous value in the block, so the regular sampling interval and
+ * the slowly changing acceleration take one or two bytes before compression.
+ * Blocks are encoded in fixed buffers and written to the channel when full, so the memory does not grow with the
+ * length of the session. AddAccelerationData and AddStep cannot throw; the first IOException is thrown by close.
+ */
+public class SessionExportWriter implements AccelerationSink, StepSink, Closeable {
+    static final int MAGIC = 0x31505845; // "EXP1" in little endian
+    static final int VERSION = 1;
+    static final int SIZEOFHEADER = 16;
+    static final int SIZEOFBLOCKHEADER = 1 + 3 * 4;
+    static final byte BLOCKEND = 0;
+    static final byte BLOCKSAMPLES = 1;
+    static final byte BLOCKSTEPS = 2;
+    static final int SAMPLESPERBLOCK = 4096;
+    static final int STEPSPERBLOCK = 4096;
+    static final int MAXSIZEOFVARLONG = 10;
+    private static final int MAXSIZEOFVARSHORT = 3;
+    static final int MAXSIZEOFRAWBLOCK = SAMPLESPERBLOCK * (MAXSIZEOFVARLONG + 3 * MAXSIZEOFVARSHORT);
+    // Deflate adds a few bytes per stored block of 16 KB if the data does not compress
+    static final int MAXSIZEOFCOMPRESSEDBLOCK = MAXSIZEOFRAWBLOCK + MAXSIZEOFRAWBLOCK / 64 + 64;
+
+    private final WritableByteChannel channel;
+    private final Deflater deflater = new Deflater();
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(SIZEOFBLOCKHEADER).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] raw = new byte[MAXSIZEOFRAWBLOCK];
+    private final byte[] compressed = new byte[MAXSIZEOFCOMPRESSEDBLOCK];
+    private final ByteBuffer compressedBuffer = ByteBuffer.wrap(compressed);
+    private final long[] sampleTimes = new long[SAMPLESPERBLOCK];
+    private final short[] xValues = new short[SAMPLESPERBLOCK];
+    private final short[] yValues = new short[SAMPLESPERBLOCK];
+    private final short[] zValues = new short[SAMPLESPERBLOCK];
+    private int sampleCount = 0;
+    private final long[] stepTimes = new long[STEPSPERBLOCK];
+    private final byte[] stepTypes = new byte[STEPSPERBLOCK];
+    private int stepCount = 0;
+    private int rawSize;
+    private long totalSamples = 0;
+    private long totalSteps = 0;
+    private IOException error = null;
+
+    /**
+     * Writes the header to channel.
+     * @param timeOffsetToUnix Unix time minus sensor time in milliseconds, 0 if unknown
+     */
+    public SessionExportWriter(WritableByteChannel channel, long timeOffsetToUnix) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(SIZEOFHEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(timeOffsetToUnix);
+        header.flip();
+        WriteFully(header);
+    }
+
+    /**
+     * Adds a sample. The timestamp is stored in microseconds and x, y, z in steps of 1/QUANTIZATIONSTEPS m/s².
+     */
+    @Override
+    public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+        if (error != null) {
+            return;
+        }
+        sampleTimes[sampleCount] = timestampNs / 1000L;
+        xValues[sampleCount] = SampleRecorder.Quantize(x);
+        yValues[sampleCount] = SampleRecorder.Quantize(y);
+        zValues[sampleCount] = SampleRecorder.Quantize(z);
+        sampleCount++;
+        totalSamples++;
+        if (sampleCount == SAMPLESPERBLOCK) {
+            WriteSamples();
+        }
+    }
+
+    @Override
+    public void AddStep(long timeMs, StepType stepType) {
+        if (error != null) {
+            return;
+        }
+        stepTimes[stepCount] = timeMs;
+        stepTypes[stepCount] = (byte) stepType.ordinal();
+        stepCount++;
+        totalSteps++;
+        if (stepCount == STEPSPERBLOCK) {
+            WriteSteps();
+        }
+    }
+
+    public long GetSampleCount() {
+        return totalSamples;
+    }
+
+    public long GetStepCount() {
+        return totalSteps;
+    }
+
+    /**
+     * The close method writes the pending blocks and the end block. It does not close the channel.
+     * @throws IOException The first error of writing the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (error == null) {
+            WriteSamples();
+            WriteSteps();
+            rawSize = 0;
+            WriteBlock(BLOCKEND, 0);
+        }
+        deflater.end();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void WriteSamples() {
+        if (sampleCount == 0) {
+            return;
+        }
+        rawSize = 0;
+        long previousTime = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            PutVarLong(sampleTimes[i] - previousTime);
+            previousTime = sampleTimes[i];
+        }
+        PutColumn(xValues);
+        PutColumn(yValues);
+        PutColumn(zValues);
+        WriteBlock(BLOCKSAMPLES, sampleCount);
+        sampleCount = 0;
+    }
+
+    private void WriteSteps() {
+        if (stepCount == 0) {
+            return;
+        }
+        rawSize = 0;
+        long previousTime = 0;
+        for (int i = 0; i < stepCount; i++) {
+            PutVarLong(stepTimes[i] - previousTime);
+            previousTime = stepTimes[i];
+        }
+        System.arraycopy(stepTypes, 0, raw, rawSize, stepCount);
+        rawSize += stepCount;
+        WriteBlock(BLOCKSTEPS, stepCount);
+        stepCount = 0;
+    }
+
+    private void PutColumn(short[] values) {
+        int previous = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            PutVarLong(values[i] - previous);
+            previous = values[i];
+        }
+    }
+
+    /**
+     * Appends value to raw as zigzag varint: 7 bits per byte, the lowest first, the high bit set if more follow.
+     */
+    private void PutVarLong(long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            raw[rawSize++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        raw[rawSize++] = (byte) zigzag;
+    }
+
+    private void WriteBlock(byte kind, int count) {
+        try {
+            deflater.reset();
+            deflater.setInput(raw, 0, rawSize);
+            deflater.finish();
+            int compressedSize = 0;
+            while (!deflater.finished()) {
+                if (compressedSize == compressed.length) {
+                    throw new IOException("Block does not fit into " + compressed.length + " bytes");
+                }
+                compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+            }
+            blockHeader.clear();
+            blockHeader.put(kind).putInt(count).putInt(rawSize).putInt(compressedSize);
+            blockHeader.flip();
+            WriteFully(blockHeader);
+            compressedBuffer.clear();
+            compressedBuffer.limit(compressedSize);
+            WriteFully(compressedBuffer);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    private void WriteFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
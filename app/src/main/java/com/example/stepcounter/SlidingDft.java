@@ -0,0 +1,156 @@
+package com.example.stepcounter;
+
+/**
+ * The SlidingDft class keeps the discrete Fourier transform of the last size values for the bins
+ * firstBin to lastBin. Every new value updates each bin with one complex multiplication, so the cost per value
+ * depends on the number of bins and not on the size of the window. The sums are calculated again from the window
+ * once per size values, so rounding errors of the updates cannot add up.
+ * The power of a bin is compared with the energy of the whole window without its mean (Parseval), which tells how
+ * much of the signal repeats with the frequency of that bin.
+ */
+final class SlidingDft {
+    private final int size;
+    private final int mask;
+    private final int firstBin;
+    private final int binCount;
+    private final double[] window;
+    private int writeIndex = 0;
+    private int count = 0;
+    private double sum = 0;
+    private double sumOfSquares = 0;
+    // cos and sin of 2 * pi * j / size
+    private final double[] cosTable;
+    private final double[] sinTable;
+    private final double[] real;
+    private final double[] imaginary;
+
+    /**
+     * @param size Number of values in the window, a power of two
+     * @param firstBin Lowest bin that is kept, at least 1
+     * @param lastBin Highest bin that is kept, less than size / 2
+     */
+    SlidingDft(int size, int firstBin, int lastBin) {
+        this.size = size;
+        this.mask = size - 1;
+        this.firstBin = firstBin;
+        this.binCount = lastBin - firstBin + 1;
+        this.window = new double[size];
+        this.cosTable = new double[size];
+        this.sinTable = new double[size];
+        for (int j = 0; j < size; j++) {
+            cosTable[j] = Math.cos(2 * Math.PI * j / size);
+            sinTable[j] = Math.sin(2 * Math.PI * j / size);
+        }
+        this.real = new double[binCount];
+        this.imaginary = new double[binCount];
+    }
+
+    /**
+     * Adds a value; the oldest value leaves the window once it is full.
+     */
+    void Add(double value) {
+        double oldest = window[writeIndex];
+        window[writeIndex] = value;
+        writeIndex = (writeIndex + 1) & mask;
+        if (count < size) {
+            count++;
+        }
+        if (writeIndex == 0) {
+            Recalculate();
+            return;
+        }
+        // X(n) = e^(i w) * (X(n - 1) - oldest + value), the window before it is full holds zeros
+        double delta = value - oldest;
+        for (int b = 0; b < binCount; b++) {
+            int j = (firstBin + b) & mask;
+            double re = real[b] + delta;
+            double im = imaginary[b];
+            real[b] = re * cosTable[j] - im * sinTable[j];
+            imaginary[b] = re * sinTable[j] + im * cosTable[j];
+        }
+        sum += delta;
+        sumOfSquares += value * value - oldest * oldest;
+    }
+
+    void Clear() {
+        for (int i = 0; i < size; i++) {
+            window[i] = 0;
+        }
+        for (int b = 0; b < binCount; b++) {
+            real[b] = 0;
+            imaginary[b] = 0;
+        }
+        writeIndex = 0;
+        count = 0;
+        sum = 0;
+        sumOfSquares = 0;
+    }
+
+    boolean IsFull() {
+        return count == size;
+    }
+
+    int GetSize() {
+        return size;
+    }
+
+    int GetFirstBin() {
+        return firstBin;
+    }
+
+    int GetLastBin() {
+        return firstBin + binCount - 1;
+    }
+
+    /**
+     * @return The squared magnitude of bin, which must be between firstBin and lastBin
+     */
+    double GetPower(int bin) {
+        int b = bin - firstBin;
+        return real[b] * real[b] + imaginary[b] * imaginary[b];
+    }
+
+    /**
+     * @return The share of the energy of the window without its mean that bin and its mirror bin hold, 0 to 1
+     */
+    double GetShareOfEnergy(int bin) {
+        double energy = sumOfSquares - sum * sum / size;
+        return energy > 0 ? Math.min(1, 2 * GetPower(bin) / (size * energy)) : 0;
+    }
+
+    /**
+     * @return The mean of the values added since the window was cleared, at most size of them
+     */
+    double GetMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * @return The variance of the values in the window
+     */
+    double GetVariance() {
+        return Math.max(0, (sumOfSquares - sum * sum / size) / size);
+    }
+
+    private void Recalculate() {
+        // The oldest value is at writeIndex, which is 0 here
+        sum = 0;
+        sumOfSquares = 0;
+        for (int m = 0; m < size; m++) {
+            sum += window[m];
+            sumOfSquares += window[m] * window[m];
+        }
+        for (int b = 0; b < binCount; b++) {
+            int bin = firstBin + b;
+            double re = 0;
+            double im = 0;
+            for (int m = 0; m < size; m++) {
+                int j = (bin * m) & mask;
+                re += window[m] * cosTable[j];
+                im -= window[m] * sinTable[j];
+            }
+            real[b] = re;
+            imaginary[b] = im;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.stepcounter;
+
+/**
+ * The StepBucket class holds the steps of every StepType in one minute, hour or day.
+ */
+public class StepBucket {
+    private final long start;
+    private final int[] counts = new int[StepType.values().length];
+
+    public StepBucket(long start) {
+        this.start = start;
+    }
+
+    /**
+     * @return Unix time in milliseconds of the start of the bucket
+     */
+    public long GetStart() {
+        return start;
+    }
+
+    public int GetCount(StepType stepType) {
+        return counts[stepType.ordinal()];
+    }
+
+    public int GetTotal() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    void Add(StepType stepType, int count) {
+        counts[stepType.ordinal()] += count;
+    }
+}
@@ -0,0 +1,453 @@
+package com.example.stepcounter;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * The StepCounterService class owns the StepSource and the StepCounts of a session and stores every step
+ * in the StepHistoryStore. While a session is running it is a foreground service, so counting goes on with the screen off
+ * or the app in the background. Activities bind to it, read the counts and get a callback when they change;
+ * binding and unbinding do not restart anything.
+ * The public methods must be called on the main thread.
+ */
+public class StepCounterService extends Service {
+    private static final String TAG = "SERVICE";
+    private static final String NOTIFICATIONCHANNEL = "step_counting";
+    private static final int NOTIFICATIONID = 1;
+    // Short batches while the counters are shown, long ones in the background so the CPU can sleep
+    private static final int INTERACTIVEMAXREPORTLATENCYUS = 200000;
+    private static final int BACKGROUNDMAXREPORTLATENCYUS = 10000000;
+    private static final long METRICSINTERVALMS = 60000;
+
+    /**
+     * Receives the result of Start on the main thread.
+     */
+    public interface StartListener {
+        /**
+         * @param isStarted False if the device has no sensor to count steps
+         */
+        void Started(boolean isStarted);
+    }
+
+    public class LocalBinder extends Binder {
+        public StepCounterService GetService() {
+            return StepCounterService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final StepCounts stepCounts = new StepCounts();
+    private StepSource stepSource;
+    private StepPipeline stepPipeline;
+    private StepHistoryStore stepHistoryStore;
+    private DetectorProfileStore detectorProfileStore;
+    private DetectorProfile detectorProfile;
+    private DetectionMode detectionMode = DetectionMode.STREAMING;
+    private PowerManager.WakeLock wakeLock;
+    private String sessionName;
+    private long sessionStartMs;
+    private long sessionEndMs = 0;
+    // Offset from the sensor timestamps of the session to Unix time, taken once when it starts and used by the
+    // StepSource, the step history and the export
+    private long sessionTimeOffsetToUnix;
+    private Metrics metrics;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable logMetrics = new Runnable() {
+        @Override
+        public void run() {
+            metrics.Log(new FileLogSink(StepCounterService.this));
+            handler.postDelayed(this, METRICSINTERVALMS);
+        }
+    };
+    private volatile boolean isRunning = false;
+    private volatile boolean isStop = false;
+    // Used on the main thread only
+    private boolean isStarting = false;
+    private boolean isDestroyed = false;
+    private volatile Runnable countsChangedCallback;
+    // The Session whose steps go into stepCounts; replaced on the main thread, cleared on the thread of its StepSource
+    private volatile Session countedSession;
+    // The Session that Finish ended last, on the main thread, and the last one whose StepSource was drained
+    private Session lastSession;
+    private volatile Session finishedSession;
+
+    /**
+     * The Session class receives the steps of one StepSource on its thread. A finished source still delivers the
+     * steps of its last measurements, so the session stays counted until the source is drained and the counts are
+     * reset there, in order with its steps. Steps of a session that is no longer counted are only stored.
+     */
+    private final class Session implements StepListener, Runnable {
+        private final CadenceEstimator cadenceEstimator = new CadenceEstimator();
+
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+            // Pausing is done by the StepSource, in order with its measurements
+            stepHistoryStore.Add(accelerationData.GetTime(), stepType);
+            if (countedSession != this) {
+                return;
+            }
+            int amountOfStep = stepCounts.Add(stepType);
+            if (stepType == StepType.STATIONARY) {
+                stepCounts.SetActivity(stepType, 0);
+            } else {
+                cadenceEstimator.Add(accelerationData.GetTime(), accelerationData.GetValue(), stepType);
+                stepCounts.SetActivity(cadenceEstimator.GetStepType(), (int) Math.round(cadenceEstimator.GetCadence()));
+            }
+            switch (stepType) {
+                case RUNNING:
+                    LogToFile.log(StepCounterService.this, TAG, "Running %d", amountOfStep);
+                    break;
+                case JOGGING:
+                    LogToFile.log(StepCounterService.this, TAG, "Jogging %d", amountOfStep);
+                    break;
+                case WALKING:
+                    LogToFile.log(StepCounterService.this, TAG, "Walking %d", amountOfStep);
+                    break;
+                case STATIONARY:
+                    break;
+            }
+            NotifyCountsChanged();
+        }
+
+        /**
+         * Called by the finished StepSource after its last step.
+         */
+        @Override
+        public void run() {
+            stepHistoryStore.Flush();
+            // The recorder of the source is closed, so its segments can be read
+            finishedSession = this;
+            if (countedSession == this) {
+                countedSession = null;
+                stepCounts.Reset();
+                NotifyCountsChanged();
+            }
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        stepHistoryStore = new StepHistoryStore(this, new FileLogSink(this));
+        detectorProfileStore = new DetectorProfileStore(this, new FileLogSink(this));
+        detectorProfile = detectorProfileStore.LoadActive();
+        // Only debuggable builds measure the latencies, release builds pay one field read per call site
+        metrics = new Metrics((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+        // The service is bound when the Activity starts; the first session is ready before Start is pressed
+        stepPipeline = new StepPipeline(this, metrics);
+        stepPipeline.Prepare(GetMaxReportLatency());
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        StartForeground();
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        isDestroyed = true;
+        if (stepSource != null) {
+            stepSource.Finish(null);
+            stepSource = null;
+        }
+        stepPipeline.close();
+        ReleaseWakeLock();
+        handler.removeCallbacks(logMetrics);
+        stepHistoryStore.close();
+        LogToFile.shutdown();
+    }
+
+    /**
+     * @return True between Start and Finish, also while the counting is stopped
+     */
+    public boolean IsRunning() {
+        return isRunning;
+    }
+
+    public boolean IsStopped() {
+        return isStop;
+    }
+
+    public StepCounts GetStepCounts() {
+        return stepCounts;
+    }
+
+    public Metrics GetMetrics() {
+        return metrics;
+    }
+
+    public DetectorProfile GetDetectorProfile() {
+        return detectorProfile;
+    }
+
+    /**
+     * The SetDetectorProfile method stores the profile, makes it the active one and applies it to the running
+     * session without restarting it.
+     */
+    public void SetDetectorProfile(DetectorProfile detectorProfile) {
+        this.detectorProfile = detectorProfile;
+        detectorProfileStore.Save(detectorProfile);
+        detectorProfileStore.SetActive(detectorProfile.GetName());
+        if (stepSource != null) {
+            stepSource.SetDetectorProfile(detectorProfile);
+        }
+    }
+
+    public DetectionMode GetDetectionMode() {
+        return detectionMode;
+    }
+
+    /**
+     * The SetDetectionMode method selects how the running and the next sessions find steps in the acceleration.
+     */
+    public void SetDetectionMode(DetectionMode detectionMode) {
+        this.detectionMode = detectionMode;
+        if (stepSource != null) {
+            stepSource.SetDetectionMode(detectionMode);
+        }
+    }
+
+    public StepHistoryStore GetStepHistoryStore() {
+        return stepHistoryStore;
+    }
+
+    /**
+     * Sets the callback that is called on the thread of the StepSource after the counts changed,
+     * or null when nobody shows them.
+     */
+    public void SetCountsChangedCallback(Runnable countsChangedCallback) {
+        this.countsChangedCallback = countsChangedCallback;
+        if (stepSource != null) {
+            stepSource.SetMaxReportLatency(GetMaxReportLatency());
+        }
+    }
+
+    /**
+     * The Start method starts a new session with the StepSource the StepPipeline prepared, or continues counting
+     * if the session is stopped. It does not wait for the StepPipeline; startListener is called on the main thread
+     * when the session runs. Calls while a session is starting are ignored.
+     */
+    public void Start(final StartListener startListener) {
+        if (isRunning) {
+            if (isStop) {
+                isStop = false;
+                stepSource.Resume();
+            }
+            startListener.Started(true);
+            return;
+        }
+        if (isStarting) {
+            return;
+        }
+        isStarting = true;
+        metrics.MarkSessionStart(SystemClock.elapsedRealtimeNanos());
+        stepPipeline.Take(GetMaxReportLatency(), new StepPipeline.Receiver() {
+            @Override
+            public void Receive(StepSource stepSource) {
+                isStarting = false;
+                if (isDestroyed) {
+                    if (stepSource != null) {
+                        stepSource.Finish(null);
+                    }
+                    return;
+                }
+                startListener.Started(StartSession(stepSource));
+            }
+        });
+    }
+
+    /**
+     * @return True between Start and the call of its StartListener
+     */
+    public boolean IsStarting() {
+        return isStarting;
+    }
+
+    /**
+     * Starts the session with stepSource, which the StepPipeline built on its thread.
+     * @return False if the device has no sensor to count steps
+     */
+    private boolean StartSession(StepSource stepSource) {
+        if (stepSource == null) {
+            return false;
+        }
+        this.stepSource = stepSource;
+        // The counters may have been shown or hidden since it was prepared
+        stepSource.SetMaxReportLatency(GetMaxReportLatency());
+        // A previous session that is still draining is no longer counted
+        Session session = new Session();
+        countedSession = session;
+        stepCounts.Reset();
+        isRunning = true;
+        isStop = false;
+        // Started in addition to bound, so the session outlives the Activity
+        ContextCompat.startForegroundService(this, new Intent(this, StepCounterService.class));
+        if (stepSource.NeedsWakeLock()) {
+            PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "StepCounter:session");
+            wakeLock.setReferenceCounted(false);
+            wakeLock.acquire();
+        }
+        stepSource.SetDetectorProfile(detectorProfile);
+        stepSource.SetDetectionMode(detectionMode);
+        sessionStartMs = System.currentTimeMillis();
+        sessionTimeOffsetToUnix = sessionStartMs - SystemClock.elapsedRealtime();
+        sessionEndMs = 0;
+        sessionName = "session-" + sessionStartMs;
+        stepSource.Start(sessionName, sessionTimeOffsetToUnix, session);
+        if (metrics.IsEnabled()) {
+            handler.postDelayed(logMetrics, METRICSINTERVALMS);
+        }
+        NotifyCountsChanged();
+        return true;
+    }
+
+    /**
+     * The Stop method pauses the StepSource until Start is called again. Its sensors keep running.
+     */
+    public void Stop() {
+        if (isRunning && !isStop) {
+            isStop = true;
+            stepSource.Pause();
+        }
+    }
+
+    /**
+     * The Finish method ends the session: the StepSource is finished, and once it delivered the steps of its last
+     * measurements the counts are reset on its thread.
+     */
+    public void Finish() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        isStop = false;
+        lastSession = countedSession;
+        stepSource.Finish(lastSession);
+        stepSource = null;
+        stepPipeline.Prepare(GetMaxReportLatency());
+        NotifyCountsChanged();
+        sessionEndMs = System.currentTimeMillis();
+        ReleaseWakeLock();
+        handler.removeCallbacks(logMetrics);
+        metrics.Log(new FileLogSink(this));
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    /**
+     * The ExportLastSession method writes the recorded samples and the stored steps of the last finished session
+     * to file with a SessionExportWriter. It runs on the thread of the StepHistoryStore after the steps of the
+     * session are written; the result is logged.
+     * @return False if no session was finished yet, or its StepSource still delivers the last samples and steps
+     */
+    public boolean ExportLastSession(final File file) {
+        if (sessionEndMs == 0 || lastSession == null || finishedSession != lastSession) {
+            return false;
+        }
+        final String name = sessionName;
+        final long fromMs = sessionStartMs;
+        final long toMs = sessionEndMs + 1;
+        final long timeOffsetToUnix = sessionTimeOffsetToUnix;
+        stepHistoryStore.Flush();
+        stepHistoryStore.Post(new Runnable() {
+            @Override
+            public void run() {
+                ExportSession(name, fromMs, toMs, timeOffsetToUnix, file);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @param timeOffsetToUnix Offset of the session, the wall clock may have been changed since
+     */
+    private void ExportSession(String name, long fromMs, long toMs, long timeOffsetToUnix, File file) {
+        // Samples and steps are streamed, nothing of the session is held in memory
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            SessionExportWriter writer = new SessionExportWriter(channel, timeOffsetToUnix);
+            File recordingsDirectory = getExternalFilesDir(AccelerometerStepSource.RECORDINGSDIRECTORY);
+            new SampleRecordReader(recordingsDirectory, name).ReadInto(writer);
+            stepHistoryStore.ReadSteps(fromMs, toMs, writer);
+            writer.close();
+            LogToFile.log(this, TAG, "Exported " + writer.GetSampleCount() + " samples and " + writer.GetStepCount()
+                    + " steps to " + file);
+        } catch (IOException e) {
+            LogToFile.log(this, TAG, "Could not export " + name + ": " + e);
+        }
+    }
+
+    private void NotifyCountsChanged() {
+        Runnable callback = countsChangedCallback;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    private int GetMaxReportLatency() {
+        return countsChangedCallback != null ? INTERACTIVEMAXREPORTLATENCYUS : BACKGROUNDMAXREPORTLATENCYUS;
+    }
+
+    private void ReleaseWakeLock() {
+        if (wakeLock != null) {
+            wakeLock.release();
+            wakeLock = null;
+        }
+    }
+
+    private void StartForeground() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(NOTIFICATIONCHANNEL,
+                    getString(R.string.notification_channel), NotificationManager.IMPORTANCE_LOW);
+            channel.setShowBadge(false);
+            ((NotificationManager) getSystemService(NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+        }
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class),
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        Notification notification = new NotificationCompat.Builder(this, NOTIFICATIONCHANNEL)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.notification_title))
+                .setContentText(getString(R.string.notification_text))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setCategory(NotificationCompat.CATEGORY_SERVICE)
+                .build();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startForeground(NOTIFICATIONID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_HEALTH);
+        } else {
+            startForeground(NOTIFICATIONID, notification);
+        }
+    }
+}
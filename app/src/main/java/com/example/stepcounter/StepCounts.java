@@ -0,0 +1,68 @@
+package com.example.stepcounter;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The StepCounts class holds the number of steps of every StepType, the type of the last step and the
+ * smoothed activity with its cadence from the CadenceEstimator.
+ * It is written by the thread that detects the steps and can be read from any thread.
+ */
+public class StepCounts {
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(StepType.values().length);
+    private volatile StepType lastStepType = null;
+    private volatile StepType activityType = null;
+    private volatile int cadence = 0;
+
+    /**
+     * Counts one step of stepType. STATIONARY only changes the type of the last step.
+     * @return The new number of steps of stepType
+     */
+    public int Add(StepType stepType) {
+        lastStepType = stepType;
+        if (stepType == StepType.STATIONARY) {
+            return counts.get(stepType.ordinal());
+        }
+        return counts.incrementAndGet(stepType.ordinal());
+    }
+
+    public int Get(StepType stepType) {
+        return counts.get(stepType.ordinal());
+    }
+
+    /**
+     * @return The type of the last step or null if there was none since the last Reset
+     */
+    public StepType GetLastStepType() {
+        return lastStepType;
+    }
+
+    /**
+     * Sets the activity that is shown. The two values are not published together; a reader can see a new type
+     * with the cadence of the step before, which is only off by one step.
+     * @param cadence Steps per minute
+     */
+    public void SetActivity(StepType activityType, int cadence) {
+        this.activityType = activityType;
+        this.cadence = cadence;
+    }
+
+    /**
+     * @return The smoothed type of the recent steps, STATIONARY after a stationary peak, or null
+     */
+    public StepType GetActivityType() {
+        return activityType;
+    }
+
+    public int GetCadence() {
+        return cadence;
+    }
+
+    public void Reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        lastStepType = null;
+        activityType = null;
+        cadence = 0;
+    }
+}
@@ -1,211 +1,721 @@
 package com.example.stepcounter;
 
 import android.content.Context;
-import android.os.SystemClock;
-import android.widget.Toast;
 
-import androidx.activity.result.contract.ActivityResultContracts;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
-public class StepDetector {
+/**
+ * The StepDetector class detects steps in the measurements of the acceleration sensor.
+ * All samples are kept in preallocated primitive circular buffers and all scratch state is reused,
+ * so after the first batch no objects are allocated per sample.
+ * The AccelerationData passed to the StepListener is reused for every step and is only valid during the callback.
+ * The thresholds, the batch size, the step duration and the filter weight come from a DetectorProfile that can be
+ * replaced while the detector runs.
+ * In BATCH mode the samples are processed in batches of sizeOfListData, in STREAMING mode every sample
+ * is processed as soon as it arrives and a step is sent as soon as its high point is confirmed.
+ * In FREQUENCY mode the steps are not found by thresholds: a SlidingDft of the vector length with gravity gives
+ * the step frequency of the last CAPACITY samples, and while the signal repeats with a step frequency and the
+ * device moves, the frequency is integrated over the sensor time and a step is sent for every full cycle. This also
+ * counts soft steps below the walking threshold and ignores noise above it that does not repeat.
+ * Blocks of samples can be passed as arrays; the gravity filter and the vector length are then calculated
+ * for the whole block by the MagnitudeKernel.
+ * The whole detection runs on the monotonic sensor timestamps in nanoseconds. The offset to Unix time is read once,
+ * before the first step is sent, and only added to the time of the AccelerationData passed to the StepListener,
+ * so a delayed batch or a change of the wall clock does not change the spacing of the steps.
+ * All state belongs to the instance and nothing is synchronized: a StepDetector must be confined to one thread,
+ * and parallel analyses use one StepDetector per thread or task. Only SetProfile may be called from another thread.
+ */
+public class StepDetector implements AccelerationSink {
     private static final String TAG = "SD";
-    private static final int WALKINGTHRESHOLD = 5;
-    private static final int JOGGINGTHRESHOLD = 12;
-    private static final int RUNNINGTHRESHOLD = 23;
-    private static final int SIZEOFLISTDATA = 50;
-    private static final int DURATIONOFSTEP = 500;
-    private static final float ALPHA = 0.8f;
-    private float[] gravity = {0.0f, 0.0f, 9.8f};
-    private Context context;
+    private static final int CAPACITY = 256; // power of two >= DetectorProfile.MAXSIZEOFLISTDATA
+    private static final int MASK = CAPACITY - 1;
+    private static final float INITIALGRAVITYZ = 9.8f;
+    // Set from any thread, taken over by the detector thread before the next data set
+    private volatile DetectorProfile requestedProfile = DetectorProfile.DEFAULT;
+    private DetectorProfile profile = DetectorProfile.DEFAULT;
+    private long durationOfStepNs = profile.GetDurationOfStep() * 1000000L;
+    private final MagnitudeKernel magnitudeKernel = new MagnitudeKernel(profile.GetAlpha(), 0.0f, 0.0f, INITIALGRAVITYZ);
+    private final LogSink logSink;
+    private final TimeSource timeSource;
+    private boolean hasTimeOffsetToUnix = false;
+    private long timeOffsetToUnix;
     private StepListener stepListener;
+    private Metrics metrics = Metrics.Disabled();
+
+    // Circular buffers with the raw measurements and the calculated vector length
+    private final long[] times = new long[CAPACITY];
+    private final float[] xValues = new float[CAPACITY];
+    private final float[] yValues = new float[CAPACITY];
+    private final float[] zValues = new float[CAPACITY];
+    private final double[] values = new double[CAPACITY];
+    private int writeIndex = 0;
+    private int sampleCount = 0;
 
-    private ArrayList<AccelerationData> accelerationDataList;
-    private ArrayList<AccelerationData> calculatedList;
+    // Scratch state of one batch: buffer indexes of the high points
+    private final int[] highPointIndexes = new int[CAPACITY];
+    private int highPointCount = 0;
+    private final int[] highPointDeque = new int[CAPACITY];
+    private final boolean[] suppressedHighPoints = new boolean[CAPACITY];
+    private final AccelerationData stepData = new AccelerationData();
+
+    // State of the STREAMING mode: the current run above the walking threshold and the recent high points
+    private DetectionMode detectionMode = DetectionMode.BATCH;
+    private final PeakWindow peakWindow = new PeakWindow(durationOfStepNs);
+    private boolean isInRun = false;
+    private long runStartTime;
+    private long runMaxTime;
+    private double runMaxValue;
+    private float runMaxX;
+    private float runMaxY;
+    private float runMaxZ;
+
+    // State of the FREQUENCY mode: the spectrum of the vector length with gravity and the current step cycle
+    private static final int FIRSTFREQUENCYBIN = 2;
+    private static final int LASTFREQUENCYBIN = 37; // MAXSTEPFREQUENCY at the lowest sampling rate of 25 Hz
+    private static final long MINFREQUENCYINTERVALNS = 18000000L; // at most 55 values per second
+    private static final double MINSTEPFREQUENCY = 1.2; // steps per second
+    private static final double MAXSTEPFREQUENCY = 3.5;
+    private static final double MINSHAREOFENERGY = 0.2;
+    private static final double MINSUBHARMONICPOWER = 0.3; // of the power of the highest bin
+    private static final double MINMOTIONVARIANCE = 0.3; // (m/s²)², above the noise of a device at rest
+    private static final double MOTIONWEIGHT = 0.95; // of the previous motion variance, about 0.4 s at 50 Hz
+    private static final long MAXGAPNS = 250000000L;
+    private final SlidingDft slidingDft = new SlidingDft(CAPACITY, FIRSTFREQUENCYBIN, LASTFREQUENCYBIN);
+    // The times at which the values in slidingDft end
+    private final long[] frequencyTimes = new long[CAPACITY];
+    private int frequencyIndex = 0;
+    private long lastFrequencyTime = Long.MIN_VALUE;
+    private long intervalStartTime;
+    private double intervalSum = 0;
+    private int intervalCount = 0;
+    private double motionVariance = 0;
+    private boolean isMoving = false;
+    private long movingSince;
+    private long lastCycleTime = Long.MIN_VALUE; // of the last step sent in FREQUENCY mode
+    private double windowFrequency = 0; // steps per second while the window repeats, otherwise 0
+    private double stepFrequency = 0; // windowFrequency while steps are counted
+    private double stepPhase = 0; // part of the current step cycle that has passed
+    private long cycleMaxTime;
+    private double cycleMaxValue = -1;
+    private float cycleMaxX;
+    private float cycleMaxY;
+    private float cycleMaxZ;
 
     public StepDetector(Context context) {
-        this.context = context;
-        accelerationDataList = new ArrayList<>();
-        calculatedList = new ArrayList<>();
+        this(new FileLogSink(context), new SystemTimeSource());
+    }
+
+    /**
+     * Creates a StepDetector that does not depend on Android, for example to replay recorded data on a computer.
+     * @param logSink Receives the log messages
+     * @param timeSource Clocks used once to find the Unix time of the sensor timestamps
+     */
+    public StepDetector(LogSink logSink, TimeSource timeSource) {
+        this.logSink = logSink;
+        this.timeSource = timeSource;
     }
 
     public void RegisterStepListener(StepListener stepListener){
         this.stepListener = stepListener;
     }
 
+    /**
+     * The SetMetrics method sets where the time of the stages and the step latency are recorded.
+     * @param metrics The Metrics, or Metrics.Disabled() to record nothing
+     */
+    public void SetMetrics(Metrics metrics){
+        this.metrics = metrics;
+    }
+
+    /**
+     * The SetProfile method replaces the parameters of the detection. It may be called from any thread; the detector
+     * takes the profile over before it processes the next data set. The gravity filter, the pending samples and
+     * the recent high points are kept, so no step is lost or sent twice. If the pending samples already fill a batch
+     * of the new size, they are processed at once.
+     */
+    public void SetProfile(DetectorProfile profile){
+        requestedProfile = profile;
+    }
+
+    public DetectorProfile GetProfile(){
+        return requestedProfile;
+    }
+
+    /**
+     * The SetDetectionMode method switches between BATCH, STREAMING and FREQUENCY processing.
+     * Samples that have not been processed yet are discarded.
+     * @param detectionMode The new mode
+     */
+    public void SetDetectionMode(DetectionMode detectionMode){
+        this.detectionMode = detectionMode;
+        sampleCount = 0;
+        highPointCount = 0;
+        isInRun = false;
+        peakWindow.Clear();
+        ClearFrequency();
+    }
+
+    /**
+     * The Reset method discards the signal seen so far: the pending samples, the high points, the spectrum and
+     * the gravity filter, so the detector starts on unrelated samples as a new one would, e.g. on the next
+     * classification window. Nothing is sent; the profile, the mode and the listener are kept. The offset to Unix
+     * time is cleared, so it must be set again for the next session.
+     */
+    public void Reset(){
+        SetDetectionMode(detectionMode);
+        magnitudeKernel.SetGravity(0.0f, 0.0f, INITIALGRAVITYZ);
+        hasTimeOffsetToUnix = false;
+    }
+
+    /**
+     * The SetTimeOffsetToUnix method sets the offset of the session, so the steps use the same Unix time as the
+     * rest of the session. Without it the offset is taken from the TimeSource at the first step.
+     * @param timeOffsetToUnix Milliseconds from the sensor time base to Unix time
+     */
+    public void SetTimeOffsetToUnix(long timeOffsetToUnix){
+        this.timeOffsetToUnix = timeOffsetToUnix;
+        hasTimeOffsetToUnix = true;
+    }
+
+    public DetectionMode GetDetectionMode(){
+        return detectionMode;
+    }
+
     /**
      * The AddAccelerationData method accepts new measurements from the acceleration sensor.
-     * If 25 data sets are available, they are processed and 25 data sets are collected again.
      * @param newAccelerationData
+     * @see #AddAccelerationData(long, float, float, float)
      */
     public void AddAccelerationData(AccelerationData newAccelerationData){
-        accelerationDataList.add(newAccelerationData);
+        AddAccelerationData(newAccelerationData.GetTime(), newAccelerationData.GetX(),
+                newAccelerationData.GetY(), newAccelerationData.GetZ());
+    }
+
+    /**
+     * The AddAccelerationData method accepts new measurements from the acceleration sensor.
+     * In BATCH mode, if sizeOfListData (50 by default) data sets are available, they are processed and sizeOfListData data sets are collected again.
+     * In STREAMING and FREQUENCY mode the data set is processed immediately.
+     * @param timestampNs Sensor timestamp in nanoseconds since the device started
+     * @param x Acceleration along the x axis
+     * @param y Acceleration along the y axis
+     * @param z Acceleration along the z axis
+     */
+    @Override
+    public void AddAccelerationData(long timestampNs, float x, float y, float z){
+        if(requestedProfile != profile){
+            ApplyRequestedProfile();
+        }
+        times[writeIndex] = timestampNs;
+        xValues[writeIndex] = x;
+        yValues[writeIndex] = y;
+        zValues[writeIndex] = z;
+        int index = writeIndex;
+        writeIndex = (writeIndex + 1) & MASK;
 
-        if(accelerationDataList.size() >= SIZEOFLISTDATA){
+        if(detectionMode != DetectionMode.BATCH){
+            HandleStreamingData(index);
+            return;
+        }
+        sampleCount++;
+        if(sampleCount >= profile.GetSizeOfListData()){
+            HandleAccelerationData();
+        }
+    }
+
+    /**
+     * The AddAccelerationData method accepts a block of measurements from the acceleration sensor, for example
+     * a batch delivered from the sensor FIFO or a recording. The result is the same as adding the measurements
+     * one by one, but the gravity filter and the vector length are calculated per block.
+     * @param timestampsNs Sensor timestamps in nanoseconds since the device started
+     * @param x Accelerations along the x axis
+     * @param y Accelerations along the y axis
+     * @param z Accelerations along the z axis
+     * @param offset Index of the first measurement in the arrays
+     * @param count Number of measurements
+     */
+    public void AddAccelerationData(long[] timestampsNs, float[] x, float[] y, float[] z, int offset, int count){
+        if(requestedProfile != profile){
+            ApplyRequestedProfile();
+        }
+        int end = offset + count;
+        while (offset < end) {
+            // In BATCH mode a block ends where a batch is full, in the other modes where the buffer ends
+            int length = detectionMode == DetectionMode.BATCH ? profile.GetSizeOfListData() - sampleCount
+                    : CAPACITY - writeIndex;
+            length = Math.min(Math.min(length, CAPACITY - writeIndex), end - offset);
+            int firstIndex = writeIndex;
+            System.arraycopy(timestampsNs, offset, times, firstIndex, length);
+            System.arraycopy(x, offset, xValues, firstIndex, length);
+            System.arraycopy(y, offset, yValues, firstIndex, length);
+            System.arraycopy(z, offset, zValues, firstIndex, length);
+            writeIndex = (writeIndex + length) & MASK;
+            offset += length;
+
+            if(detectionMode != DetectionMode.BATCH){
+                long start = metrics.IsEnabled() ? System.nanoTime() : 0;
+                CalculateValues(firstIndex, length);
+                if(metrics.IsEnabled()){
+                    RecordStage(metrics.magnitudeStage, start);
+                }
+                for (int i = 0; i < length; i++) {
+                    HandleStreamingValue(firstIndex + i);
+                }
+                continue;
+            }
+            sampleCount += length;
+            if(sampleCount >= profile.GetSizeOfListData()){
+                HandleAccelerationData();
+            }
+        }
+    }
+
+    /**
+     * The Flush method processes everything that is still pending, for example at the end of a recording.
+     * In BATCH mode the incomplete batch is processed, in STREAMING mode the current run is ended and
+     * all remaining high points are sent. In FREQUENCY mode a step cycle that is more than half over is sent.
+     */
+    public void Flush(){
+        if(requestedProfile != profile){
+            ApplyRequestedProfile();
+        }
+        if(detectionMode == DetectionMode.BATCH){
+            if(sampleCount > 0){
+                HandleAccelerationData();
+            }
+            return;
+        }
+        if(detectionMode == DetectionMode.FREQUENCY){
+            if(stepFrequency > 0 && stepPhase >= 0.5){
+                SendCycleMax(cycleMaxTime);
+            }
+            stepPhase = 0;
+            cycleMaxValue = -1;
+            return;
+        }
+        if(isInRun){
+            EndRun();
+        }
+        int slot;
+        while ((slot = peakWindow.PollAny()) >= 0) {
+            SendStep(slot);
+        }
+    }
+
+    /**
+     * The ApplyRequestedProfile method takes over the profile passed to SetProfile.
+     */
+    private void ApplyRequestedProfile(){
+        profile = requestedProfile;
+        logSink.Log(TAG, "Profile " + profile);
+        magnitudeKernel.SetAlpha(profile.GetAlpha());
+        durationOfStepNs = profile.GetDurationOfStep() * 1000000L;
+        peakWindow.SetDuration(durationOfStepNs);
+        if(detectionMode == DetectionMode.BATCH && sampleCount >= profile.GetSizeOfListData()){
             HandleAccelerationData();
         }
     }
 
     /**
      * The HandleAccelerationData method detects steps in acceleration data.
-     * The four methods CalculateValueAndTime, FindHighPoints, RemoveNearHighPoints, and ExamineStepTypeAndSendResponse are also used for this.
-     * The vector length (= speed at a specific point in time) is also calculated for each data set and
-     * the time attribute of the data set is changed from nanoseconds since the device started to Unix time (milliseconds).
+     * The four methods CalculateValues, FindHighPoints, RemoveNearHighPoints, and ExamineStepTypeAndSendResponse are also used for this.
+     * The vector length (= speed at a specific point in time) is also calculated for each data set.
      * After all data has been processed, the detected steps are output via the interface and
-     * the array lists are emptied again so that they can be used again.
+     * the buffers are emptied again so that they can be used again.
      */
     private void HandleAccelerationData(){
-        LogToFile.log(context, TAG, "List data: ");
-        for (int i = 0; i < accelerationDataList.size(); i++) {
-            AccelerationData accelerationData = accelerationDataList.get(i);
-            accelerationData = CalculateValueAndTime(accelerationData);
-            calculatedList.add(accelerationData);
-        }
-        LogToFile.log(context, TAG,"List high point: ");
-        ArrayList<AccelerationData> highPointList = FindHighPoints();
-        LogToFile.log(context, TAG,"Remove near high point: ");
-        highPointList = RemoveNearHighPoints(highPointList);
-        ExamineStepTypeAndSendResponse(highPointList);
-
-        calculatedList.clear();
-        accelerationDataList.clear();
-    }
-    /**
-     * The calculateValueAndTime method calculates the vector length and the Unix timestamp for accelerationData.
-     * The corresponding values are changed in accelerationData. Then accelerationData is returned.
-     * @param accelerationData Object from which the vector length and the Unix timestamp are calculated.
-     * @return accelerationData: The object with changed values.
-     */
-    private AccelerationData CalculateValueAndTime(AccelerationData accelerationData){
-        // Get acceleration data
-        float x = accelerationData.GetX();
-        float y = accelerationData.GetY();
-        float z = accelerationData.GetZ();
-
-        // Gravity filter
-        gravity[0] = ALPHA * gravity[0] + (1 - ALPHA) * x;
-        gravity[1] = ALPHA * gravity[1] + (1 - ALPHA) * y;
-        gravity[2] = ALPHA * gravity[2] + (1 - ALPHA) * z;
-
-        // Recalculate acceleration data with gravity filter
-        x = x - gravity[0];
-        y = y - gravity[1];
-        z = z - gravity[2];
-        //LogToFile.log(context, TAG,"gravity = " + String.format("%.2f", gravity[0]) + String.format(" %.2f", gravity[1]) + String.format(" %.2f", gravity[2]));
-        //gravity = new float[]{0.0f, 0.0f, 0.0f};
-        double vectorLength = Math.sqrt(x * x + y * y + z * z);
-        accelerationData.SetValue(vectorLength);
-        if (vectorLength > 1){
-            LogToFile.log(context, TAG,"value = " + String.format("%.2f", vectorLength));
-
-        }
-        long time = accelerationData.GetTime();
-        long timeOffsetToUnix = System.currentTimeMillis() - SystemClock.elapsedRealtime();
-        long unixTimestamp = (time / 1000000L) + timeOffsetToUnix;
-        accelerationData.SetTime(unixTimestamp);
-
-        return accelerationData;
-    }
-    /**
-     * The findHighPoints method finds the acceleration records from rawAccelerationData
-     * whose total acceleration is higher than the value of WALKINGTHRESHOLD (17). These are
-     * added to another ArrayList, which is returned.
-     * @return ArrayList: A list with the highest high points.
-     */
-    private ArrayList<AccelerationData> FindHighPoints(){
-        ArrayList<AccelerationData> highPointList = new ArrayList<>();
-        ArrayList<AccelerationData> aboveWalkingThresholdList = new ArrayList<>();
-        boolean wasAboveThreshold = true;
-        for (int i = 0; i < calculatedList.size(); i++) {
-            AccelerationData calculatedDataSet = calculatedList.get(i);
-            if(calculatedDataSet.GetValue() > WALKINGTHRESHOLD){
-                aboveWalkingThresholdList.add(calculatedDataSet);
-                wasAboveThreshold = true;
-            } else {
-                if(wasAboveThreshold && aboveWalkingThresholdList.size() > 0){
-                    Collections.sort(aboveWalkingThresholdList, new AccelerationDataSorter());
-                    LogToFile.log(context, TAG,"high point: " + aboveWalkingThresholdList.get(aboveWalkingThresholdList.size() - 1).GetValue());
-                    highPointList.add(aboveWalkingThresholdList.get(aboveWalkingThresholdList.size() - 1));
-                    aboveWalkingThresholdList.clear();
-                }
-                wasAboveThreshold = false;
+        int firstIndex = (writeIndex - sampleCount) & MASK;
+        boolean isMeasured = metrics.IsEnabled();
+        long start = isMeasured ? System.nanoTime() : 0;
+        logSink.Log(TAG, "List data: ");
+        CalculateValues(firstIndex, sampleCount);
+        if(isMeasured){
+            start = RecordStage(metrics.magnitudeStage, start);
+        }
+        logSink.Log(TAG,"List high point: ");
+        FindHighPoints(firstIndex, sampleCount);
+        if(isMeasured){
+            start = RecordStage(metrics.findHighPointsStage, start);
+        }
+        logSink.Log(TAG,"Remove near high point: ");
+        RemoveNearHighPoints();
+        if(isMeasured){
+            start = RecordStage(metrics.removeNearHighPointsStage, start);
+        }
+        ExamineStepTypeAndSendResponse();
+        if(isMeasured){
+            RecordStage(metrics.classificationStage, start);
+        }
+
+        highPointCount = 0;
+        sampleCount = 0;
+    }
+    /**
+     * The HandleStreamingData method advances the STREAMING state machine by one data set.
+     * The gravity filter and the vector length are calculated as in BATCH mode. While the vector length stays above
+     * the walking threshold the highest data set of the run is tracked; when the run ends (or lasts longer than
+     * durationOfStep) its highest data set is a high point. A high point is sent as soon as no higher high point
+     * can follow within durationOfStep, so a step is sent at most about
+     * 2 * durationOfStep milliseconds after its high point.
+     * @param index Buffer index of the new data set
+     */
+    private void HandleStreamingData(int index){
+        if(metrics.IsEnabled()){
+            long start = System.nanoTime();
+            CalculateValue(index);
+            RecordStage(metrics.magnitudeStage, start);
+        } else {
+            CalculateValue(index);
+        }
+        HandleStreamingValue(index);
+    }
+
+    /**
+     * The HandleStreamingValue method advances the STREAMING or FREQUENCY state machine by the data set at index,
+     * whose vector length is already calculated.
+     */
+    private void HandleStreamingValue(int index){
+        if(detectionMode == DetectionMode.FREQUENCY){
+            HandleFrequencyValue(index);
+            return;
+        }
+        long time = times[index];
+        double value = values[index];
+
+        if(value > profile.GetWalkingThreshold()){
+            if(isInRun && time - runStartTime >= durationOfStepNs){
+                EndRun();
+            }
+            if(!isInRun){
+                isInRun = true;
+                runStartTime = time;
+                runMaxValue = value;
+            }
+            // >= keeps the last of equal values, like in BATCH mode
+            if(value >= runMaxValue){
+                runMaxTime = time;
+                runMaxValue = value;
+                runMaxX = xValues[index];
+                runMaxY = yValues[index];
+                runMaxZ = zValues[index];
             }
+        } else if(isInRun){
+            EndRun();
+        }
+
+        // A high point of the current run cannot be earlier than the start of the run
+        long confirmedTime = isInRun ? runStartTime : time;
+        int slot;
+        while ((slot = peakWindow.PollConfirmed(confirmedTime)) >= 0) {
+            SendStep(slot);
         }
-        return highPointList;
     }
+
     /**
-     * The RemoveNearHighPoints method goes through the ArrayList accelerationData with the highest points
-     * and checks whether there is another "highest peak" within DURATIONOFSTEP(500) milliseconds.
-     * If so, the smaller of the two is removed from the list.
-     * @param accelerationDataList The list of high points as an ArrayList
-     * @return An ArrayList with the removed high points within DURATIONOFSTEP(500) milliseconds
+     * The HandleFrequencyValue method advances the FREQUENCY state machine by the data set at index.
+     * The length of the raw vector (gravity included, so a vertical bounce keeps its sign) is averaged over at least
+     * MINFREQUENCYINTERVALNS and goes into the SlidingDft, so its window spans at least 5 s at every sampling rate.
+     * The recent variance of these values tells whether the device moves. The highest vector length without gravity
+     * of the current step cycle is the data set that is sent with the step, so the StepType uses the thresholds as
+     * in the other modes.
      */
-    private ArrayList<AccelerationData> RemoveNearHighPoints(ArrayList<AccelerationData> accelerationDataList){
-        ArrayList<Integer> wrongHighPointIndexes = new ArrayList<>();
-        for (int i = 0; i < accelerationDataList.size() - 1; i++) {
-            if(((accelerationDataList.get(i + 1).GetTime() - accelerationDataList.get(i).GetTime()) < DURATIONOFSTEP)/* || ((accelerationDataList.get(i + 1).GetValue() - accelerationDataList.get(i).GetValue())) < WALKINGTHRESHOLD*/){
-                if(accelerationDataList.get(i + 1).GetValue() < accelerationDataList.get(i).GetValue()){
-                    wrongHighPointIndexes.add(i + 1);
-                } else {
-                    wrongHighPointIndexes.add(i);
-                }
+    private void HandleFrequencyValue(int index){
+        long time = times[index];
+        long elapsed = lastFrequencyTime == Long.MIN_VALUE ? 0 : time - lastFrequencyTime;
+        if(elapsed < 0 || elapsed > MAXGAPNS){
+            // A pause or dropped samples: the window would mix two different signals
+            ClearFrequency();
+            elapsed = 0;
+        }
+        if(lastFrequencyTime == Long.MIN_VALUE){
+            intervalStartTime = time;
+        }
+        lastFrequencyTime = time;
+        float x = xValues[index];
+        float y = yValues[index];
+        float z = zValues[index];
+        if(values[index] > cycleMaxValue){
+            cycleMaxTime = time;
+            cycleMaxValue = values[index];
+            cycleMaxX = x;
+            cycleMaxY = y;
+            cycleMaxZ = z;
+        }
+        intervalSum += Math.sqrt(x * x + y * y + z * z);
+        intervalCount++;
+        if(time - intervalStartTime >= MINFREQUENCYINTERVALNS){
+            AddFrequencyValue(time, intervalSum / intervalCount);
+            intervalSum = 0;
+            intervalCount = 0;
+            intervalStartTime = time;
+        }
+
+        if(windowFrequency == 0){
+            stepFrequency = 0;
+            stepPhase = 0;
+            if(!isMoving){
+                // While it moves the highest data set since the movement started is kept for the first steps
+                cycleMaxValue = -1;
+            }
+            return;
+        }
+        if(stepFrequency == 0){
+            // The window only shows the repetition some time after the movement started; those cycles count too
+            // and are sent one cycle apart before this data set, but none before the last step that was sent
+            long creditedNs = Math.min(time - movingSince, time - frequencyTimes[frequencyIndex]);
+            if(lastCycleTime != Long.MIN_VALUE){
+                creditedNs = Math.min(creditedNs, time - lastCycleTime);
+            }
+            int creditedSteps = (int) (windowFrequency * creditedNs / 1e9);
+            for (int k = creditedSteps; k > 0; k--) {
+                SendCycleMax(time - (long) (k * 1e9 / windowFrequency));
             }
+            stepPhase = windowFrequency * creditedNs / 1e9 - creditedSteps;
+            cycleMaxValue = -1;
+            elapsed = 0;
         }
-        for (int i = wrongHighPointIndexes.size() - 1; i >= 0; i--) {
-            LogToFile.log(context, TAG, "Remove: " + i + accelerationDataList.get(i).GetValue());
-            accelerationDataList.remove(i);
+        stepFrequency = windowFrequency;
+        stepPhase += stepFrequency * elapsed / 1e9;
+        if(stepPhase >= 1){
+            stepPhase -= Math.floor(stepPhase);
+            SendCycleMax(cycleMaxTime);
+            cycleMaxValue = -1;
         }
-        return accelerationDataList;
     }
 
     /**
-     * The ExamineStepTypeAndSendResponse method checks the total acceleration of the highest peaks from
-     * accelerationDataList and sends all detected steps via the registered stepListener interface.
-     * If the total acceleration is greater than RUNNINGPEAK, the step type RUNNING is output,
-     * if the total acceleration is greater than JOGGINGPEAK, the step type JOGGING is output,
-     * otherwise the step type WALKING.
-     * @param accelerationDataList An ArrayList with the highest peaks
-     */
-    private void ExamineStepTypeAndSendResponse(ArrayList<AccelerationData> accelerationDataList){
-        for (int i = 0; i < accelerationDataList.size(); i++) {
-            AccelerationData highPoint = accelerationDataList.get(i);
-            if(highPoint.GetValue() > RUNNINGTHRESHOLD){
-                stepListener.Step(highPoint, StepType.RUNNING);
-            } else if(highPoint.GetValue() > JOGGINGTHRESHOLD){
-                stepListener.Step(highPoint, StepType.JOGGING);
-            } else if(highPoint.GetValue() > WALKINGTHRESHOLD){
-                stepListener.Step(highPoint, StepType.WALKING);
-            } else {
-                stepListener.Step(highPoint, StepType.STATIONARY);
+     * The AddFrequencyValue method adds the mean vector length of an interval that ends at time to the SlidingDft
+     * and estimates the step frequency of the window again.
+     */
+    private void AddFrequencyValue(long time, double length){
+        slidingDft.Add(length);
+        frequencyTimes[frequencyIndex] = time;
+        frequencyIndex = (frequencyIndex + 1) & MASK;
+        double deviation = length - slidingDft.GetMean();
+        motionVariance = MOTIONWEIGHT * motionVariance + (1 - MOTIONWEIGHT) * deviation * deviation;
+        // Half the threshold to stop, so a signal near the threshold does not start a new movement every time
+        if(!isMoving && motionVariance >= MINMOTIONVARIANCE){
+            isMoving = true;
+            movingSince = time;
+        } else if(isMoving && motionVariance < MINMOTIONVARIANCE / 2){
+            isMoving = false;
+        }
+        windowFrequency = isMoving ? EstimateStepFrequency(time) : 0;
+    }
+
+    /**
+     * The EstimateStepFrequency method finds the bin of the SlidingDft with the most energy between
+     * MINSTEPFREQUENCY and MAXSTEPFREQUENCY at the sampling rate of the window, and refines it between the
+     * neighbouring bins with a parabola through the three magnitudes.
+     * @return Steps per second, or 0 if the window is not full or less than MINSHAREOFENERGY of its energy repeats
+     */
+    private double EstimateStepFrequency(long time){
+        if(!slidingDft.IsFull()){
+            return 0;
+        }
+        // The oldest value of the full window is the next one to be overwritten
+        long durationNs = time - frequencyTimes[frequencyIndex];
+        if(durationNs <= 0){
+            return 0;
+        }
+        int size = slidingDft.GetSize();
+        double binWidth = 1e9 * (size - 1) / durationNs / size;
+        int firstBin = Math.max(slidingDft.GetFirstBin() + 1, (int) Math.ceil(MINSTEPFREQUENCY / binWidth));
+        int lastBin = Math.min(slidingDft.GetLastBin() - 1, (int) Math.floor(MAXSTEPFREQUENCY / binWidth));
+        int peakBin = -1;
+        double peakPower = 0;
+        for (int bin = firstBin; bin <= lastBin; bin++) {
+            double power = slidingDft.GetPower(bin);
+            if(power > peakPower){
+                peakBin = bin;
+                peakPower = power;
+            }
+        }
+        if(peakBin < 0){
+            return 0;
+        }
+        // Short pulses have harmonics as strong as the step frequency; a strong bin at half the frequency is the step
+        for (int bin = (peakBin - 1) / 2; bin <= (peakBin + 2) / 2; bin++) {
+            if(bin >= firstBin && slidingDft.GetPower(bin) >= MINSUBHARMONICPOWER * peakPower){
+                peakBin = bin;
+                peakPower = slidingDft.GetPower(bin);
+                break;
+            }
+        }
+        // The cadence varies a little, so its energy is spread over the peak bin and its neighbours
+        double share = slidingDft.GetShareOfEnergy(peakBin - 1) + slidingDft.GetShareOfEnergy(peakBin)
+                + slidingDft.GetShareOfEnergy(peakBin + 1);
+        if(share < MINSHAREOFENERGY){
+            return 0;
+        }
+        double before = Math.sqrt(slidingDft.GetPower(peakBin - 1));
+        double peak = Math.sqrt(peakPower);
+        double after = Math.sqrt(slidingDft.GetPower(peakBin + 1));
+        double curvature = before - 2 * peak + after;
+        double offset = curvature < 0 ? 0.5 * (before - after) / curvature : 0;
+        return (peakBin + offset) * binWidth;
+    }
+
+    /**
+     * The SendCycleMax method sends a step at timeNs with the highest data set of the current step cycle.
+     */
+    private void SendCycleMax(long timeNs){
+        lastCycleTime = timeNs;
+        long start = metrics.IsEnabled() ? System.nanoTime() : 0;
+        SendResponse(timeNs, Math.max(cycleMaxValue, 0), cycleMaxX, cycleMaxY, cycleMaxZ);
+        if(metrics.IsEnabled()){
+            RecordStage(metrics.classificationStage, start);
+        }
+    }
+
+    private void ClearFrequency(){
+        slidingDft.Clear();
+        frequencyIndex = 0;
+        lastFrequencyTime = Long.MIN_VALUE;
+        intervalSum = 0;
+        intervalCount = 0;
+        motionVariance = 0;
+        isMoving = false;
+        lastCycleTime = Long.MIN_VALUE;
+        windowFrequency = 0;
+        stepFrequency = 0;
+        stepPhase = 0;
+        cycleMaxValue = -1;
+    }
+
+    /**
+     * The EndRun method adds the highest data set of the current run to the peak window.
+     */
+    private void EndRun(){
+        isInRun = false;
+        logSink.Log(TAG, "high point: %s", runMaxValue);
+        int slot;
+        while ((slot = peakWindow.PollConfirmed(runMaxTime)) >= 0) {
+            SendStep(slot);
+        }
+        while (!peakWindow.Add(runMaxTime, runMaxValue, runMaxX, runMaxY, runMaxZ)) {
+            // Only possible with far more high points within durationOfStep than real steps produce
+            slot = peakWindow.PollAny();
+            if(slot >= 0){
+                SendStep(slot);
             }
         }
     }
 
     /**
-     * The DataSorter class is a comparator class for array lists with AccelerationData.
-     * Sorting is performed in ascending order according to the size of the total acceleration value.
-     */
-    public class AccelerationDataSorter implements Comparator<AccelerationData> {
-        /**
-         * The compare method compares two sets of AccelerationData based on the
-         * total acceleration "value". If the value of the first acceleraationData is greater,
-         * 1 is returned. If the value of the second acceleraationData is greater, -1 is returned.
-         * Otherwise (if the value of both accelerationData is the same), 0 is returned.
-         * @param data1 AccelerationData: The first comparison object
-         * @param data2 AccelerationData: The second comparison object
-         * @return int 0, 1 or -1; whichever is greater.
-         */
-        @Override
-        public int compare(AccelerationData data1, AccelerationData data2) {
-            int returnValue = 0;
-            if(data1.GetValue() < data2.GetValue()){
-                returnValue = -1;
-            } else if(data1.GetValue() > data2.GetValue()){
-                returnValue = 1;
+     * The CalculateValue method calculates the vector length for the data set at index.
+     * The corresponding value is changed in the buffer.
+     * @param index Buffer index of the data set from which the vector length is calculated.
+     */
+    void CalculateValue(int index){
+        CalculateValues(index, 1);
+    }
+
+    /**
+     * The CalculateValues method calculates the vector length for count data sets starting at firstIndex.
+     * A block that wraps around the end of the buffers is processed in two parts.
+     * @param firstIndex Buffer index of the first data set
+     * @param count Number of data sets, at most CAPACITY
+     */
+    void CalculateValues(int firstIndex, int count){
+        int firstLength = Math.min(count, CAPACITY - firstIndex);
+        magnitudeKernel.Apply(xValues, yValues, zValues, firstIndex, firstLength, values);
+        if (firstLength < count) {
+            magnitudeKernel.Apply(xValues, yValues, zValues, 0, count - firstLength, values);
+        }
+        for (int i = 0; i < count; i++) {
+            double vectorLength = values[(firstIndex + i) & MASK];
+            if (vectorLength > 1){
+                logSink.Log(TAG, "value = %.2f", vectorLength);
             }
-            return returnValue;
+        }
+    }
+    /**
+     * The findHighPoints method finds the data sets whose total acceleration is higher than the value of
+     * the walking threshold. For every run of such data sets the buffer index of the highest one is
+     * added to highPointIndexes. The maximum of a run is tracked in a single pass.
+     * @param firstIndex Buffer index of the first data set of the batch
+     * @param count Number of data sets in the batch
+     */
+    void FindHighPoints(int firstIndex, int count){
+        highPointCount = HighPoints.Find(values, MASK, firstIndex, count, profile.GetWalkingThreshold(),
+                highPointIndexes);
+        for (int i = 0; i < highPointCount; i++) {
+            logSink.Log(TAG, "high point: %s", values[highPointIndexes[i]]);
+        }
+    }
+    /**
+     * The RemoveNearHighPoints method goes through highPointIndexes
+     * and checks whether there is a higher "highest peak" within durationOfStep (500 by default) milliseconds
+     * of sensor time.
+     * If so, the smaller one is removed from highPointIndexes.
+     */
+    void RemoveNearHighPoints(){
+        int remainingCount = HighPoints.RemoveNear(times, values, highPointIndexes, highPointCount,
+                durationOfStepNs, highPointDeque, suppressedHighPoints);
+        if(remainingCount < highPointCount){
+            logSink.Log(TAG, "Remove: %d", highPointCount - remainingCount);
+        }
+        highPointCount = remainingCount;
+    }
+
+    /**
+     * The ExamineStepTypeAndSendResponse method checks the total acceleration of the highest peaks from
+     * highPointIndexes and sends all detected steps via the registered stepListener interface.
+     * If the total acceleration is greater than the running threshold, the step type RUNNING is output,
+     * if the total acceleration is greater than the jogging threshold, the step type JOGGING is output,
+     * otherwise the step type WALKING.
+     */
+    private void ExamineStepTypeAndSendResponse(){
+        for (int i = 0; i < highPointCount; i++) {
+            int index = highPointIndexes[i];
+            SendResponse(times[index], values[index], xValues[index], yValues[index], zValues[index]);
+        }
+    }
+
+    private void SendStep(int slot){
+        long start = metrics.IsEnabled() ? System.nanoTime() : 0;
+        SendResponse(peakWindow.GetTime(slot), peakWindow.GetValue(slot),
+                peakWindow.GetX(slot), peakWindow.GetY(slot), peakWindow.GetZ(slot));
+        if(metrics.IsEnabled()){
+            RecordStage(metrics.classificationStage, start);
+        }
+    }
+
+    /**
+     * Records the time since start in stage.
+     * @return The current time, the start of the next stage
+     */
+    private static long RecordStage(LatencyHistogram stage, long start){
+        long now = System.nanoTime();
+        stage.Record(now - start);
+        return now;
+    }
+
+    /**
+     * @param timeNs Sensor timestamp of the high point; converted to Unix time in milliseconds for the StepListener
+     */
+    private void SendResponse(long timeNs, double value, float x, float y, float z){
+        if(!hasTimeOffsetToUnix){
+            // The only clock read of a session without an offset
+            timeOffsetToUnix = timeSource.CurrentTimeMillis() - timeSource.ElapsedRealtime();
+            hasTimeOffsetToUnix = true;
+        }
+        stepData.SetX(x);
+        stepData.SetY(y);
+        stepData.SetZ(z);
+        stepData.SetTime(timeNs / 1000000L + timeOffsetToUnix);
+        stepData.SetValue(value);
+        if(metrics.IsEnabled()){
+            metrics.steps.incrementAndGet();
+            metrics.sensorToStep.Record(timeSource.ElapsedRealtime() * 1000000L - timeNs);
+        }
+        if(value > profile.GetRunningThreshold()){
+            stepListener.Step(stepData, StepType.RUNNING);
+        } else if(value > profile.GetJoggingThreshold()){
+            stepListener.Step(stepData, StepType.JOGGING);
+        } else if(value > profile.GetWalkingThreshold() || detectionMode == DetectionMode.FREQUENCY){
+            // In FREQUENCY mode every cycle is a step, also a soft one
+            stepListener.Step(stepData, StepType.WALKING);
+        } else {
+            stepListener.Step(stepData, StepType.STATIONARY);
         }
     }
 }
@@ -0,0 +1,326 @@
+package com.example.stepcounter;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * The StepHistoryStore class keeps every step in an append only SQLite table together with the number of steps
+ * per minute, hour and day and StepType. Add only puts the step into a memory buffer; the buffer is written on a
+ * background thread in one transaction when it is full or FLUSHDELAYMS after its first step, and the buckets are
+ * updated incrementally in the same transaction. Queries read the buckets only, so their cost depends on the
+ * number of buckets and not on the number of steps.
+ */
+public class StepHistoryStore extends SQLiteOpenHelper {
+    private static final String TAG = "SHS";
+    private static final String DATABASE = "step_history.db";
+    private static final int VERSION = 1;
+    private static final int SIZEOFBATCH = 512;
+    private static final long FLUSHDELAYMS = 30000;
+    private static final StepType[] STEPTYPES = StepType.values();
+
+    private final TimeZone timeZone;
+    private final LogSink logSink;
+    private final HandlerThread handlerThread;
+    private final Handler handler;
+    private final Object lock = new Object();
+    // Filled by Add under lock, swapped with the write buffers on the background thread
+    private long[] pendingTimes = new long[SIZEOFBATCH];
+    private byte[] pendingTypes = new byte[SIZEOFBATCH];
+    private int pendingCount = 0;
+    private boolean isFlushScheduled = false;
+    // Used on the background thread only
+    private long[] writeTimes = new long[SIZEOFBATCH];
+    private byte[] writeTypes = new byte[SIZEOFBATCH];
+    private SQLiteStatement insertEvent;
+    private SQLiteStatement updateBucket;
+    private SQLiteStatement insertBucket;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            WritePending();
+        }
+    };
+
+    public StepHistoryStore(Context context, LogSink logSink) {
+        super(context, DATABASE, null, VERSION);
+        this.timeZone = TimeZone.getDefault();
+        this.logSink = logSink;
+        setWriteAheadLoggingEnabled(true);
+        handlerThread = new HandlerThread("StepHistoryStore", Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE step_events (time INTEGER NOT NULL, type INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX step_events_time ON step_events (time)");
+        db.execSQL("CREATE TABLE step_buckets (resolution INTEGER NOT NULL, start INTEGER NOT NULL, "
+                + "type INTEGER NOT NULL, count INTEGER NOT NULL, PRIMARY KEY (resolution, start, type)) WITHOUT ROWID");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+    }
+
+    /**
+     * Adds one step. Can be called from any thread; does not touch the database.
+     * @param timeMs Unix time of the step in milliseconds
+     */
+    public void Add(long timeMs, StepType stepType) {
+        if (stepType == StepType.STATIONARY) {
+            return;
+        }
+        synchronized (lock) {
+            if (pendingCount == pendingTimes.length) {
+                // The background thread is behind; grow instead of losing steps
+                pendingTimes = Arrays.copyOf(pendingTimes, pendingTimes.length * 2);
+                pendingTypes = Arrays.copyOf(pendingTypes, pendingTypes.length * 2);
+            }
+            pendingTimes[pendingCount] = timeMs;
+            pendingTypes[pendingCount] = (byte) stepType.ordinal();
+            pendingCount++;
+            if (pendingCount == SIZEOFBATCH) {
+                handler.removeCallbacks(flush);
+                handler.post(flush);
+                isFlushScheduled = true;
+            } else if (!isFlushScheduled) {
+                handler.postDelayed(flush, FLUSHDELAYMS);
+                isFlushScheduled = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered steps now, e.g. at the end of a session.
+     */
+    public void Flush() {
+        synchronized (lock) {
+            handler.removeCallbacks(flush);
+            handler.post(flush);
+            isFlushScheduled = true;
+        }
+    }
+
+    /**
+     * Runs action on the background thread after the writes that are already queued, e.g. after Flush.
+     */
+    public void Post(Runnable action) {
+        handler.post(action);
+    }
+
+    /**
+     * Passes the stored steps in [fromMs, toMs) to sink, oldest first. Steps that are still buffered are left out.
+     * The rows are read with a cursor, so the memory does not grow with the number of steps. Reads the database,
+     * so it should not be called on the main thread.
+     * @return The number of steps
+     */
+    public long ReadSteps(long fromMs, long toMs, StepSink sink) {
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT time, type FROM step_events WHERE time >= ? AND time < ? ORDER BY time",
+                new String[]{Long.toString(fromMs), Long.toString(toMs)});
+        long stepCount = 0;
+        try {
+            while (cursor.moveToNext()) {
+                sink.AddStep(cursor.getLong(0), STEPTYPES[cursor.getInt(1)]);
+                stepCount++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return stepCount;
+    }
+
+    /**
+     * Writes the buffered steps, closes the database and ends the background thread.
+     */
+    @Override
+    public void close() {
+        Flush();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                CloseStatements();
+                StepHistoryStore.super.close();
+            }
+        });
+        handlerThread.quitSafely();
+    }
+
+    /**
+     * Returns the steps per bucket in [fromMs, toMs), oldest first. Buckets without steps are left out.
+     * Reads the database, so it should not be called on the main thread.
+     * @param resolution TimeBuckets.MINUTE, HOUR or DAY
+     */
+    public List<StepBucket> Query(int resolution, long fromMs, long toMs) {
+        List<StepBucket> buckets = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT start, type, count FROM step_buckets WHERE resolution = ? AND start >= ? AND start < ? "
+                        + "ORDER BY start",
+                new String[]{Integer.toString(resolution), Long.toString(TimeBuckets.Start(resolution, fromMs, timeZone)),
+                        Long.toString(toMs)});
+        try {
+            StepBucket bucket = null;
+            while (cursor.moveToNext()) {
+                long start = cursor.getLong(0);
+                if (bucket == null || bucket.GetStart() != start) {
+                    bucket = new StepBucket(start);
+                    buckets.add(bucket);
+                }
+                bucket.Add(STEPTYPES[cursor.getInt(1)], cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return buckets;
+    }
+
+    /**
+     * Runs on the background thread: writes the buffered steps and their buckets in one transaction.
+     * If the database fails, the steps are put back in front of the buffer and written with the next flush.
+     */
+    private void WritePending() {
+        int count;
+        synchronized (lock) {
+            isFlushScheduled = false;
+            count = pendingCount;
+            if (count == 0) {
+                return;
+            }
+            long[] times = pendingTimes;
+            byte[] types = pendingTypes;
+            pendingTimes = writeTimes.length >= times.length ? writeTimes : new long[times.length];
+            pendingTypes = writeTypes.length >= types.length ? writeTypes : new byte[types.length];
+            writeTimes = times;
+            writeTypes = types;
+            pendingCount = 0;
+        }
+
+        try {
+            Write(count);
+        } catch (SQLiteException e) {
+            logSink.Log(TAG, "Could not store steps, retrying later: " + e);
+            CloseStatements();
+            Restore(count);
+            return;
+        }
+        logSink.Log(TAG, "Stored %d steps", count);
+    }
+
+    /**
+     * Writes the count steps of the write buffers and their buckets in one transaction.
+     */
+    private void Write(int count) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (insertEvent == null) {
+            insertEvent = db.compileStatement("INSERT INTO step_events (time, type) VALUES (?, ?)");
+            updateBucket = db.compileStatement(
+                    "UPDATE step_buckets SET count = count + ? WHERE resolution = ? AND start = ? AND type = ?");
+            insertBucket = db.compileStatement(
+                    "INSERT INTO step_buckets (resolution, start, type, count) VALUES (?, ?, ?, ?)");
+        }
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < count; i++) {
+                insertEvent.bindLong(1, writeTimes[i]);
+                insertEvent.bindLong(2, writeTypes[i]);
+                insertEvent.executeInsert();
+            }
+            for (int resolution = 0; resolution < TimeBuckets.COUNT; resolution++) {
+                WriteBuckets(resolution, count);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Puts the count steps of the write buffers in front of the steps that were added in the meantime.
+     */
+    private void Restore(int count) {
+        synchronized (lock) {
+            int total = count + pendingCount;
+            long[] times = pendingTimes.length >= total ? pendingTimes : new long[Math.max(total, pendingTimes.length * 2)];
+            byte[] types = pendingTypes.length >= total ? pendingTypes : new byte[times.length];
+            System.arraycopy(pendingTimes, 0, times, count, pendingCount);
+            System.arraycopy(pendingTypes, 0, types, count, pendingCount);
+            System.arraycopy(writeTimes, 0, times, 0, count);
+            System.arraycopy(writeTypes, 0, types, 0, count);
+            pendingTimes = times;
+            pendingTypes = types;
+            pendingCount = total;
+            if (!isFlushScheduled) {
+                handler.postDelayed(flush, FLUSHDELAYMS);
+                isFlushScheduled = true;
+            }
+        }
+    }
+
+    /**
+     * The steps are in time order, so the steps of one bucket and type mostly follow each other;
+     * every run of them is one update.
+     */
+    private void WriteBuckets(int resolution, int count) {
+        long runStart = 0;
+        int runType = -1;
+        int runCount = 0;
+        long bucketEnd = Long.MIN_VALUE;
+        long bucketStart = 0;
+        for (int i = 0; i < count; i++) {
+            long time = writeTimes[i];
+            if (time < bucketStart || time >= bucketEnd) {
+                bucketStart = TimeBuckets.Start(resolution, time, timeZone);
+                bucketEnd = TimeBuckets.Start(resolution, bucketStart + TimeBuckets.Length(resolution) * 3 / 2, timeZone);
+            }
+            int type = writeTypes[i];
+            if (runCount > 0 && (bucketStart != runStart || type != runType)) {
+                AddToBucket(resolution, runStart, runType, runCount);
+                runCount = 0;
+            }
+            runStart = bucketStart;
+            runType = type;
+            runCount++;
+        }
+        if (runCount > 0) {
+            AddToBucket(resolution, runStart, runType, runCount);
+        }
+    }
+
+    private void AddToBucket(int resolution, long start, int type, int count) {
+        updateBucket.bindLong(1, count);
+        updateBucket.bindLong(2, resolution);
+        updateBucket.bindLong(3, start);
+        updateBucket.bindLong(4, type);
+        if (updateBucket.executeUpdateDelete() == 0) {
+            insertBucket.bindLong(1, resolution);
+            insertBucket.bindLong(2, start);
+            insertBucket.bindLong(3, type);
+            insertBucket.bindLong(4, count);
+            insertBucket.executeInsert();
+        }
+    }
+
+    private void CloseStatements() {
+        if (insertEvent != null) {
+            insertEvent.close();
+            updateBucket.close();
+            insertBucket.close();
+            insertEvent = null;
+        }
+    }
+}
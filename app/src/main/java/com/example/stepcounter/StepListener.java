@@ -1,5 +1,9 @@
 package com.example.stepcounter;
 
 public interface StepListener {
+    /**
+     * Called for every detected step. accelerationData is reused by the StepDetector
+     * and must not be kept after the call returns.
+     */
     void Step(AccelerationData accelerationData, StepType stepType);
 }
@@ -0,0 +1,180 @@
+package com.example.stepcounter;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The StepPipeline class keeps the StepSource of the next session ready, so StepCounterService.Start on the main
+ * thread only takes it and starts it. Prepare builds it on a background thread: the sensors are looked up once per
+ * StepPipeline, and the StepDetector runs once in every DetectionMode on a short synthetic signal, so the first
+ * samples of a session do not wait for classes to be loaded and initialized. Take never waits on the main thread:
+ * the StepSource is handed over once the pipeline thread has built it. If the permission for the step sensors
+ * changed since the StepSource was prepared, the right one is built on the pipeline thread.
+ * Prepare, Take and close are called on the main thread.
+ */
+public final class StepPipeline implements Closeable {
+    /**
+     * Receives the StepSource that Take hands over, on the main thread.
+     */
+    public interface Receiver {
+        /**
+         * @param stepSource The StepSource or null if the device has neither a step sensor nor an acceleration
+         * sensor; the receiver starts and finishes it
+         */
+        void Receive(StepSource stepSource);
+    }
+
+    private static final String TAG = "PIPELINE";
+    private static final int WARMUPSAMPLES = 512; // two buffers of the StepDetector
+    private static final long WARMUPPERIODNS = 20000000L;
+    private static final LogSink SILENTLOGSINK = new LogSink() {
+        @Override
+        public void Log(String tag, String message) {
+        }
+
+        @Override
+        public void Log(String tag, String format, double value) {
+        }
+
+        @Override
+        public void Log(String tag, String format, long value) {
+        }
+    };
+    private static final StepListener IGNORESTEPS = new StepListener() {
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+        }
+    };
+
+    private final Context context;
+    private final Metrics metrics;
+    private final HandlerThread handlerThread;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Looked up on the first build, on the pipeline thread or in Take
+    private volatile StepSources.Sensors sensors;
+    private FutureTask<StepSource> prepared = null;
+
+    public StepPipeline(Context context, Metrics metrics) {
+        this.context = context;
+        this.metrics = metrics;
+        handlerThread = new HandlerThread("StepPipeline", Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    /**
+     * The Prepare method builds the StepSource of the next session on the pipeline thread, unless one is ready.
+     */
+    public void Prepare(final int maxReportLatencyUs) {
+        if (prepared != null) {
+            return;
+        }
+        prepared = new FutureTask<>(new Callable<StepSource>() {
+            @Override
+            public StepSource call() {
+                StepSource stepSource = Build(maxReportLatencyUs);
+                WarmUp();
+                return stepSource;
+            }
+        });
+        handler.post(prepared);
+    }
+
+    /**
+     * The Take method hands the prepared StepSource to receiver on the main thread, after the pipeline thread
+     * has built it. Nothing is handed over after close.
+     */
+    public void Take(final int maxReportLatencyUs, final Receiver receiver) {
+        Prepare(maxReportLatencyUs);
+        final FutureTask<StepSource> task = prepared;
+        prepared = null;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Runs after the task on the same thread, so the result is there
+                StepSource stepSource = Await(task);
+                if (stepSource == null || stepSource instanceof HardwareStepSource
+                        != StepSources.UsesStepSensor(context, sensors)) {
+                    if (stepSource != null) {
+                        stepSource.Finish(null);
+                    }
+                    stepSource = Build(maxReportLatencyUs);
+                }
+                final StepSource takenStepSource = stepSource;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        receiver.Receive(takenStepSource);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The close method releases a StepSource that was prepared but not taken and ends the pipeline thread.
+     */
+    @Override
+    public void close() {
+        final FutureTask<StepSource> task = prepared;
+        prepared = null;
+        if (task != null) {
+            // Runs after the task on the same thread, so the result is there
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    StepSource stepSource = Await(task);
+                    if (stepSource != null) {
+                        stepSource.Finish(null);
+                    }
+                }
+            });
+        }
+        handlerThread.quitSafely();
+    }
+
+    private StepSource Build(int maxReportLatencyUs) {
+        if (sensors == null) {
+            sensors = StepSources.FindSensors(context);
+        }
+        return StepSources.Create(context, sensors, maxReportLatencyUs, metrics);
+    }
+
+    /**
+     * The WarmUp method runs a StepDetector in every DetectionMode over a walking-like signal; the steps are dropped.
+     */
+    private void WarmUp() {
+        StepDetector stepDetector = new StepDetector(SILENTLOGSINK, new SystemTimeSource());
+        stepDetector.RegisterStepListener(IGNORESTEPS);
+        for (DetectionMode detectionMode : DetectionMode.values()) {
+            stepDetector.SetDetectionMode(detectionMode);
+            for (int i = 0; i < WARMUPSAMPLES; i++) {
+                // 2 steps per second at 50 Hz
+                float bounce = (float) (6 * Math.sin(2 * Math.PI * i / 25));
+                stepDetector.AddAccelerationData(i * WARMUPPERIODNS, 0.3f * bounce, 0.2f * bounce, 9.81f + bounce);
+            }
+            stepDetector.Flush();
+        }
+    }
+
+    private StepSource Await(FutureTask<StepSource> task) {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            LogToFile.log(context, TAG, "Could not prepare the step source: " + e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
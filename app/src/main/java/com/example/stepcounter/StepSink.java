@@ -0,0 +1,11 @@
+package com.example.stepcounter;
+
+/**
+ * The StepSink interface accepts stored steps one at a time.
+ */
+public interface StepSink {
+    /**
+     * @param timeMs Unix time of the step in milliseconds
+     */
+    void AddStep(long timeMs, StepType stepType);
+}
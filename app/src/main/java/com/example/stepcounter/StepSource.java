@@ -0,0 +1,52 @@
+package com.example.stepcounter;
+
+/**
+ * A StepSource delivers the steps of one session to a StepListener.
+ * The methods are called on the main thread; the listener is called on a thread of the source.
+ */
+public interface StepSource {
+    /**
+     * Starts the session.
+     * @param sessionName Name of the session, e.g. for recordings
+     * @param timeOffsetToUnix Milliseconds from the sensor time base to Unix time, taken once for the whole session
+     */
+    void Start(String sessionName, long timeOffsetToUnix, StepListener stepListener);
+
+    /**
+     * Changes how long the sensor hardware may keep events before delivering them.
+     */
+    void SetMaxReportLatency(int maxReportLatencyUs);
+
+    /**
+     * Replaces the parameters of the step detection; the running session keeps its state.
+     */
+    void SetDetectorProfile(DetectorProfile detectorProfile);
+
+    /**
+     * Selects how steps are found in the acceleration; the running session starts the new mode without its state.
+     * Sources whose steps are counted by the sensor hardware ignore it.
+     */
+    void SetDetectionMode(DetectionMode detectionMode);
+
+    /**
+     * Stops delivering steps until Resume. Steps of the measurements taken before are still delivered.
+     */
+    void Pause();
+
+    /**
+     * Delivers the steps of the measurements taken from now on again.
+     */
+    void Resume();
+
+    /**
+     * Ends the session and releases the sensors and the thread. The steps of the measurements taken before are still
+     * delivered, then onFinished is called on the same thread as the listener.
+     * @param onFinished Called after the last step of a started session, or null
+     */
+    void Finish(Runnable onFinished);
+
+    /**
+     * @return True if the app processor must be kept awake so that no steps are lost while the screen is off
+     */
+    boolean NeedsWakeLock();
+}
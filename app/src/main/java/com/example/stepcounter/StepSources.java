@@ -0,0 +1,85 @@
+package com.example.stepcounter;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.os.Build;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * The StepSources class chooses the StepSource for a session: the hardware step counter or step detector if the
+ * device has one and the app may use it, otherwise the StepDetector on the acceleration sensor.
+ */
+public final class StepSources {
+    private StepSources() {
+    }
+
+    /**
+     * The sensors a StepSource can use, looked up once.
+     */
+    public static final class Sensors {
+        final SensorManager sensorManager;
+        final Sensor accelerometerSensor;
+        final Sensor stepSensor;
+
+        private Sensors(SensorManager sensorManager, Sensor accelerometerSensor, Sensor stepSensor) {
+            this.sensorManager = sensorManager;
+            this.accelerometerSensor = accelerometerSensor;
+            this.stepSensor = stepSensor;
+        }
+    }
+
+    /**
+     * The FindSensors method looks up the default sensors, whether or not the app may use the step sensors.
+     */
+    public static Sensors FindSensors(Context context) {
+        SensorManager sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        // The wake up variant keeps delivering its batches while the screen is off
+        Sensor accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER, true);
+        if (accelerometerSensor == null) {
+            accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        }
+        Sensor stepSensor = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
+        if (stepSensor == null) {
+            stepSensor = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR, true);
+        }
+        if (stepSensor == null) {
+            stepSensor = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
+        }
+        return new Sensors(sensorManager, accelerometerSensor, stepSensor);
+    }
+
+    /**
+     * @param sensors The sensors of FindSensors
+     * @param metrics Where the StepSource records its latencies and counters
+     * @return The StepSource or null if the device has neither a step sensor nor an acceleration sensor
+     */
+    public static StepSource Create(Context context, Sensors sensors, int maxReportLatencyUs, Metrics metrics) {
+        if (UsesStepSensor(context, sensors)) {
+            return new HardwareStepSource(context, sensors.sensorManager, sensors.stepSensor,
+                    sensors.accelerometerSensor, maxReportLatencyUs, metrics);
+        }
+        if (sensors.accelerometerSensor != null) {
+            return new AccelerometerStepSource(context, sensors.sensorManager, sensors.accelerometerSensor,
+                    maxReportLatencyUs, metrics);
+        }
+        return null;
+    }
+
+    /**
+     * @return True if Create would choose a HardwareStepSource for sensors now
+     */
+    static boolean UsesStepSensor(Context context, Sensors sensors) {
+        return sensors.stepSensor != null && IsActivityRecognitionGranted(context);
+    }
+
+    private static boolean IsActivityRecognitionGranted(Context context) {
+        // Before Android 10 the step sensors need no permission
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                || ContextCompat.checkSelfPermission(context, Manifest.permission.ACTIVITY_RECOGNITION)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+}
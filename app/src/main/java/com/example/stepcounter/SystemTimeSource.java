@@ -0,0 +1,18 @@
+package com.example.stepcounter;
+
+import android.os.SystemClock;
+
+/**
+ * The SystemTimeSource class provides the clocks of the device.
+ */
+public class SystemTimeSource implements TimeSource {
+    @Override
+    public long CurrentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long ElapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.stepcounter;
+
+import java.util.TimeZone;
+
+/**
+ * The TimeBuckets class computes the start of the minute, hour or day that a unix time in milliseconds belongs to.
+ * Hours and days start at the local wall clock, also in time zones with a half hour offset and on days with a
+ * daylight saving change.
+ */
+public final class TimeBuckets {
+    public static final int MINUTE = 0;
+    public static final int HOUR = 1;
+    public static final int DAY = 2;
+    public static final int COUNT = 3;
+    private static final long[] LENGTHS = {60000L, 3600000L, 86400000L};
+
+    private TimeBuckets() {
+    }
+
+    /**
+     * @param resolution MINUTE, HOUR or DAY
+     * @return Unix time in milliseconds of the start of the bucket that contains timeMs
+     */
+    public static long Start(int resolution, long timeMs, TimeZone timeZone) {
+        long length = LENGTHS[resolution];
+        int offset = timeZone.getOffset(timeMs);
+        long localTime = timeMs + offset;
+        long localStart = localTime - FloorMod(localTime, length);
+        long start = localStart - offset;
+        int offsetOfStart = timeZone.getOffset(start);
+        if (offsetOfStart == offset) {
+            return start;
+        }
+        // The offset changed between the start and timeMs, so the start has the offset of its own time
+        return localStart - offsetOfStart;
+    }
+
+    /**
+     * @return Nominal length of a bucket in milliseconds; a day with a daylight saving change is shorter or longer
+     */
+    public static long Length(int resolution) {
+        return LENGTHS[resolution];
+    }
+
+    private static long FloorMod(long value, long divisor) {
+        long remainder = value % divisor;
+        return remainder < 0 ? remainder + divisor : remainder;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.stepcounter;
+
+/**
+ * The TimeSource interface provides the clocks that are needed to convert sensor timestamps to Unix time.
+ */
+public interface TimeSource {
+    /**
+     * @return long: Unix time in milliseconds.
+     */
+    long CurrentTimeMillis();
+
+    /**
+     * @return long: Milliseconds since the device started, the time base of the sensor timestamps.
+     */
+    long ElapsedRealtime();
+}
@@ -0,0 +1,109 @@
+package com.example.stepcounter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The UiStatePublisher class shows the StepCounts at most once per display frame.
+ * Invalidate can be called from any thread after every step; if no frame is pending it posts to the main thread,
+ * which schedules the frame callback, because the Choreographer belongs to the main thread.
+ * In the frame callback the counts are read once and the Renderer is called only if they changed since the
+ * last frame, so the cost of drawing does not grow with the cadence.
+ * It must be created on the main thread.
+ */
+public class UiStatePublisher implements Choreographer.FrameCallback {
+    public interface Renderer {
+        /**
+         * Called on the main thread when at least one value changed.
+         * @param activityType Smoothed type of the recent steps, null if there was none
+         * @param cadence Steps per minute, 0 if unknown
+         */
+        void Render(StepType activityType, int cadence, int walking, int jogging, int running);
+    }
+
+    private final Choreographer choreographer;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final StepCounts stepCounts;
+    private final Renderer renderer;
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    // Used on the main thread only
+    private boolean isAttached = true;
+    private boolean isRendered = false;
+    private StepType renderedActivityType;
+    private int renderedCadence;
+    private int renderedWalking;
+    private int renderedJogging;
+    private int renderedRunning;
+
+    // Posted by Invalidate; a frame callback is only posted on the main thread and only while attached
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (isAttached) {
+                choreographer.postFrameCallback(UiStatePublisher.this);
+            } else {
+                isScheduled.set(false);
+            }
+        }
+    };
+
+    public UiStatePublisher(StepCounts stepCounts, Renderer renderer) {
+        this.choreographer = Choreographer.getInstance();
+        this.stepCounts = stepCounts;
+        this.renderer = renderer;
+    }
+
+    /**
+     * Requests a frame callback. Further calls before the frame do nothing.
+     */
+    public void Invalidate() {
+        if (isScheduled.compareAndSet(false, true)) {
+            mainHandler.post(scheduleFrame);
+        }
+    }
+
+    /**
+     * Stops rendering, e.g. while the Activity is not visible. Must be called on the main thread.
+     */
+    public void Detach() {
+        isAttached = false;
+        mainHandler.removeCallbacks(scheduleFrame);
+        choreographer.removeFrameCallback(this);
+        isScheduled.set(false);
+    }
+
+    /**
+     * Resumes rendering and shows the current values. Must be called on the main thread.
+     */
+    public void Attach() {
+        isAttached = true;
+        isRendered = false;
+        Invalidate();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Cleared before reading, so a step counted during this frame schedules the next one
+        isScheduled.set(false);
+        StepType activityType = stepCounts.GetActivityType();
+        int cadence = stepCounts.GetCadence();
+        int walking = stepCounts.Get(StepType.WALKING);
+        int jogging = stepCounts.Get(StepType.JOGGING);
+        int running = stepCounts.Get(StepType.RUNNING);
+        if (isRendered && activityType == renderedActivityType && cadence == renderedCadence
+                && walking == renderedWalking
+                && jogging == renderedJogging && running == renderedRunning) {
+            return;
+        }
+        isRendered = true;
+        renderedActivityType = activityType;
+        renderedCadence = cadence;
+        renderedWalking = walking;
+        renderedJogging = jogging;
+        renderedRunning = running;
+        renderer.Render(activityType, cadence, walking, jogging, running);
+    }
+}
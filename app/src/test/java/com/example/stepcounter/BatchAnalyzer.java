@@ -0,0 +1,205 @@
+package com.example.stepcounter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs step detection over many recorded sessions on a ForkJoinPool.
+ * Every task has its own StepDetector, so nothing is shared between threads. Sessions are analyzed in parallel,
+ * and a session longer than the chunk size is split into chunks that are analyzed in parallel as well.
+ * A chunk starts OVERLAPNS before its first sample, so the gravity filter and the suppression of near high points
+ * have the same state as in a sequential run, and it goes on OVERLAPNS after its last sample, so every high point
+ * inside the chunk is confirmed. Chunks and overlaps start at multiples of the batch size, so in BATCH mode the
+ * batches are the same as in a sequential run. A chunk owns the steps whose high point lies between the time of
+ * its first sample and the time of the first sample of the next chunk; steps in the overlaps belong to the
+ * neighbours and are dropped, so no step is counted twice.
+ * In FREQUENCY mode a step depends on the step cycles since the movement started, which no overlap covers, so
+ * such a session is analyzed as one chunk.
+ */
+public class BatchAnalyzer {
+    static final long OVERLAPNS = 2_000_000_000L;
+    private static final long UNIXTIMEATBOOT = 1_700_000_000_000L;
+
+    private final ForkJoinPool forkJoinPool;
+    private final DetectionMode detectionMode;
+    private final int sizeOfChunk;
+
+    /**
+     * @param sizeOfChunk Samples per chunk; rounded up to a multiple of the batch size
+     */
+    public BatchAnalyzer(ForkJoinPool forkJoinPool, DetectionMode detectionMode, int sizeOfChunk) {
+        this.forkJoinPool = forkJoinPool;
+        this.detectionMode = detectionMode;
+        int batch = DetectorProfile.DEFAULT.GetSizeOfListData();
+        this.sizeOfChunk = Math.max(1, (sizeOfChunk + batch - 1) / batch) * batch;
+    }
+
+    /**
+     * @return The steps of every session, in the order of sessions; the same steps a ReplayEngine finds
+     */
+    public ReplayResult[] Analyze(List<? extends TraceReader> sessions) throws IOException {
+        ReplayResult[] results = new ReplayResult[sessions.size()];
+        try {
+            forkJoinPool.invoke(new SessionsTask(sessions, results, 0, sessions.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return results;
+    }
+
+    @SuppressWarnings("serial") // Only run in the pool, never serialized
+    private class SessionsTask extends RecursiveAction {
+        private final List<? extends TraceReader> sessions;
+        private final ReplayResult[] results;
+        private final int from;
+        private final int to;
+
+        SessionsTask(List<? extends TraceReader> sessions, ReplayResult[] results, int from, int to) {
+            this.sessions = sessions;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SessionsTask(sessions, results, from, middle), new SessionsTask(sessions, results, middle, to));
+                return;
+            }
+            long start = System.nanoTime();
+            SampleBuffer samples = Load(sessions.get(from));
+            int chunkCount = detectionMode == DetectionMode.FREQUENCY ? 1
+                    : Math.max(1, (samples.Size() + sizeOfChunk - 1) / sizeOfChunk);
+            List<ChunkTask> chunkTasks = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                chunkTasks.add(new ChunkTask(samples, i * sizeOfChunk, Math.min((i + 1) * sizeOfChunk, samples.Size()),
+                        i == 0, i == chunkCount - 1));
+            }
+            invokeAll(chunkTasks);
+
+            StepList steps = new StepList();
+            for (ChunkTask chunkTask : chunkTasks) {
+                steps.AddAll(chunkTask.join());
+            }
+            results[from] = steps.ToResult(samples.Size(), System.nanoTime() - start);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ChunkTask extends RecursiveTask<StepList> {
+        private final SampleBuffer samples;
+        private final int from;
+        private final int to;
+        private final boolean isFirst;
+        private final boolean isLast;
+
+        ChunkTask(SampleBuffer samples, int from, int to, boolean isFirst, boolean isLast) {
+            this.samples = samples;
+            this.from = from;
+            this.to = to;
+            this.isFirst = isFirst;
+            this.isLast = isLast;
+        }
+
+        @Override
+        protected StepList compute() {
+            int batch = DetectorProfile.DEFAULT.GetSizeOfListData();
+            int warmUpFrom = 0;
+            int lookAheadTo = samples.Size();
+            long firstTime = Long.MIN_VALUE;
+            long lastTime = Long.MAX_VALUE;
+            if (!isFirst) {
+                warmUpFrom = samples.IndexOf(samples.GetTimestamp(from) - OVERLAPNS) / batch * batch;
+                firstTime = ToUnixTime(samples.GetTimestamp(from));
+            }
+            if (!isLast) {
+                lookAheadTo = Math.min(samples.Size(),
+                        (samples.IndexOf(samples.GetTimestamp(to) + OVERLAPNS) + batch - 1) / batch * batch);
+                lastTime = ToUnixTime(samples.GetTimestamp(to));
+            }
+
+            StepDetector stepDetector = new StepDetector(new NullLogSink(), new FixedTimeSource(UNIXTIMEATBOOT));
+            stepDetector.SetDetectionMode(detectionMode);
+            StepList steps = new StepList(firstTime, lastTime);
+            stepDetector.RegisterStepListener(steps);
+            samples.ReadInto(stepDetector, warmUpFrom, lookAheadTo);
+            stepDetector.Flush();
+            return steps;
+        }
+    }
+
+    private static long ToUnixTime(long timestampNs) {
+        return timestampNs / 1000000L + UNIXTIMEATBOOT;
+    }
+
+    private static SampleBuffer Load(TraceReader traceReader) {
+        SampleBuffer samples = new SampleBuffer();
+        try {
+            traceReader.ReadInto(samples);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return samples;
+    }
+
+    /**
+     * The steps of a chunk whose time lies in [firstTime, lastTime).
+     */
+    private static class StepList implements StepListener {
+        private final long firstTime;
+        private final long lastTime;
+        long[] stepTimes = new long[256];
+        StepType[] stepTypes = new StepType[256];
+        int size;
+
+        StepList() {
+            this(Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+
+        StepList(long firstTime, long lastTime) {
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+            long time = accelerationData.GetTime();
+            if (time >= firstTime && time < lastTime) {
+                Add(time, stepType);
+            }
+        }
+
+        void AddAll(StepList other) {
+            for (int i = 0; i < other.size; i++) {
+                Add(other.stepTimes[i], other.stepTypes[i]);
+            }
+        }
+
+        private void Add(long time, StepType stepType) {
+            if (size == stepTimes.length) {
+                stepTimes = Arrays.copyOf(stepTimes, size * 2);
+                stepTypes = Arrays.copyOf(stepTypes, size * 2);
+            }
+            stepTimes[size] = time;
+            stepTypes[size] = stepType;
+            size++;
+        }
+
+        ReplayResult ToResult(long sampleCount, long elapsedNanos) {
+            int[] stepCounts = new int[StepType.values().length];
+            for (int i = 0; i < size; i++) {
+                stepCounts[stepTypes[i].ordinal()]++;
+            }
+            return new ReplayResult(sampleCount, stepCounts, Arrays.copyOf(stepTimes, size), Arrays.copyOf(stepTypes, size),
+                    elapsedNanos);
+        }
+    }
+}
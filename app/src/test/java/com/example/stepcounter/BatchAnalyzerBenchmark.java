@@ -0,0 +1,67 @@
+package com.example.stepcounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per sample of BatchAnalyzer with 1 to 8 worker threads, for SESSIONCOUNT sessions of 10 minutes at 100 Hz
+ * kept in memory. With linear scaling the ns/sample halves when the parallelism doubles, up to the number of cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class BatchAnalyzerBenchmark {
+    private static final int SESSIONCOUNT = 16;
+    private static final int SAMPLESPERSESSION = 60_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"BATCH", "STREAMING"})
+    public DetectionMode detectionMode;
+
+    private final List<SampleBuffer> sessions = new ArrayList<>();
+    private ForkJoinPool forkJoinPool;
+    private BatchAnalyzer batchAnalyzer;
+
+    @Setup(Level.Trial)
+    public void Setup() {
+        StepType[] stepTypes = {StepType.WALKING, StepType.JOGGING, StepType.RUNNING};
+        for (int i = 0; i < SESSIONCOUNT; i++) {
+            sessions.add(SampleBuffer.Of(SyntheticTrace.Generate(stepTypes[i % stepTypes.length], 100,
+                    SAMPLESPERSESSION / 100, i)));
+        }
+        forkJoinPool = new ForkJoinPool(parallelism);
+        batchAnalyzer = new BatchAnalyzer(forkJoinPool, detectionMode, 6000);
+    }
+
+    @TearDown(Level.Trial)
+    public void TearDown() {
+        forkJoinPool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SESSIONCOUNT * SAMPLESPERSESSION)
+    public ReplayResult[] analyze() throws IOException {
+        return batchAnalyzer.Analyze(sessions);
+    }
+}
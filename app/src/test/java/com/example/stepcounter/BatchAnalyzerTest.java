@@ -0,0 +1,42 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the parallel, chunked analysis finds exactly the steps of a sequential replay.
+ */
+public class BatchAnalyzerTest {
+    @Test
+    public void chunkedAnalysis_equalsSequentialReplay() throws IOException {
+        List<SampleBuffer> sessions = new ArrayList<>();
+        // The seed also depends on the StepType, unlike SyntheticTrace.GenerateAll
+        for (StepType stepType : SyntheticTrace.STEPTYPES) {
+            for (int sampleRate : SyntheticTrace.SAMPLERATES) {
+                sessions.add(SampleBuffer.Of(SyntheticTrace.Generate(stepType, sampleRate, 120, 11 * sampleRate + stepType.ordinal())));
+            }
+        }
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        try {
+            for (DetectionMode detectionMode : DetectionMode.values()) {
+                // Chunks of 10 s at 100 Hz: every session has many seams
+                ReplayResult[] results = new BatchAnalyzer(forkJoinPool, detectionMode, 1000).Analyze(sessions);
+                ReplayEngine replayEngine = new ReplayEngine(detectionMode);
+                for (int i = 0; i < sessions.size(); i++) {
+                    ReplayResult expected = replayEngine.Replay(sessions.get(i));
+                    assertEquals(expected.GetSampleCount(), results[i].GetSampleCount());
+                    assertEquals(expected.GetStepCount(), results[i].GetStepCount());
+                    assertTrue(expected.HasSameSteps(results[i]));
+                }
+            }
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+}
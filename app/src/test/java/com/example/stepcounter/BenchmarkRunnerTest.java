@@ -0,0 +1,30 @@
+package com.example.stepcounter;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks whose names match the system property stepcounter.benchmarks, for example
+ * ./gradlew :app:testDebugUnitTest --tests '*BenchmarkRunnerTest' -Pbenchmarks=StepDetector
+ * Without the property the test is skipped. The GC profiler adds the allocation rate per sample (gc.alloc.rate.norm).
+ * The benchmarks run inside the Gradle test worker (no fork), because its classpath is not visible to a forked JVM.
+ */
+public class BenchmarkRunnerTest {
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        String include = System.getProperty("stepcounter.benchmarks", "");
+        Assume.assumeFalse("No benchmarks selected", include.isEmpty());
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .forks(0)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.stepcounter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a trace written by BinaryTraceWriter in large blocks through a FileChannel.
+ */
+public class BinaryTraceReader implements TraceReader {
+    private static final int SIZEOFBUFFER = BinaryTraceWriter.SIZEOFRECORD * 16384;
+
+    private final File file;
+
+    public BinaryTraceReader(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public long ReadInto(AccelerationSink sink) throws IOException {
+        long sampleCount = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SIZEOFBUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            buffer.limit(BinaryTraceWriter.SIZEOFHEADER);
+            ReadFully(channel, buffer);
+            buffer.flip();
+            if (buffer.remaining() < BinaryTraceWriter.SIZEOFHEADER
+                    || buffer.getInt() != BinaryTraceWriter.MAGIC || buffer.getInt() != BinaryTraceWriter.VERSION) {
+                throw new IOException(file + ": not a binary trace");
+            }
+            buffer.clear();
+            while (ReadFully(channel, buffer)) {
+                buffer.flip();
+                while (buffer.remaining() >= BinaryTraceWriter.SIZEOFRECORD) {
+                    sink.AddAccelerationData(buffer.getLong(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                    sampleCount++;
+                }
+                if (buffer.hasRemaining()) {
+                    throw new IOException(file + ": truncated record");
+                }
+                buffer.clear();
+            }
+        }
+        return sampleCount;
+    }
+
+    /**
+     * Fills buffer up to its limit or until the end of the file.
+     * @return boolean: true if at least one byte was read.
+     */
+    private static boolean ReadFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position() > start;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.stepcounter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes samples in the binary trace format read by BinaryTraceReader: an 8 byte header (MAGIC, VERSION)
+ * followed by little endian records of timestampNs (long) and x, y, z (float).
+ * Because it is an AccelerationSink, a CSV trace can be converted with csvReader.ReadInto(binaryWriter).
+ */
+public class BinaryTraceWriter implements AccelerationSink, Closeable {
+    static final int MAGIC = 0x43525453; // "STRC" in little endian
+    static final int VERSION = 1;
+    static final int SIZEOFHEADER = 8;
+    static final int SIZEOFRECORD = 8 + 3 * 4;
+    private static final int SIZEOFBUFFER = SIZEOFRECORD * 4096;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(SIZEOFBUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+    public BinaryTraceWriter(File file) throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+        buffer.putInt(MAGIC).putInt(VERSION);
+    }
+
+    @Override
+    public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+        if (buffer.remaining() < SIZEOFRECORD) {
+            try {
+                Flush();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write trace", e);
+            }
+        }
+        buffer.putLong(timestampNs).putFloat(x).putFloat(y).putFloat(z);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            Flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void Flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.stepcounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per step of CadenceEstimator.Add and reading its values, on steps with jittered intervals, magnitudes
+ * and types. Run with the GC profiler of BenchmarkRunnerTest, gc.alloc.rate.norm must stay at 0.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class CadenceEstimatorBenchmark {
+    static final int STEPSPERINVOCATION = 10_000;
+    private static final StepType[] STEPTYPES = {StepType.WALKING, StepType.JOGGING, StepType.RUNNING};
+
+    private final long[] intervals = new long[STEPSPERINVOCATION];
+    private final double[] values = new double[STEPSPERINVOCATION];
+    private final StepType[] stepTypes = new StepType[STEPSPERINVOCATION];
+    private final CadenceEstimator estimator = new CadenceEstimator();
+    private long time;
+
+    @Setup(Level.Trial)
+    public void Setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < STEPSPERINVOCATION; i++) {
+            intervals[i] = 300 + random.nextInt(300);
+            values[i] = 5 + 25 * random.nextDouble();
+            stepTypes[i] = STEPTYPES[random.nextInt(STEPTYPES.length)];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPSPERINVOCATION)
+    public void add(Blackhole blackhole) {
+        for (int i = 0; i < STEPSPERINVOCATION; i++) {
+            time += intervals[i];
+            estimator.Add(time, values[i], stepTypes[i]);
+            blackhole.consume(estimator.GetCadence());
+            blackhole.consume(estimator.GetIntervalVariance());
+            blackhole.consume(estimator.GetStepType());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the rolling statistics of the CadenceEstimator against a recomputation over the last steps,
+ * the cadence of the steps the StepDetector finds in synthetic traces and the debouncing of the step type.
+ */
+public class CadenceEstimatorTest {
+    private static final long UNIXTIMEATBOOT = 1_700_000_000_000L;
+
+    @Test
+    public void rollingValues_matchRecomputation() {
+        CadenceEstimator estimator = new CadenceEstimator();
+        Random random = new Random(7);
+        int size = 1000;
+        long[] times = new long[size];
+        double[] values = new double[size];
+        long time = 0;
+        for (int i = 0; i < size; i++) {
+            time += 300 + random.nextInt(400);
+            times[i] = time;
+            values[i] = 5 + 20 * random.nextDouble();
+            estimator.Add(times[i], values[i], StepType.WALKING);
+
+            int window = CadenceEstimator.SIZEOFWINDOW;
+            int from = Math.max(0, i - window + 1);
+            double magnitudeSum = 0;
+            for (int j = from; j <= i; j++) {
+                magnitudeSum += values[j];
+            }
+            assertEquals(magnitudeSum / (i - from + 1), estimator.GetMeanMagnitude(), 1e-9);
+
+            int count = Math.min(i, window);
+            if (count == 0) {
+                assertEquals(0, estimator.GetCadence(), 0);
+                continue;
+            }
+            double sum = 0;
+            for (int j = i - count + 1; j <= i; j++) {
+                sum += times[j] - times[j - 1];
+            }
+            double mean = sum / count;
+            double variance = 0;
+            for (int j = i - count + 1; j <= i; j++) {
+                double deviation = times[j] - times[j - 1] - mean;
+                variance += deviation * deviation;
+            }
+            assertEquals(60000 / mean, estimator.GetCadence(), 1e-9);
+            assertEquals(count < 2 ? 0 : variance / count, estimator.GetIntervalVariance(), 1e-6);
+        }
+    }
+
+    @Test
+    public void pause_startsNewBout() {
+        CadenceEstimator estimator = new CadenceEstimator();
+        for (int i = 0; i < 10; i++) {
+            estimator.Add(i * 500L, 10, StepType.WALKING);
+        }
+        assertEquals(120, estimator.GetCadence(), 1e-9);
+        estimator.Add(4500 + CadenceEstimator.MAXINTERVALMS + 1, 10, StepType.WALKING);
+        assertEquals(0, estimator.GetCadence(), 0);
+        assertEquals(StepType.WALKING, estimator.GetStepType());
+        estimator.Add(4500 + CadenceEstimator.MAXINTERVALMS + 401, 10, StepType.WALKING);
+        assertEquals(150, estimator.GetCadence(), 1e-9);
+    }
+
+    @Test
+    public void stationary_isIgnored() {
+        CadenceEstimator estimator = new CadenceEstimator();
+        estimator.Add(0, 10, StepType.JOGGING);
+        estimator.Add(200, 2, StepType.STATIONARY);
+        estimator.Add(400, 15, StepType.JOGGING);
+        assertEquals(150, estimator.GetCadence(), 1e-9);
+        assertEquals(12.5, estimator.GetMeanMagnitude(), 1e-9);
+        assertEquals(StepType.JOGGING, estimator.GetStepType());
+    }
+
+    @Test
+    public void alternatingTypes_doNotFlicker() {
+        CadenceEstimator estimator = new CadenceEstimator();
+        StepType[] stepTypes = {StepType.WALKING, StepType.JOGGING};
+        int changes = 0;
+        StepType shown = null;
+        for (int i = 0; i < 100; i++) {
+            // Mostly walking with every third step just above the jogging threshold
+            estimator.Add(i * 450L, 11, stepTypes[i % 3 == 2 ? 1 : 0]);
+            if (estimator.GetStepType() != shown) {
+                shown = estimator.GetStepType();
+                changes++;
+            }
+        }
+        assertEquals(1, changes);
+        assertEquals(StepType.WALKING, shown);
+    }
+
+    @Test
+    public void sustainedChange_switchesWithinWindow() {
+        CadenceEstimator estimator = new CadenceEstimator();
+        for (int i = 0; i < 20; i++) {
+            estimator.Add(i * 550L, 8, StepType.WALKING);
+        }
+        int switchedAfter = -1;
+        for (int i = 0; i < 20; i++) {
+            estimator.Add(20 * 550L + i * 400L, 15, StepType.JOGGING);
+            if (switchedAfter < 0 && estimator.GetStepType() == StepType.JOGGING) {
+                switchedAfter = i + 1;
+            }
+        }
+        assertEquals(CadenceEstimator.MINVOTES, switchedAfter);
+    }
+
+    @Test
+    public void detectedSteps_giveTraceCadence() {
+        double[] cadences = {1.8, 2.5, 3.0}; // steps per second of SyntheticTrace
+        StepType[] stepTypes = {StepType.WALKING, StepType.JOGGING, StepType.RUNNING};
+        for (int t = 0; t < stepTypes.length; t++) {
+            SyntheticTrace trace = SyntheticTrace.Generate(stepTypes[t], 100, 60, 11 + t);
+            final CadenceEstimator estimator = new CadenceEstimator();
+            StepDetector stepDetector = new StepDetector(new NullLogSink(), new FixedTimeSource(UNIXTIMEATBOOT));
+            // The default 500 ms between steps is too long for running
+            stepDetector.SetProfile(DetectorProfile.DEFAULT.WithDurationOfStep(300));
+            stepDetector.RegisterStepListener(new StepListener() {
+                @Override
+                public void Step(AccelerationData accelerationData, StepType stepType) {
+                    estimator.Add(accelerationData.GetTime(), accelerationData.GetValue(), stepType);
+                }
+            });
+            for (int i = 0; i < trace.Size(); i++) {
+                stepDetector.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+            }
+            stepDetector.Flush();
+            assertEquals(stepTypes[t].toString(), cadences[t] * 60, estimator.GetCadence(), cadences[t] * 60 * 0.1);
+            assertEquals(stepTypes[t], estimator.GetStepType());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.stepcounter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a text trace with one "timestampNs,x,y,z" sample per line. Lines that do not start with a number
+ * (a header or comments) are skipped. The numbers are parsed directly from the bytes without creating Strings;
+ * decimal numbers with up to 18 significant digits are converted exactly to double and then rounded to float,
+ * anything else falls back to Float.parseFloat.
+ */
+public class CsvTraceReader implements TraceReader {
+    private static final int SIZEOFBUFFER = 1 << 16;
+    private static final int MAXLENGTHOFLINE = 256;
+    private static final double[] POWERSOFTEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long MAXEXACTMANTISSA = 1L << 53;
+
+    private final File file;
+    private final byte[] line = new byte[MAXLENGTHOFLINE];
+    private int position;
+    private int end;
+
+    public CsvTraceReader(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public long ReadInto(AccelerationSink sink) throws IOException {
+        long sampleCount = 0;
+        int lineNumber = 0;
+        int length = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(SIZEOFBUFFER);
+        byte[] bytes = buffer.array();
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    byte b = bytes[i];
+                    if (b == '\n') {
+                        lineNumber++;
+                        if (ParseLine(length, sink, lineNumber)) {
+                            sampleCount++;
+                        }
+                        length = 0;
+                    } else if (length < MAXLENGTHOFLINE) {
+                        line[length++] = b;
+                    } else {
+                        throw new IOException(file + ":" + (lineNumber + 1) + ": line is too long");
+                    }
+                }
+            }
+        }
+        if (length > 0 && ParseLine(length, sink, lineNumber + 1)) {
+            sampleCount++;
+        }
+        return sampleCount;
+    }
+
+    private boolean ParseLine(int length, AccelerationSink sink, int lineNumber) throws IOException {
+        position = 0;
+        end = length;
+        if (end > 0 && line[end - 1] == '\r') {
+            end--;
+        }
+        SkipSpaces();
+        if (position == end || !(line[position] == '-' || IsDigit(line[position]))) {
+            return false;
+        }
+        long timestampNs = ParseLong(lineNumber);
+        float x = ParseFloat(lineNumber);
+        float y = ParseFloat(lineNumber);
+        float z = ParseFloat(lineNumber);
+        sink.AddAccelerationData(timestampNs, x, y, z);
+        return true;
+    }
+
+    private long ParseLong(int lineNumber) throws IOException {
+        SkipSeparator();
+        boolean isNegative = position < end && line[position] == '-';
+        if (isNegative) {
+            position++;
+        }
+        int start = position;
+        long value = 0;
+        while (position < end && IsDigit(line[position])) {
+            value = value * 10 + (line[position++] - '0');
+        }
+        if (position == start || position - start > 18) {
+            throw new IOException(file + ":" + lineNumber + ": invalid timestamp");
+        }
+        return isNegative ? -value : value;
+    }
+
+    private float ParseFloat(int lineNumber) throws IOException {
+        SkipSeparator();
+        int start = position;
+        boolean isNegative = false;
+        if (position < end && (line[position] == '-' || line[position] == '+')) {
+            isNegative = line[position++] == '-';
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean isExact = true;
+        while (position < end && IsDigit(line[position])) {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (line[position] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+                isExact = false;
+            }
+            position++;
+        }
+        if (position < end && line[position] == '.') {
+            position++;
+            while (position < end && IsDigit(line[position])) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (line[position] - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                } else {
+                    isExact = false;
+                }
+                position++;
+            }
+        }
+        if (position < end && (line[position] == 'e' || line[position] == 'E')) {
+            position++;
+            boolean isNegativeExponent = false;
+            if (position < end && (line[position] == '-' || line[position] == '+')) {
+                isNegativeExponent = line[position++] == '-';
+            }
+            int exponentStart = position;
+            int explicitExponent = 0;
+            while (position < end && IsDigit(line[position])) {
+                explicitExponent = Math.min(explicitExponent * 10 + (line[position++] - '0'), 1000);
+            }
+            if (position == exponentStart) {
+                throw new IOException(file + ":" + lineNumber + ": invalid exponent");
+            }
+            exponent += isNegativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (position == start) {
+            throw new IOException(file + ":" + lineNumber + ": missing value");
+        }
+        if (!isExact || mantissa > MAXEXACTMANTISSA || exponent < -22 || exponent > 22) {
+            try {
+                return Float.parseFloat(new String(line, start, position - start, "US-ASCII"));
+            } catch (NumberFormatException e) {
+                throw new IOException(file + ":" + lineNumber + ": invalid value", e);
+            }
+        }
+        double value = exponent < 0 ? mantissa / POWERSOFTEN[-exponent] : mantissa * POWERSOFTEN[exponent];
+        return (float) (isNegative ? -value : value);
+    }
+
+    private void SkipSeparator() {
+        SkipSpaces();
+        if (position < end && (line[position] == ',' || line[position] == ';')) {
+            position++;
+        }
+        SkipSpaces();
+    }
+
+    private void SkipSpaces() {
+        while (position < end && (line[position] == ' ' || line[position] == '\t')) {
+            position++;
+        }
+    }
+
+    private static boolean IsDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a DetectorProfile can be swapped while the StepDetector runs and that the ParameterSweep
+ * gives the same results on one and on several threads.
+ */
+public class DetectorProfileTest {
+    // The modes that find steps by the thresholds and the duration of a step; FREQUENCY only uses them for the StepType
+    private static final DetectionMode[] PEAKMODES = {DetectionMode.BATCH, DetectionMode.STREAMING};
+
+    @Test
+    public void defaultProfile_hasFormerConstants() {
+        DetectorProfile profile = DetectorProfile.DEFAULT;
+        assertEquals(5, profile.GetWalkingThreshold(), 0);
+        assertEquals(12, profile.GetJoggingThreshold(), 0);
+        assertEquals(23, profile.GetRunningThreshold(), 0);
+        assertEquals(50, profile.GetSizeOfListData());
+        assertEquals(500, profile.GetDurationOfStep());
+        assertEquals(0.8f, profile.GetAlpha(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsDescendingThresholds() {
+        DetectorProfile.DEFAULT.WithThresholds(12, 5, 23);
+    }
+
+    @Test
+    public void setProfile_withEqualValuesKeepsAllSteps() {
+        for (DetectionMode detectionMode : DetectionMode.values()) {
+            for (StepType stepType : SyntheticTrace.STEPTYPES) {
+                SyntheticTrace trace = SyntheticTrace.Generate(stepType, 100, 30, 17);
+                List<String> expected = Replay(trace, detectionMode, null, 0);
+                // A new but equal profile in the middle of a batch, a run and the peak window
+                List<String> actual = Replay(trace, detectionMode, DetectorProfile.DEFAULT.WithName("copy"), 1234);
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void setProfile_appliesFromNextSample() {
+        for (DetectionMode detectionMode : PEAKMODES) {
+            SyntheticTrace trace = SyntheticTrace.Generate(StepType.WALKING, 100, 30, 19);
+            List<String> all = Replay(trace, detectionMode, null, 0);
+            // No walking pulse reaches 100, so after the swap only steps from before it can follow
+            List<String> swapped = Replay(trace, detectionMode, DetectorProfile.DEFAULT.WithThresholds(100, 100, 100),
+                    trace.Size() / 2);
+            assertTrue(swapped.size() > all.size() / 3);
+            assertTrue(swapped.size() < all.size() * 2 / 3);
+            assertEquals(all.subList(0, swapped.size() - 1), swapped.subList(0, swapped.size() - 1));
+        }
+    }
+
+    @Test
+    public void setProfile_smallerBatchProcessesPendingSamples() {
+        SyntheticTrace trace = SyntheticTrace.Generate(StepType.JOGGING, 100, 30, 23);
+        List<String> steps = Replay(trace, DetectionMode.BATCH, DetectorProfile.DEFAULT.WithSizeOfListData(10), 1045);
+        // Runs that cross the border of the smaller batches can be split, so the count differs a little
+        assertEquals(Replay(trace, DetectionMode.BATCH, null, 0).size(), steps.size(), steps.size() / 5.0);
+    }
+
+    @Test
+    public void sweep_isSameOnOneAndManyThreads() throws IOException {
+        List<SampleBuffer> traces = new ArrayList<>();
+        int[] expectedStepCounts = new int[SyntheticTrace.STEPTYPES.length];
+        for (int i = 0; i < SyntheticTrace.STEPTYPES.length; i++) {
+            SyntheticTrace trace = SyntheticTrace.Generate(SyntheticTrace.STEPTYPES[i], 100, 40, 29 + i);
+            traces.add(SampleBuffer.Of(trace));
+            expectedStepCounts[i] = trace.stepCount;
+        }
+        List<DetectorProfile> profiles = ParameterSweep.Grid(DetectorProfile.DEFAULT, new double[]{3, 5, 8},
+                new int[]{300, 500}, new float[]{0.8f, 0.9f});
+        assertEquals(12, profiles.size());
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool many = new ForkJoinPool(4);
+        try {
+            for (DetectionMode detectionMode : PEAKMODES) {
+                List<ParameterSweep.Result> expected = new ParameterSweep(single, detectionMode)
+                        .Run(profiles, traces, expectedStepCounts);
+                List<ParameterSweep.Result> actual = new ParameterSweep(many, detectionMode)
+                        .Run(profiles, traces, expectedStepCounts);
+                assertEquals(Arrays.toString(expected.toArray()), Arrays.toString(actual.toArray()));
+
+                List<ParameterSweep.Result> front = ParameterSweep.ParetoFront(actual);
+                assertFalse(front.isEmpty());
+                // 500 ms between steps is too long for jogging and running at 2.5 and 3 steps per second
+                ParameterSweep.Result defaultResult = actual.get(profiles.indexOf(DetectorProfile.DEFAULT));
+                assertEquals(300, front.get(0).GetProfile().GetDurationOfStep());
+                assertTrue(front.get(0).GetCountError() < defaultResult.GetCountError());
+                for (ParameterSweep.Result result : front) {
+                    for (ParameterSweep.Result other : actual) {
+                        assertFalse(other.Dominates(result));
+                    }
+                }
+            }
+        } finally {
+            single.shutdown();
+            many.shutdown();
+        }
+    }
+
+    /**
+     * @param profile Profile to set after swapIndex samples, or null
+     */
+    private static List<String> Replay(SyntheticTrace trace, DetectionMode detectionMode, DetectorProfile profile,
+                                       int swapIndex) {
+        final List<String> steps = new ArrayList<>();
+        StepDetector stepDetector = new StepDetector(new NullLogSink(), new FixedTimeSource(1700000000000L));
+        stepDetector.SetDetectionMode(detectionMode);
+        stepDetector.RegisterStepListener(new StepListener() {
+            @Override
+            public void Step(AccelerationData accelerationData, StepType stepType) {
+                steps.add(accelerationData.GetTime() + " " + stepType);
+            }
+        });
+        for (int i = 0; i < trace.Size(); i++) {
+            if (profile != null && i == swapIndex) {
+                stepDetector.SetProfile(profile);
+            }
+            stepDetector.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+        }
+        stepDetector.Flush();
+        return steps;
+    }
+}
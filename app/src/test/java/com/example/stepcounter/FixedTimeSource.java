@@ -0,0 +1,23 @@
+package com.example.stepcounter;
+
+/**
+ * A TimeSource with a constant offset between the sensor time base and Unix time,
+ * so replaying the same trace always gives the same step times.
+ */
+public class FixedTimeSource implements TimeSource {
+    private final long unixTimeAtBootMillis;
+
+    public FixedTimeSource(long unixTimeAtBootMillis) {
+        this.unixTimeAtBootMillis = unixTimeAtBootMillis;
+    }
+
+    @Override
+    public long CurrentTimeMillis() {
+        return unixTimeAtBootMillis;
+    }
+
+    @Override
+    public long ElapsedRealtime() {
+        return 0;
+    }
+}
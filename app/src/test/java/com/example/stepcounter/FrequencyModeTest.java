@@ -0,0 +1,86 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the SlidingDft against a direct DFT of its window and the steps of the FREQUENCY mode on synthetic traces,
+ * also on soft steps that no threshold finds and on strong noise that does not repeat.
+ */
+public class FrequencyModeTest {
+    private static final StepType[] STEPTYPES = {StepType.WALKING, StepType.JOGGING, StepType.RUNNING};
+    private static final int[] SAMPLERATES = {25, 50, 100, 200, 400};
+
+    @Test
+    public void slidingDft_matchesDirectDft() {
+        int size = 64;
+        SlidingDft slidingDft = new SlidingDft(size, 1, 20);
+        Random random = new Random(5);
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            // A large mean like gravity and a periodic part
+            values[i] = 9.81 + 3 * Math.sin(i * 0.4) + random.nextGaussian();
+            slidingDft.Add(values[i]);
+            assertEquals(i + 1 >= size, slidingDft.IsFull());
+
+            int from = i - size + 1;
+            double sum = 0;
+            double sumOfSquares = 0;
+            for (int m = Math.max(0, from); m <= i; m++) {
+                sum += values[m];
+                sumOfSquares += values[m] * values[m];
+            }
+            assertEquals(sum / Math.min(i + 1, size), slidingDft.GetMean(), 1e-9);
+            for (int bin = 1; bin <= 20; bin++) {
+                double real = 0;
+                double imaginary = 0;
+                for (int m = Math.max(0, from); m <= i; m++) {
+                    real += values[m] * Math.cos(2 * Math.PI * bin * (m - from) / size);
+                    imaginary -= values[m] * Math.sin(2 * Math.PI * bin * (m - from) / size);
+                }
+                double power = real * real + imaginary * imaginary;
+                assertEquals(power, slidingDft.GetPower(bin), 1e-6 * (1 + power));
+                if (slidingDft.IsFull()) {
+                    double energy = sumOfSquares - sum * sum / size;
+                    assertEquals(2 * power / (size * energy), slidingDft.GetShareOfEnergy(bin), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void frequencyMode_countsStepsAtEverySampleRate() throws IOException {
+        for (SyntheticTrace trace : SyntheticTrace.GenerateAll(STEPTYPES, SAMPLERATES, 120, 31)) {
+            ReplayResult result = new ReplayEngine(DetectionMode.FREQUENCY).Replay(SampleBuffer.Of(trace));
+            assertEquals(trace.stepType + " " + trace.sampleRateHz, trace.stepCount, result.GetStepCount(),
+                    trace.stepCount * 0.05);
+            if (trace.sampleRateHz >= 50) {
+                // The highest data set of a cycle classifies the step; at 25 Hz the pulses fall between samples
+                assertTrue(result.GetStepCount(trace.stepType) > result.GetStepCount() * 0.8);
+            }
+        }
+    }
+
+    @Test
+    public void frequencyMode_countsSoftSteps() throws IOException {
+        // Pulses of less than half the walking amplitude do not reach the walking threshold
+        SyntheticTrace trace = SyntheticTrace.Generate(StepType.WALKING, 50, 120, 12, 0.4, 0.4);
+        assertEquals(0, new ReplayEngine(DetectionMode.STREAMING).Replay(SampleBuffer.Of(trace)).GetStepCount());
+        ReplayResult result = new ReplayEngine(DetectionMode.FREQUENCY).Replay(SampleBuffer.Of(trace));
+        assertEquals(trace.stepCount, result.GetStepCount(), trace.stepCount * 0.1);
+        assertEquals(result.GetStepCount(), result.GetStepCount(StepType.WALKING));
+    }
+
+    @Test
+    public void frequencyMode_ignoresNoise() throws IOException {
+        for (int sampleRate : SAMPLERATES) {
+            // Noise that crosses the walking threshold now and then, but does not repeat
+            SyntheticTrace trace = SyntheticTrace.Generate(StepType.STATIONARY, sampleRate, 120, sampleRate, 1, 1.5);
+            assertEquals(0, new ReplayEngine(DetectionMode.FREQUENCY).Replay(SampleBuffer.Of(trace)).GetStepCount());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the single pass peak extraction of HighPoints and PeakWindow against straightforward reference
+ * implementations on synthetic walking, jogging and running traces.
+ */
+public class HighPointsTest {
+    private static final double WALKINGTHRESHOLD = 5;
+    private static final long DURATIONOFSTEP = 500;
+    private static final float ALPHA = 0.8f;
+    private static final int SIZEOFLISTDATA = 50;
+
+    @Test
+    public void find_equalsSortingReference() {
+        for (SyntheticTrace trace : SyntheticTrace.GenerateAll(60, 1)) {
+            Series series = new Series(trace);
+            int[] highPointIndexes = new int[series.Size()];
+            for (int first = 0; first + SIZEOFLISTDATA <= series.Size(); first += SIZEOFLISTDATA) {
+                int count = HighPoints.Find(series.values, series.mask, first, SIZEOFLISTDATA, WALKINGTHRESHOLD, highPointIndexes);
+                assertEquals(ReferenceFind(series, first, SIZEOFLISTDATA), ToList(highPointIndexes, count));
+            }
+            int count = HighPoints.Find(series.values, series.mask, 0, series.Size(), WALKINGTHRESHOLD, highPointIndexes);
+            assertEquals(ReferenceFind(series, 0, series.Size()), ToList(highPointIndexes, count));
+        }
+    }
+
+    @Test
+    public void find_wrapsAroundCircularBuffer() {
+        double[] values = {6, 1, 1, 1, 1, 7, 9, 8, 1, 6, 6, 1, 12, 1, 1, 6};
+        int[] highPointIndexes = new int[values.length];
+        int count = HighPoints.Find(values, values.length - 1, 12, 10, WALKINGTHRESHOLD, highPointIndexes);
+        // Samples 12..15 and 0..5: runs {12}, {15, 0} and {5} which is still going on at the end
+        assertEquals(2, count);
+        assertEquals(12, highPointIndexes[0]);
+        assertEquals(0, highPointIndexes[1]);
+    }
+
+    @Test
+    public void removeNear_equalsPairwiseReference() {
+        for (SyntheticTrace trace : SyntheticTrace.GenerateAll(60, 31)) {
+            Series series = new Series(trace);
+            int[] highPointIndexes = new int[series.Size()];
+            int count = HighPoints.Find(series.values, series.mask, 0, series.Size(), WALKINGTHRESHOLD, highPointIndexes);
+            List<Integer> expected = ReferenceRemoveNear(series, ToList(highPointIndexes, count));
+
+            int remaining = HighPoints.RemoveNear(series.times, series.values, highPointIndexes, count, DURATIONOFSTEP,
+                    new int[count], new boolean[count]);
+            assertEquals(expected, ToList(highPointIndexes, remaining));
+        }
+    }
+
+    @Test
+    public void removeNear_keepsHigherOfNearPeaksOnly() {
+        long[] times = {0, 300, 600, 1500, 1800, 1900};
+        double[] values = {14, 12, 13, 8, 8, 6};
+        int[] highPointIndexes = {0, 1, 2, 3, 4, 5};
+        int remaining = HighPoints.RemoveNear(times, values, highPointIndexes, 6, DURATIONOFSTEP, new int[6], new boolean[6]);
+        // 12 is near a higher point on both sides, of the two equal 8s the later one stays, 6 is near 8
+        assertEquals(3, remaining);
+        assertEquals(0, highPointIndexes[0]);
+        assertEquals(2, highPointIndexes[1]);
+        assertEquals(4, highPointIndexes[2]);
+    }
+
+    @Test
+    public void peakWindow_equalsRemoveNear() {
+        for (SyntheticTrace trace : SyntheticTrace.GenerateAll(60, 17)) {
+            Series series = new Series(trace);
+            int[] highPointIndexes = new int[series.Size()];
+            int count = HighPoints.Find(series.values, series.mask, 0, series.Size(), WALKINGTHRESHOLD, highPointIndexes);
+
+            PeakWindow peakWindow = new PeakWindow(DURATIONOFSTEP);
+            List<Long> streamed = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int index = highPointIndexes[i];
+                int slot;
+                while ((slot = peakWindow.PollConfirmed(series.times[index])) >= 0) {
+                    streamed.add(peakWindow.GetTime(slot));
+                }
+                assertTrue(peakWindow.Add(series.times[index], series.values[index], 0, 0, 0));
+            }
+            int slot;
+            while ((slot = peakWindow.PollAny()) >= 0) {
+                streamed.add(peakWindow.GetTime(slot));
+            }
+
+            int remaining = HighPoints.RemoveNear(series.times, series.values, highPointIndexes, count, DURATIONOFSTEP,
+                    new int[count], new boolean[count]);
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < remaining; i++) {
+                expected.add(series.times[highPointIndexes[i]]);
+            }
+            assertEquals(expected, streamed);
+        }
+    }
+
+    /**
+     * The previous FindHighPoints: collect every run above the threshold, sort it and take the last element.
+     */
+    private static List<Integer> ReferenceFind(final Series series, int first, int count) {
+        List<Integer> highPoints = new ArrayList<>();
+        List<Integer> run = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = (first + i) & series.mask;
+            if (series.values[index] > WALKINGTHRESHOLD) {
+                run.add(index);
+            } else if (!run.isEmpty()) {
+                Collections.sort(run, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer first, Integer second) {
+                        return Double.compare(series.values[first], series.values[second]);
+                    }
+                });
+                highPoints.add(run.get(run.size() - 1));
+                run.clear();
+            }
+        }
+        return highPoints;
+    }
+
+    /**
+     * Compares every pair of high points: a high point is removed if another one within DURATIONOFSTEP
+     * is higher, or equally high and later.
+     */
+    private static List<Integer> ReferenceRemoveNear(Series series, List<Integer> highPoints) {
+        List<Integer> remaining = new ArrayList<>();
+        for (int i = 0; i < highPoints.size(); i++) {
+            int index = highPoints.get(i);
+            boolean isRemoved = false;
+            for (int j = 0; j < highPoints.size() && !isRemoved; j++) {
+                int other = highPoints.get(j);
+                if (j == i || Math.abs(series.times[other] - series.times[index]) >= DURATIONOFSTEP) {
+                    continue;
+                }
+                isRemoved = series.values[other] > series.values[index]
+                        || (series.values[other] == series.values[index] && j > i);
+            }
+            if (!isRemoved) {
+                remaining.add(index);
+            }
+        }
+        return remaining;
+    }
+
+    private static List<Integer> ToList(int[] array, int count) {
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(array[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Vector length after the gravity filter and time in milliseconds, in buffers with a power of two length.
+     */
+    private static class Series {
+        final double[] values;
+        final long[] times;
+        final int mask;
+        private final int size;
+
+        Series(SyntheticTrace trace) {
+            size = trace.Size();
+            int capacity = Integer.highestOneBit(size) << 1;
+            mask = capacity - 1;
+            values = new double[capacity];
+            times = new long[capacity];
+            float[] gravity = {0.0f, 0.0f, 9.8f};
+            for (int i = 0; i < size; i++) {
+                gravity[0] = ALPHA * gravity[0] + (1 - ALPHA) * trace.x[i];
+                gravity[1] = ALPHA * gravity[1] + (1 - ALPHA) * trace.y[i];
+                gravity[2] = ALPHA * gravity[2] + (1 - ALPHA) * trace.z[i];
+                float x = trace.x[i] - gravity[0];
+                float y = trace.y[i] - gravity[1];
+                float z = trace.z[i] - gravity[2];
+                values[i] = Math.sqrt(x * x + y * y + z * z);
+                times[i] = trace.timestamps[i] / 1000000L;
+            }
+        }
+
+        int Size() {
+            return size;
+        }
+    }
+}
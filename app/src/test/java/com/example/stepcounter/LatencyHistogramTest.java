@@ -0,0 +1,102 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the buckets and percentiles of LatencyHistogram against sorted values, and that recording Metrics
+ * does not change the steps of the StepDetector.
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void buckets_coverEveryValueOnce() {
+        long previous = -1;
+        for (int i = 0; i < LatencyHistogram.BUCKETCOUNT; i++) {
+            long upperBound = LatencyHistogram.UpperBound(i);
+            assertTrue(upperBound > previous);
+            assertEquals(i, LatencyHistogram.BucketIndex(previous + 1));
+            assertEquals(i, LatencyHistogram.BucketIndex(upperBound));
+            previous = upperBound;
+        }
+        assertEquals(LatencyHistogram.MAXVALUE, previous);
+    }
+
+    @Test
+    public void percentile_isWithinOneSubBucketOfSortedValue() {
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        LatencyHistogram latencyHistogram = new LatencyHistogram("test");
+        for (int i = 0; i < values.length; i++) {
+            // Log-uniform from 1 us to about 1 s
+            values[i] = (long) Math.exp(Math.log(1e3) + random.nextDouble() * Math.log(1e6));
+            latencyHistogram.Record(values[i]);
+        }
+        Arrays.sort(values);
+        LatencyHistogram.Snapshot snapshot = latencyHistogram.TakeSnapshot();
+        assertEquals(values.length, snapshot.GetCount());
+        assertEquals(values[values.length - 1], snapshot.GetMax());
+        for (double percentile : new double[]{0.01, 0.5, 0.9, 0.99, 0.999, 1.0}) {
+            long expected = values[(int) Math.ceil(percentile * values.length) - 1];
+            long actual = snapshot.GetPercentile(percentile);
+            assertTrue(actual >= expected);
+            assertTrue(actual <= expected + expected / LatencyHistogram.SUBBUCKETCOUNT);
+        }
+    }
+
+    @Test
+    public void record_clampsOutOfRangeValues() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram("test");
+        latencyHistogram.Record(-5);
+        latencyHistogram.Record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = latencyHistogram.TakeSnapshot();
+        assertEquals(2, snapshot.GetCount());
+        assertEquals(0, snapshot.GetPercentile(0.5));
+        assertEquals(LatencyHistogram.MAXVALUE, snapshot.GetPercentile(1.0));
+        assertEquals(0, new LatencyHistogram("empty").TakeSnapshot().GetPercentile(0.5));
+    }
+
+    @Test
+    public void metrics_doNotChangeSteps() {
+        for (DetectionMode detectionMode : DetectionMode.values()) {
+            SyntheticTrace trace = SyntheticTrace.Generate(StepType.JOGGING, 100, 30, 11);
+            StringBuilder expected = new StringBuilder();
+            Replay(trace, detectionMode, Metrics.Disabled(), expected);
+
+            Metrics metrics = new Metrics(true);
+            StringBuilder actual = new StringBuilder();
+            int stepCount = Replay(trace, detectionMode, metrics, actual);
+
+            assertEquals(expected.toString(), actual.toString());
+            Metrics.Snapshot snapshot = metrics.TakeSnapshot();
+            assertTrue(stepCount > 0);
+            assertEquals(stepCount, snapshot.GetSteps());
+            assertEquals(stepCount, snapshot.GetSensorToStep().GetCount());
+            assertTrue(snapshot.GetMagnitudeStage().GetCount() > 0);
+            assertTrue(snapshot.GetClassificationStage().GetCount() > 0);
+        }
+    }
+
+    private static int Replay(SyntheticTrace trace, DetectionMode detectionMode, Metrics metrics,
+                              final StringBuilder steps) {
+        final int[] stepCount = {0};
+        StepDetector stepDetector = new StepDetector(new NullLogSink(), new FixedTimeSource(1700000000000L));
+        stepDetector.SetDetectionMode(detectionMode);
+        stepDetector.SetMetrics(metrics);
+        stepDetector.RegisterStepListener(new StepListener() {
+            @Override
+            public void Step(AccelerationData accelerationData, StepType stepType) {
+                steps.append(accelerationData.GetTime()).append(' ').append(stepType).append('\n');
+                stepCount[0]++;
+            }
+        });
+        for (int i = 0; i < trace.Size(); i++) {
+            stepDetector.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+        }
+        stepDetector.Flush();
+        return stepCount[0];
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the block kernel calculates the vector lengths of the former per sample code up to the float rounding
+ * of the square root and that adding blocks to the StepDetector sends the same steps as adding the samples one by one.
+ */
+public class MagnitudeKernelTest {
+    private static final float ALPHA = 0.8f;
+
+    @Test
+    public void apply_equalsPerSampleCalculation() {
+        for (StepType stepType : SyntheticTrace.STEPTYPES) {
+            SyntheticTrace trace = SyntheticTrace.Generate(stepType, 100, 30, 7);
+            double[] expected = new double[trace.Size()];
+            float[] gravity = {0.0f, 0.0f, 9.8f};
+            for (int i = 0; i < trace.Size(); i++) {
+                gravity[0] = ALPHA * gravity[0] + (1 - ALPHA) * trace.x[i];
+                gravity[1] = ALPHA * gravity[1] + (1 - ALPHA) * trace.y[i];
+                gravity[2] = ALPHA * gravity[2] + (1 - ALPHA) * trace.z[i];
+                float x = trace.x[i] - gravity[0];
+                float y = trace.y[i] - gravity[1];
+                float z = trace.z[i] - gravity[2];
+                expected[i] = Math.sqrt(x * x + y * y + z * z);
+            }
+
+            MagnitudeKernel magnitudeKernel = new MagnitudeKernel(ALPHA, 0.0f, 0.0f, 9.8f);
+            double[] values = new double[trace.Size()];
+            Random random = new Random(stepType.ordinal());
+            for (int from = 0; from < trace.Size(); ) {
+                int count = Math.min(1 + random.nextInt(64), trace.Size() - from);
+                magnitudeKernel.Apply(trace.x, trace.y, trace.z, from, count, values);
+                from += count;
+            }
+            for (int i = 0; i < values.length; i++) {
+                // One rounding to float: half a unit in the last place
+                assertEquals(expected[i], values[i], Math.ulp((float) expected[i]) / 2);
+            }
+        }
+    }
+
+    @Test
+    public void addBlocks_sendsSameStepsAsSingleSamples() {
+        List<SyntheticTrace> traces = SyntheticTrace.GenerateAll(30, 3);
+        for (DetectionMode detectionMode : DetectionMode.values()) {
+            for (SyntheticTrace trace : traces) {
+                StepRecorder expected = new StepRecorder();
+                StepDetector stepDetector = NewStepDetector(detectionMode, expected);
+                for (int i = 0; i < trace.Size(); i++) {
+                    stepDetector.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+                }
+                stepDetector.Flush();
+                assertTrue(trace.stepType == StepType.STATIONARY || !expected.steps.isEmpty());
+
+                StepRecorder actual = new StepRecorder();
+                stepDetector = NewStepDetector(detectionMode, actual);
+                Random random = new Random(trace.sampleRateHz);
+                for (int from = 0; from < trace.Size(); ) {
+                    // Blocks of every size, also longer than the buffers of the StepDetector
+                    int count = Math.min(1 + random.nextInt(200), trace.Size() - from);
+                    stepDetector.AddAccelerationData(trace.timestamps, trace.x, trace.y, trace.z, from, count);
+                    from += count;
+                }
+                stepDetector.Flush();
+
+                assertEquals(expected.steps, actual.steps);
+            }
+        }
+    }
+
+    @Test
+    public void reset_sendsStepsOfNewDetector() {
+        for (DetectionMode detectionMode : DetectionMode.values()) {
+            SyntheticTrace before = SyntheticTrace.Generate(StepType.RUNNING, 100, 7, 3);
+            SyntheticTrace trace = SyntheticTrace.Generate(StepType.WALKING, 50, 30, 4);
+            StepRecorder expected = new StepRecorder();
+            StepDetector newStepDetector = NewStepDetector(detectionMode, expected);
+            Add(newStepDetector, trace);
+
+            StepRecorder actual = new StepRecorder();
+            StepDetector stepDetector = NewStepDetector(detectionMode, actual);
+            // Not flushed, so samples, high points and a step cycle are pending
+            for (int i = 0; i < before.Size() - 13; i++) {
+                stepDetector.AddAccelerationData(before.timestamps[i], before.x[i], before.y[i], before.z[i]);
+            }
+            actual.steps.clear();
+            stepDetector.Reset();
+            Add(stepDetector, trace);
+
+            assertFalse(expected.steps.isEmpty());
+            assertEquals(detectionMode.toString(), expected.steps, actual.steps);
+        }
+    }
+
+    @Test
+    public void reset_usesTimeOffsetOfNextSession() {
+        SyntheticTrace trace = SyntheticTrace.Generate(StepType.WALKING, 50, 30, 5);
+        StepRecorder expected = new StepRecorder();
+        StepDetector newStepDetector = NewStepDetector(DetectionMode.STREAMING, expected);
+        newStepDetector.SetTimeOffsetToUnix(1800000000000L);
+        Add(newStepDetector, trace);
+
+        StepRecorder actual = new StepRecorder();
+        StepDetector stepDetector = NewStepDetector(DetectionMode.STREAMING, actual);
+        stepDetector.SetTimeOffsetToUnix(1750000000000L);
+        Add(stepDetector, trace);
+        actual.steps.clear();
+        stepDetector.Reset();
+        stepDetector.SetTimeOffsetToUnix(1800000000000L);
+        Add(stepDetector, trace);
+
+        assertFalse(expected.steps.isEmpty());
+        assertEquals(expected.steps, actual.steps);
+    }
+
+    private static void Add(StepDetector stepDetector, SyntheticTrace trace) {
+        for (int i = 0; i < trace.Size(); i++) {
+            stepDetector.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+        }
+        stepDetector.Flush();
+    }
+
+    private static StepDetector NewStepDetector(DetectionMode detectionMode, StepListener stepListener) {
+        StepDetector stepDetector = new StepDetector(new NullLogSink(), new FixedTimeSource(1700000000000L));
+        stepDetector.SetDetectionMode(detectionMode);
+        stepDetector.RegisterStepListener(stepListener);
+        return stepDetector;
+    }
+
+    private static class StepRecorder implements StepListener {
+        final List<String> steps = new ArrayList<>();
+
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+            steps.add(accelerationData.GetTime() + " " + stepType + " " + accelerationData.GetValue());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.stepcounter;
+
+/**
+ * A LogSink that drops all messages.
+ */
+public class NullLogSink implements LogSink {
+    @Override
+    public void Log(String tag, String message) {
+    }
+
+    @Override
+    public void Log(String tag, String format, double value) {
+    }
+
+    @Override
+    public void Log(String tag, String format, long value) {
+    }
+}
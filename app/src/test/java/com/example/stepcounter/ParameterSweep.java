@@ -0,0 +1,221 @@
+package com.example.stepcounter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replays labelled traces with every DetectorProfile of a grid on a ForkJoinPool, to find profiles with a good
+ * trade-off between the accuracy of the step count and the latency from the high point of a step to its StepListener
+ * call. The traces are loaded into memory once; every (profile, trace) pair is a task with its own StepDetector.
+ */
+public class ParameterSweep {
+    private static final long UNIXTIMEATBOOT = 1_700_000_000_000L;
+
+    private final ForkJoinPool forkJoinPool;
+    private final DetectionMode detectionMode;
+
+    public ParameterSweep(ForkJoinPool forkJoinPool, DetectionMode detectionMode) {
+        this.forkJoinPool = forkJoinPool;
+        this.detectionMode = detectionMode;
+    }
+
+    /**
+     * @return Every combination of the values, based on profile
+     */
+    public static List<DetectorProfile> Grid(DetectorProfile profile, double[] walkingThresholds, int[] durationsOfStep,
+                                             float[] alphas) {
+        List<DetectorProfile> profiles = new ArrayList<>();
+        for (double walkingThreshold : walkingThresholds) {
+            for (int durationOfStep : durationsOfStep) {
+                for (float alpha : alphas) {
+                    profiles.add(profile
+                            .WithThresholds(walkingThreshold, Math.max(walkingThreshold, profile.GetJoggingThreshold()),
+                                    Math.max(walkingThreshold, profile.GetRunningThreshold()))
+                            .WithDurationOfStep(durationOfStep)
+                            .WithAlpha(alpha));
+                }
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * @param traces The recorded sessions
+     * @param expectedStepCounts The true number of steps of every session
+     * @return One result per profile, in the order of profiles
+     */
+    public List<Result> Run(List<DetectorProfile> profiles, List<? extends TraceReader> traces, int[] expectedStepCounts)
+            throws IOException {
+        SampleBuffer[] samples = new SampleBuffer[traces.size()];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = new SampleBuffer();
+            traces.get(i).ReadInto(samples[i]);
+        }
+        Score[][] scores = new Score[profiles.size()][samples.length];
+        forkJoinPool.invoke(new PairsTask(profiles, samples, scores, 0, profiles.size() * samples.length));
+
+        List<Result> results = new ArrayList<>(profiles.size());
+        for (int p = 0; p < profiles.size(); p++) {
+            results.add(new Result(profiles.get(p), scores[p], expectedStepCounts));
+        }
+        return results;
+    }
+
+    /**
+     * @return The results that no other result beats in both count error and mean latency, by ascending count error
+     */
+    public static List<Result> ParetoFront(List<Result> results) {
+        List<Result> front = new ArrayList<>();
+        for (Result result : results) {
+            boolean isDominated = false;
+            for (Result other : results) {
+                if (other.Dominates(result)) {
+                    isDominated = true;
+                    break;
+                }
+            }
+            if (!isDominated) {
+                front.add(result);
+            }
+        }
+        Collections.sort(front, new Comparator<Result>() {
+            @Override
+            public int compare(Result first, Result second) {
+                return Double.compare(first.GetCountError(), second.GetCountError());
+            }
+        });
+        return front;
+    }
+
+    @SuppressWarnings("serial") // Only run in the pool, never serialized
+    private class PairsTask extends RecursiveAction {
+        private final List<DetectorProfile> profiles;
+        private final SampleBuffer[] samples;
+        private final Score[][] scores;
+        private final int from;
+        private final int to;
+
+        PairsTask(List<DetectorProfile> profiles, SampleBuffer[] samples, Score[][] scores, int from, int to) {
+            this.profiles = profiles;
+            this.samples = samples;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PairsTask(profiles, samples, scores, from, middle),
+                        new PairsTask(profiles, samples, scores, middle, to));
+                return;
+            }
+            int profile = from / samples.length;
+            int trace = from % samples.length;
+            scores[profile][trace] = Replay(profiles.get(profile), samples[trace]);
+        }
+    }
+
+    private Score Replay(DetectorProfile profile, SampleBuffer samples) {
+        final StepDetector stepDetector = new StepDetector(new NullLogSink(), new FixedTimeSource(UNIXTIMEATBOOT));
+        stepDetector.SetDetectionMode(detectionMode);
+        stepDetector.SetProfile(profile);
+        final Score score = new Score();
+        stepDetector.RegisterStepListener(score);
+        samples.ReadInto(new AccelerationSink() {
+            @Override
+            public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+                score.currentTime = timestampNs / 1000000L + UNIXTIMEATBOOT;
+                stepDetector.AddAccelerationData(timestampNs, x, y, z);
+            }
+        });
+        stepDetector.Flush();
+        return score;
+    }
+
+    private static class Score implements StepListener {
+        long currentTime;
+        int stepCount;
+        long totalLatency;
+        long maxLatency;
+
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+            if (stepType == StepType.STATIONARY) {
+                return;
+            }
+            long latency = currentTime - accelerationData.GetTime();
+            stepCount++;
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+    }
+
+    /**
+     * The accuracy and latency of one profile over all traces.
+     */
+    public static class Result {
+        private final DetectorProfile profile;
+        private final double countError;
+        private final double meanLatency;
+        private final long maxLatency;
+
+        Result(DetectorProfile profile, Score[] scores, int[] expectedStepCounts) {
+            this.profile = profile;
+            long error = 0;
+            long expected = 0;
+            long stepCount = 0;
+            long totalLatency = 0;
+            long maxLatency = 0;
+            for (int i = 0; i < scores.length; i++) {
+                error += Math.abs(scores[i].stepCount - expectedStepCounts[i]);
+                expected += expectedStepCounts[i];
+                stepCount += scores[i].stepCount;
+                totalLatency += scores[i].totalLatency;
+                maxLatency = Math.max(maxLatency, scores[i].maxLatency);
+            }
+            this.countError = expected > 0 ? (double) error / expected : error;
+            this.meanLatency = stepCount > 0 ? (double) totalLatency / stepCount : 0;
+            this.maxLatency = maxLatency;
+        }
+
+        public DetectorProfile GetProfile() {
+            return profile;
+        }
+
+        /**
+         * @return The sum of the absolute count errors of all traces relative to the true number of steps
+         */
+        public double GetCountError() {
+            return countError;
+        }
+
+        /**
+         * @return Milliseconds from the high point to the StepListener call, measured in sensor time
+         */
+        public double GetMeanLatency() {
+            return meanLatency;
+        }
+
+        public long GetMaxLatency() {
+            return maxLatency;
+        }
+
+        boolean Dominates(Result other) {
+            return countError <= other.countError && meanLatency <= other.meanLatency
+                    && (countError < other.countError || meanLatency < other.meanLatency);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s -> error %.1f %%, latency mean %.0f ms, max %d ms", profile, countError * 100,
+                    meanLatency, maxLatency);
+        }
+    }
+}
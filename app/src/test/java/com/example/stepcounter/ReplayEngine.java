@@ -0,0 +1,64 @@
+package com.example.stepcounter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Replays recorded accelerometer traces through StepDetector on the JVM, without a device.
+ * The clock and the log sink are injected, so the result only depends on the trace.
+ * A ReplayEngine is not thread safe; use one per thread.
+ */
+public class ReplayEngine {
+    private static final long UNIXTIMEATBOOT = 1_700_000_000_000L;
+
+    private final LogSink logSink;
+    private final TimeSource timeSource;
+    private final DetectionMode detectionMode;
+
+    public ReplayEngine(DetectionMode detectionMode) {
+        this(new NullLogSink(), new FixedTimeSource(UNIXTIMEATBOOT), detectionMode);
+    }
+
+    public ReplayEngine(LogSink logSink, TimeSource timeSource, DetectionMode detectionMode) {
+        this.logSink = logSink;
+        this.timeSource = timeSource;
+        this.detectionMode = detectionMode;
+    }
+
+    /**
+     * Runs a fresh StepDetector over the whole trace and flushes it at the end.
+     */
+    public ReplayResult Replay(TraceReader traceReader) throws IOException {
+        StepDetector stepDetector = new StepDetector(logSink, timeSource);
+        stepDetector.SetDetectionMode(detectionMode);
+        StepRecorder stepRecorder = new StepRecorder();
+        stepDetector.RegisterStepListener(stepRecorder);
+
+        long start = System.nanoTime();
+        long sampleCount = traceReader.ReadInto(stepDetector);
+        stepDetector.Flush();
+        long elapsedNanos = System.nanoTime() - start;
+
+        return new ReplayResult(sampleCount, stepRecorder.stepCounts, Arrays.copyOf(stepRecorder.stepTimes, stepRecorder.size),
+                Arrays.copyOf(stepRecorder.stepTypes, stepRecorder.size), elapsedNanos);
+    }
+
+    private static class StepRecorder implements StepListener {
+        final int[] stepCounts = new int[StepType.values().length];
+        long[] stepTimes = new long[1024];
+        StepType[] stepTypes = new StepType[1024];
+        int size;
+
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+            if (size == stepTimes.length) {
+                stepTimes = Arrays.copyOf(stepTimes, size * 2);
+                stepTypes = Arrays.copyOf(stepTypes, size * 2);
+            }
+            stepTimes[size] = accelerationData.GetTime();
+            stepTypes[size] = stepType;
+            size++;
+            stepCounts[stepType.ordinal()]++;
+        }
+    }
+}
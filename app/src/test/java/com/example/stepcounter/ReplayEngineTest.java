@@ -0,0 +1,130 @@
+package com.example.stepcounter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplayEngineTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void csvAndBinaryTraces_giveSameSteps() throws IOException {
+        for (DetectionMode detectionMode : new DetectionMode[]{DetectionMode.BATCH, DetectionMode.STREAMING}) {
+            SyntheticTrace trace = SyntheticTrace.Generate(StepType.WALKING, 50, 120, 7);
+            File csvFile = WriteCsv(trace);
+            File binaryFile = temporaryFolder.newFile();
+            try (BinaryTraceWriter binaryTraceWriter = new BinaryTraceWriter(binaryFile)) {
+                new CsvTraceReader(csvFile).ReadInto(binaryTraceWriter);
+            }
+
+            ReplayEngine replayEngine = new ReplayEngine(detectionMode);
+            ReplayResult csvResult = replayEngine.Replay(new CsvTraceReader(csvFile));
+            ReplayResult binaryResult = replayEngine.Replay(new BinaryTraceReader(binaryFile));
+
+            assertEquals(trace.Size(), csvResult.GetSampleCount());
+            assertEquals(trace.Size(), binaryResult.GetSampleCount());
+            assertTrue(csvResult.GetStepCount(StepType.WALKING) > 0);
+            assertTrue(csvResult.HasSameSteps(binaryResult));
+        }
+    }
+
+    @Test
+    public void replay_isDeterministic() throws IOException {
+        SyntheticTrace trace = SyntheticTrace.Generate(StepType.JOGGING, 100, 60, 3);
+        File csvFile = WriteCsv(trace);
+        ReplayEngine replayEngine = new ReplayEngine(DetectionMode.STREAMING);
+        assertTrue(replayEngine.Replay(new CsvTraceReader(csvFile)).HasSameSteps(replayEngine.Replay(new CsvTraceReader(csvFile))));
+    }
+
+    @Test
+    public void wallClockJumps_doNotChangeStepSpacing() throws IOException {
+        SyntheticTrace trace = SyntheticTrace.Generate(StepType.RUNNING, 100, 60, 5);
+        for (DetectionMode detectionMode : DetectionMode.values()) {
+            ReplayResult expected = new ReplayEngine(detectionMode).Replay(SampleBuffer.Of(trace));
+            // The wall clock jumps by a minute on every read, as after a network time update
+            TimeSource jumpingTimeSource = new TimeSource() {
+                private long unixTime = 1_700_000_000_000L;
+
+                @Override
+                public long CurrentTimeMillis() {
+                    unixTime += 60000;
+                    return unixTime;
+                }
+
+                @Override
+                public long ElapsedRealtime() {
+                    return 0;
+                }
+            };
+            ReplayResult actual = new ReplayEngine(new NullLogSink(), jumpingTimeSource, detectionMode)
+                    .Replay(SampleBuffer.Of(trace));
+
+            long[] expectedTimes = expected.GetStepTimes();
+            long[] actualTimes = actual.GetStepTimes();
+            assertTrue(expectedTimes.length > 0);
+            assertEquals(expectedTimes.length, actualTimes.length);
+            long offset = actualTimes[0] - expectedTimes[0];
+            for (int i = 0; i < expectedTimes.length; i++) {
+                assertEquals(expectedTimes[i] + offset, actualTimes[i]);
+            }
+        }
+    }
+
+    @Test
+    public void csvTraceReader_parsesHeaderSignsAndExponents() throws IOException {
+        File csvFile = temporaryFolder.newFile();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(csvFile), "US-ASCII")) {
+            writer.write("timestampNs,x,y,z\r\n");
+            writer.write("# comment\n");
+            writer.write("1000, -1.5, +0.25, 9.81\r\n");
+            writer.write("\n");
+            writer.write("2000;1e-3;-2.5E1;0.000001\n");
+            writer.write("3000,0.1234567890123456789,7,-0");
+        }
+        final List<float[]> samples = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+        long sampleCount = new CsvTraceReader(csvFile).ReadInto(new AccelerationSink() {
+            @Override
+            public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+                timestamps.add(timestampNs);
+                samples.add(new float[]{x, y, z});
+            }
+        });
+
+        assertEquals(3, sampleCount);
+        assertEquals(Long.valueOf(1000), timestamps.get(0));
+        assertArrayEquals(new float[]{-1.5f, 0.25f, 9.81f}, samples.get(0), 0f);
+        assertEquals(Long.valueOf(2000), timestamps.get(1));
+        assertArrayEquals(new float[]{1e-3f, -25f, 0.000001f}, samples.get(1), 0f);
+        assertArrayEquals(new float[]{0.1234567890123456789f, 7f, -0f}, samples.get(2), 0f);
+    }
+
+    @Test(expected = IOException.class)
+    public void binaryTraceReader_rejectsOtherFiles() throws IOException {
+        File csvFile = WriteCsv(SyntheticTrace.Generate(StepType.WALKING, 50, 1, 1));
+        new BinaryTraceReader(csvFile).ReadInto(new StepDetector(new NullLogSink(), new FixedTimeSource(0)));
+    }
+
+    private File WriteCsv(SyntheticTrace trace) throws IOException {
+        File csvFile = temporaryFolder.newFile();
+        try (PrintWriter writer = new PrintWriter(csvFile, "US-ASCII")) {
+            writer.println("timestampNs,x,y,z");
+            for (int i = 0; i < trace.Size(); i++) {
+                writer.println(trace.timestamps[i] + "," + trace.x[i] + "," + trace.y[i] + "," + trace.z[i]);
+            }
+        }
+        return csvFile;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.stepcounter;
+
+import java.util.Arrays;
+
+/**
+ * The steps that ReplayEngine detected in one trace.
+ */
+public class ReplayResult {
+    private final long sampleCount;
+    private final int[] stepCounts;
+    private final long[] stepTimes;
+    private final StepType[] stepTypes;
+    private final long elapsedNanos;
+
+    ReplayResult(long sampleCount, int[] stepCounts, long[] stepTimes, StepType[] stepTypes, long elapsedNanos) {
+        this.sampleCount = sampleCount;
+        this.stepCounts = stepCounts;
+        this.stepTimes = stepTimes;
+        this.stepTypes = stepTypes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long GetSampleCount() {
+        return sampleCount;
+    }
+
+    public int GetStepCount() {
+        return stepTimes.length;
+    }
+
+    public int GetStepCount(StepType stepType) {
+        return stepCounts[stepType.ordinal()];
+    }
+
+    /**
+     * @return long[]: The Unix time in milliseconds of every step, in the order they were sent.
+     */
+    public long[] GetStepTimes() {
+        return stepTimes.clone();
+    }
+
+    public StepType[] GetStepTypes() {
+        return stepTypes.clone();
+    }
+
+    public long GetElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double GetSamplesPerSecond() {
+        return elapsedNanos == 0 ? 0 : sampleCount * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return boolean: true if both results contain the same steps.
+     */
+    public boolean HasSameSteps(ReplayResult other) {
+        return Arrays.equals(stepTimes, other.stepTimes) && Arrays.equals(stepTypes, other.stepTypes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d samples, %d steps (walking %d, jogging %d, running %d), %.1f M samples/s",
+                sampleCount, GetStepCount(), GetStepCount(StepType.WALKING), GetStepCount(StepType.JOGGING),
+                GetStepCount(StepType.RUNNING), GetSamplesPerSecond() / 1e6);
+    }
+}
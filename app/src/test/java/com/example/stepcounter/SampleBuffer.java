@@ -0,0 +1,78 @@
+package com.example.stepcounter;
+
+import java.util.Arrays;
+
+/**
+ * Keeps a whole trace in memory as structure of arrays. It can be filled from any TraceReader and read again
+ * as a TraceReader, for example to replay the same trace many times without I/O.
+ */
+public class SampleBuffer implements AccelerationSink, TraceReader {
+    private long[] timestamps = new long[4096];
+    private float[] x = new float[4096];
+    private float[] y = new float[4096];
+    private float[] z = new float[4096];
+    private int size;
+
+    public static SampleBuffer Of(SyntheticTrace trace) {
+        SampleBuffer sampleBuffer = new SampleBuffer();
+        for (int i = 0; i < trace.Size(); i++) {
+            sampleBuffer.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+        }
+        return sampleBuffer;
+    }
+
+    @Override
+    public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            this.x = Arrays.copyOf(this.x, size * 2);
+            this.y = Arrays.copyOf(this.y, size * 2);
+            this.z = Arrays.copyOf(this.z, size * 2);
+        }
+        timestamps[size] = timestampNs;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        size++;
+    }
+
+    @Override
+    public long ReadInto(AccelerationSink sink) {
+        for (int i = 0; i < size; i++) {
+            sink.AddAccelerationData(timestamps[i], x[i], y[i], z[i]);
+        }
+        return size;
+    }
+
+    /**
+     * Passes the samples from index from to to - 1 to the StepDetector as blocks.
+     */
+    public void ReadInto(StepDetector stepDetector, int from, int to) {
+        stepDetector.AddAccelerationData(timestamps, x, y, z, from, to - from);
+    }
+
+    public int Size() {
+        return size;
+    }
+
+    public long GetTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @return The index of the first sample with a timestamp of at least timestampNs, or Size() if there is none.
+     */
+    public int IndexOf(long timestampNs) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < timestampNs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
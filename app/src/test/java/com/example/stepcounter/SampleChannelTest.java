@@ -0,0 +1,124 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the order of the messages of the SampleChannel, its overflow policy and the handoff between a producer
+ * and a parked consumer thread.
+ */
+public class SampleChannelTest {
+    private static final int CAPACITY = 64;
+
+    @Test
+    public void drain_keepsOrderOfSamplesAndControls() {
+        SampleChannel channel = new SampleChannel(CAPACITY);
+        Recorder recorder = new Recorder();
+        // Three times around the ring
+        for (int round = 0; round < 3 * CAPACITY / 8; round++) {
+            for (int i = 0; i < 7; i++) {
+                assertTrue(channel.Offer(round * 8 + i, i, 2 * i, 3 * i));
+            }
+            assertTrue(channel.OfferControl(SampleChannel.Control.PAUSE));
+            assertEquals(8, channel.Drain(recorder));
+            assertTrue(channel.IsEmpty());
+        }
+        for (int i = 0; i < recorder.messages.size(); i++) {
+            String expected = i % 8 == 7 ? "PAUSE" : i + " " + (float) (i % 8) + " " + (float) (2 * (i % 8));
+            assertEquals(expected, recorder.messages.get(i));
+        }
+    }
+
+    @Test
+    public void fullChannel_dropsNewSamplesButNotControls() {
+        SampleChannel channel = new SampleChannel(CAPACITY);
+        int room = CAPACITY - SampleChannel.CONTROLRESERVE;
+        for (int i = 0; i < room; i++) {
+            assertTrue(channel.Offer(i, 0, 0, 0));
+        }
+        assertFalse(channel.Offer(room, 0, 0, 0));
+        assertFalse(channel.Offer(room + 1, 0, 0, 0));
+        assertEquals(2, channel.GetDroppedSamples());
+        for (int i = 0; i < SampleChannel.CONTROLRESERVE; i++) {
+            assertTrue(channel.OfferControl(SampleChannel.Control.RESUME));
+        }
+        assertFalse(channel.OfferControl(SampleChannel.Control.FINISH));
+        assertEquals(1, channel.GetDroppedControls());
+
+        Recorder recorder = new Recorder();
+        assertEquals(CAPACITY, channel.Drain(recorder));
+        assertEquals("" + (room - 1) + " 0.0 0.0", recorder.messages.get(room - 1));
+        assertEquals("RESUME", recorder.messages.get(room));
+        assertTrue(channel.Offer(room, 0, 0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsCapacityThatIsNoPowerOfTwo() {
+        new SampleChannel(100);
+    }
+
+    @Test
+    public void consumerThread_receivesEverySampleInOrder() throws InterruptedException {
+        final SampleChannel channel = new SampleChannel(CAPACITY);
+        final int sampleCount = 200000;
+        final long[] received = new long[3]; // samples, out of order, last timestamp
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final boolean[] isFinished = {false};
+                SampleChannel.Receiver receiver = new SampleChannel.Receiver() {
+                    @Override
+                    public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+                        if (timestampNs <= received[2] || x != timestampNs % 1000) {
+                            received[1]++;
+                        }
+                        received[0]++;
+                        received[2] = timestampNs;
+                    }
+
+                    @Override
+                    public void Control(SampleChannel.Control control) {
+                        isFinished[0] = control == SampleChannel.Control.FINISH;
+                    }
+                };
+                while (!isFinished[0]) {
+                    channel.AwaitMessages();
+                    channel.Drain(receiver);
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 1; i <= sampleCount; i++) {
+            channel.Offer(i, i % 1000, 0, 0);
+            if (i % 5000 == 0) {
+                // Gives the consumer time to empty the channel and park
+                Thread.sleep(1);
+            }
+        }
+        while (!channel.OfferControl(SampleChannel.Control.FINISH)) {
+            Thread.yield();
+        }
+        consumer.join(10000);
+        assertFalse(consumer.isAlive());
+        assertEquals(0, received[1]);
+        assertEquals(sampleCount, received[0] + channel.GetDroppedSamples());
+    }
+
+    private static class Recorder implements SampleChannel.Receiver {
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+            messages.add(timestampNs + " " + x + " " + y);
+        }
+
+        @Override
+        public void Control(SampleChannel.Control control) {
+            messages.add(control.toString());
+        }
+    }
+}
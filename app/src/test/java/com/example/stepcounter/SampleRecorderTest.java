@@ -0,0 +1,120 @@
+package com.example.stepcounter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SampleRecorderTest {
+    private static final float QUANTIZATIONERROR = 0.5f / SampleRecorder.QUANTIZATIONSTEPS;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void recordedSamples_areReadBackQuantized() throws IOException {
+        final SyntheticTrace trace = SyntheticTrace.Generate(StepType.RUNNING, 200, 60, 5);
+        File directory = temporaryFolder.newFolder();
+        try (SampleRecorder sampleRecorder = new SampleRecorder(directory, "session", new NullLogSink())) {
+            for (int i = 0; i < trace.Size(); i++) {
+                sampleRecorder.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+            }
+            assertEquals(trace.Size(), sampleRecorder.GetSampleCount());
+        }
+
+        final int[] index = {0};
+        long sampleCount = new SampleRecordReader(directory, "session").ReadInto(new AccelerationSink() {
+            @Override
+            public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+                int i = index[0]++;
+                assertEquals(trace.timestamps[i] / 1000L, timestampNs / 1000L);
+                assertEquals(trace.x[i], x, QUANTIZATIONERROR);
+                assertEquals(trace.y[i], y, QUANTIZATIONERROR);
+                assertEquals(trace.z[i], z, QUANTIZATIONERROR);
+            }
+        });
+        assertEquals(trace.Size(), sampleCount);
+    }
+
+    @Test
+    public void gapsAndBackwardTime_startNewSegments() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        long[] timestamps = {1_000_000L, 2_000_000L, 3_000_000_000_000L, 3_000_020_000_000L, 5_000_000L};
+        try (SampleRecorder sampleRecorder = new SampleRecorder(directory, "gaps", new NullLogSink())) {
+            for (long timestamp : timestamps) {
+                sampleRecorder.AddAccelerationData(timestamp, 1f, -200f, 9.81f);
+            }
+        }
+        assertTrue(SampleRecorder.SegmentFile(directory, "gaps", 2).isFile());
+        assertFalse(SampleRecorder.SegmentFile(directory, "gaps", 3).isFile());
+
+        final long[] readTimestamps = new long[timestamps.length];
+        final int[] index = {0};
+        new SampleRecordReader(directory, "gaps").ReadInto(new AccelerationSink() {
+            @Override
+            public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+                readTimestamps[index[0]++] = timestampNs;
+                // -200 is outside of the quantization range and is clamped
+                assertEquals(Short.MIN_VALUE / SampleRecorder.QUANTIZATIONSTEPS, y, 0f);
+            }
+        });
+        assertArrayEquals(timestamps, readTimestamps);
+    }
+
+    @Test
+    public void prune_keepsNewestSessionsWithinBudget() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        long[] sizes = new long[5];
+        for (int session = 0; session < sizes.length; session++) {
+            sizes[session] = Record(directory, "session-" + session, 1000 * (session + 1));
+            // A higher number is a newer session
+            for (int segmentNumber = 0; ; segmentNumber++) {
+                File file = SampleRecorder.SegmentFile(directory, "session-" + session, segmentNumber);
+                if (!file.isFile()) {
+                    break;
+                }
+                assertTrue(file.setLastModified(1000000000000L + session * 60000L));
+            }
+        }
+
+        // At most four sessions: session-0 goes
+        assertEquals(1, SampleRecorder.Prune(directory, 4, Long.MAX_VALUE));
+        assertFalse(SampleRecorder.SegmentFile(directory, "session-0", 0).exists());
+        // Room for the newest two only
+        assertEquals(2, SampleRecorder.Prune(directory, 4, sizes[4] + sizes[3]));
+        assertFalse(SampleRecorder.SegmentFile(directory, "session-2", 0).exists());
+        assertTrue(SampleRecorder.SegmentFile(directory, "session-3", 0).exists());
+        assertTrue(SampleRecorder.SegmentFile(directory, "session-4", 0).exists());
+
+        assertTrue(SampleRecorder.DeleteSession(directory, "session-4") > 0);
+        assertEquals(0, new SampleRecordReader(directory, "session-4").ReadInto(new NullAccelerationSink()));
+        assertEquals(0, SampleRecorder.Prune(directory, 4, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void emptySession_readsNothing() throws IOException {
+        assertEquals(0, new SampleRecordReader(temporaryFolder.newFolder(), "none").ReadInto(new NullAccelerationSink()));
+    }
+
+    /**
+     * @return The bytes of the recorded segments
+     */
+    private static long Record(File directory, String sessionName, int sampleCount) throws IOException {
+        try (SampleRecorder sampleRecorder = new SampleRecorder(directory, sessionName, new NullLogSink())) {
+            for (int i = 0; i < sampleCount; i++) {
+                sampleRecorder.AddAccelerationData(i * 20000000L, 0, 0, 9.81f);
+            }
+        }
+        return SampleRecorder.HEADERSIZE + (long) sampleCount * SampleRecorder.RECORDSIZE;
+    }
+
+    private static class NullAccelerationSink implements AccelerationSink {
+        @Override
+        public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+        }
+    }
+}
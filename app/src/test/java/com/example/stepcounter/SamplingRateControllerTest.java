@@ -0,0 +1,124 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds the SamplingRateController with synthetic traces and the steps the StepDetector finds in them, and checks
+ * the chosen sampling periods and that the rate does not switch back and forth.
+ */
+public class SamplingRateControllerTest {
+    private static final int SAMPLERATE = 100;
+
+    @Test
+    public void stationary_lowersRateAfterIdleTime() {
+        List<Change> changes = Run(SyntheticTrace.Generate(StepType.STATIONARY, SAMPLERATE, 60, 1));
+        assertEquals(1, changes.size());
+        assertEquals(SamplingRateController.IDLESAMPLINGPERIODUS, changes.get(0).samplingPeriodUs);
+        assertEquals(20, changes.get(0).second);
+    }
+
+    @Test
+    public void walking_keepsNormalRate() {
+        assertTrue(Run(SyntheticTrace.Generate(StepType.WALKING, SAMPLERATE, 60, 2)).isEmpty());
+    }
+
+    @Test
+    public void running_raisesRateWithFirstSteps() {
+        List<Change> changes = Run(SyntheticTrace.Generate(StepType.RUNNING, SAMPLERATE, 60, 3));
+        assertEquals(1, changes.size());
+        assertEquals(SamplingRateController.FASTSAMPLINGPERIODUS, changes.get(0).samplingPeriodUs);
+        assertTrue(changes.get(0).second <= 2);
+    }
+
+    @Test
+    public void restRunRest_changesOncePerPhase() {
+        List<Change> changes = Run(Concat(
+                SyntheticTrace.Generate(StepType.STATIONARY, SAMPLERATE, 40, 4),
+                SyntheticTrace.Generate(StepType.JOGGING, SAMPLERATE, 30, 5),
+                SyntheticTrace.Generate(StepType.STATIONARY, SAMPLERATE, 60, 6)));
+        // Idle; the energy of the first jogging steps raises the rate before the first step is classified,
+        // then fast while jogging, normal after the hold time and idle again
+        int[] expected = {SamplingRateController.IDLESAMPLINGPERIODUS, SamplingRateController.NORMALSAMPLINGPERIODUS,
+                SamplingRateController.FASTSAMPLINGPERIODUS, SamplingRateController.NORMALSAMPLINGPERIODUS,
+                SamplingRateController.IDLESAMPLINGPERIODUS};
+        assertEquals(expected.length, changes.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], changes.get(i).samplingPeriodUs);
+        }
+        assertEquals(40, changes.get(1).second);
+        assertTrue(changes.get(2).second <= 42);
+        assertTrue(changes.get(3).second >= 70 + 5);
+        assertTrue(changes.get(4).second >= 70 + 15);
+    }
+
+    private static List<Change> Run(SyntheticTrace trace) {
+        final SamplingRateController samplingRateController = new SamplingRateController();
+        final List<Change> changes = new ArrayList<>();
+        final long startNs = trace.timestamps[0];
+        final long[] timestampNs = {startNs};
+        StepDetector stepDetector = new StepDetector(new NullLogSink(), new FixedTimeSource(1700000000000L));
+        stepDetector.SetDetectionMode(DetectionMode.STREAMING);
+        stepDetector.RegisterStepListener(new StepListener() {
+            @Override
+            public void Step(AccelerationData accelerationData, StepType stepType) {
+                Record(changes, samplingRateController.Step(stepType), timestampNs[0] - startNs);
+            }
+        });
+        for (int i = 0; i < trace.Size(); i++) {
+            timestampNs[0] = trace.timestamps[i];
+            stepDetector.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+            Record(changes, samplingRateController.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i],
+                    trace.z[i]), timestampNs[0] - startNs);
+        }
+        return changes;
+    }
+
+    private static void Record(List<Change> changes, int samplingPeriodUs, long elapsedNs) {
+        int current = changes.isEmpty() ? SamplingRateController.NORMALSAMPLINGPERIODUS
+                : changes.get(changes.size() - 1).samplingPeriodUs;
+        if (samplingPeriodUs != current) {
+            changes.add(new Change(samplingPeriodUs, (int) (elapsedNs / 1000000000L)));
+        }
+    }
+
+    private static SyntheticTrace Concat(SyntheticTrace... traces) {
+        List<long[]> timestamps = new ArrayList<>();
+        long offsetNs = 0;
+        int size = 0;
+        for (SyntheticTrace trace : traces) {
+            long[] shifted = new long[trace.Size()];
+            long firstNs = trace.timestamps[0];
+            for (int i = 0; i < trace.Size(); i++) {
+                shifted[i] = trace.timestamps[i] - firstNs + offsetNs + 1000000000L;
+            }
+            offsetNs = shifted[shifted.length - 1] - 1000000000L + 1000000000L / SAMPLERATE;
+            timestamps.add(shifted);
+            size += trace.Size();
+        }
+        SyntheticTrace result = SyntheticTrace.Generate(StepType.STATIONARY, size, 1, 0);
+        int index = 0;
+        for (int t = 0; t < traces.length; t++) {
+            System.arraycopy(timestamps.get(t), 0, result.timestamps, index, traces[t].Size());
+            System.arraycopy(traces[t].x, 0, result.x, index, traces[t].Size());
+            System.arraycopy(traces[t].y, 0, result.y, index, traces[t].Size());
+            System.arraycopy(traces[t].z, 0, result.z, index, traces[t].Size());
+            index += traces[t].Size();
+        }
+        return result;
+    }
+
+    private static class Change {
+        final int samplingPeriodUs;
+        final int second;
+
+        Change(int samplingPeriodUs, int second) {
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.second = second;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.stepcounter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes sessions with SessionExportWriter, reads them back with SessionExportReader and replays them.
+ */
+public class SessionExportTest {
+    private static final float QUANTIZATIONERROR = 0.5f / SampleRecorder.QUANTIZATIONSTEPS;
+    private static final long TIMEOFFSETTOUNIX = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void exportedSession_isReadBackQuantized() throws IOException {
+        final SyntheticTrace trace = SyntheticTrace.Generate(StepType.JOGGING, 100, 600, 3);
+        final List<String> steps = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            steps.add((TIMEOFFSETTOUNIX + i * 400L) + " " + StepType.values()[i % 4]);
+        }
+        File file = temporaryFolder.newFile();
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            SessionExportWriter writer = new SessionExportWriter(channel, TIMEOFFSETTOUNIX);
+            for (int i = 0; i < trace.Size(); i++) {
+                writer.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+            }
+            for (String step : steps) {
+                String[] parts = step.split(" ");
+                writer.AddStep(Long.parseLong(parts[0]), StepType.valueOf(parts[1]));
+            }
+            writer.close();
+        }
+        // Less than the 10 bytes per sample of SampleRecorder; the Gaussian noise of the trace does not compress,
+        // the smoother signals of real sensors take less
+        assertTrue(file.length() < trace.Size() * 7L);
+
+        final int[] index = {0};
+        final List<String> readSteps = new ArrayList<>();
+        try (FileChannel channel = new FileInputStream(file).getChannel();
+             SessionExportReader reader = new SessionExportReader(channel)) {
+            assertEquals(TIMEOFFSETTOUNIX, reader.GetTimeOffsetToUnix());
+            long sampleCount = reader.ReadInto(new AccelerationSink() {
+                @Override
+                public void AddAccelerationData(long timestampNs, float x, float y, float z) {
+                    int i = index[0]++;
+                    assertEquals(trace.timestamps[i] / 1000L * 1000L, timestampNs);
+                    assertEquals(trace.x[i], x, QUANTIZATIONERROR);
+                    assertEquals(trace.y[i], y, QUANTIZATIONERROR);
+                    assertEquals(trace.z[i], z, QUANTIZATIONERROR);
+                }
+            }, new StepSink() {
+                @Override
+                public void AddStep(long timeMs, StepType stepType) {
+                    readSteps.add(timeMs + " " + stepType);
+                }
+            });
+            assertEquals(trace.Size(), sampleCount);
+        }
+        assertEquals(trace.Size(), index[0]);
+        assertEquals(steps, readSteps);
+    }
+
+    @Test
+    public void exportedRecording_replaysLikeRecording() throws IOException {
+        SyntheticTrace trace = SyntheticTrace.Generate(StepType.WALKING, 50, 300, 8);
+        File directory = temporaryFolder.newFolder();
+        try (SampleRecorder sampleRecorder = new SampleRecorder(directory, "session", new NullLogSink())) {
+            for (int i = 0; i < trace.Size(); i++) {
+                sampleRecorder.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+            }
+        }
+        final SampleRecordReader recordReader = new SampleRecordReader(directory, "session");
+        final File file = temporaryFolder.newFile();
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            SessionExportWriter writer = new SessionExportWriter(channel, 0);
+            recordReader.ReadInto(writer);
+            writer.close();
+        }
+
+        ReplayEngine replayEngine = new ReplayEngine(DetectionMode.STREAMING);
+        ReplayResult expected = replayEngine.Replay(new TraceReader() {
+            @Override
+            public long ReadInto(AccelerationSink sink) throws IOException {
+                return recordReader.ReadInto(sink);
+            }
+        });
+        ReplayResult actual = replayEngine.Replay(new TraceReader() {
+            @Override
+            public long ReadInto(AccelerationSink sink) throws IOException {
+                try (FileChannel channel = new FileInputStream(file).getChannel();
+                     SessionExportReader reader = new SessionExportReader(channel)) {
+                    return reader.ReadInto(sink, null);
+                }
+            }
+        });
+        assertEquals(trace.Size(), actual.GetSampleCount());
+        assertTrue(expected.GetStepCount() > 0);
+        assertTrue(expected.HasSameSteps(actual));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedExport_isAnError() throws IOException {
+        SyntheticTrace trace = SyntheticTrace.Generate(StepType.RUNNING, 100, 120, 4);
+        File file = temporaryFolder.newFile();
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            SessionExportWriter writer = new SessionExportWriter(channel, 0);
+            for (int i = 0; i < trace.Size(); i++) {
+                writer.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+            }
+            writer.close();
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(file.length() - SessionExportWriter.SIZEOFBLOCKHEADER);
+        }
+        try (FileChannel channel = new FileInputStream(file).getChannel();
+             SessionExportReader reader = new SessionExportReader(channel)) {
+            reader.ReadInto(null, null);
+        }
+    }
+}
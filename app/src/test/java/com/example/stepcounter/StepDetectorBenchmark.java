@@ -0,0 +1,134 @@
+package com.example.stepcounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per sample of StepDetector.AddAccelerationData on synthetic walking, jogging and running signals.
+ * Besides ns/sample, every trial prints the p99 step emission latency: the sensor time between the high point
+ * of a step and the sample during which the step was sent, and the error of the step count against the steps of
+ * the trace, which compares the peak detection of BATCH and STREAMING with the step frequency of FREQUENCY.
+ * addAccelerationDataBlocks passes the samples in blocks of 200 ms, like batches from the sensor FIFO.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class StepDetectorBenchmark {
+    static final int SAMPLESPERINVOCATION = 20_000;
+    private static final long UNIXTIMEATBOOT = 1_700_000_000_000L;
+    private static final int MAXLATENCYMILLIS = 5000;
+
+    @Param({"WALKING", "JOGGING", "RUNNING"})
+    public StepType signal;
+
+    @Param({"50", "100", "200", "400"})
+    public int sampleRate;
+
+    @Param({"BATCH", "STREAMING", "FREQUENCY"})
+    public DetectionMode detectionMode;
+
+    private SyntheticTrace trace;
+    private StepDetector stepDetector;
+    private long timeOffsetNs;
+    private long[] blockTimestamps;
+    private long invocations;
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+
+    @Setup(Level.Trial)
+    public void Setup() {
+        trace = SyntheticTrace.Generate(signal, sampleRate, SAMPLESPERINVOCATION / sampleRate, 42);
+        stepDetector = new StepDetector(new NullLogSink(), new FixedTimeSource(UNIXTIMEATBOOT));
+        stepDetector.SetDetectionMode(detectionMode);
+        stepDetector.RegisterStepListener(latencyRecorder);
+        blockTimestamps = new long[trace.Size()];
+    }
+
+    @TearDown(Level.Trial)
+    public void TearDown() {
+        System.out.println();
+        long expectedSteps = invocations * trace.stepCount;
+        System.out.println(signal + " " + sampleRate + " Hz " + detectionMode + ": " + latencyRecorder.stepCount
+                + " steps, count error " + Math.round(100.0 * (latencyRecorder.stepCount - expectedSteps) / expectedSteps)
+                + " %, p99 step emission latency " + latencyRecorder.Percentile(0.99) + " ms");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLESPERINVOCATION)
+    public void addAccelerationData(Blackhole blackhole) {
+        long[] timestamps = trace.timestamps;
+        float[] x = trace.x;
+        float[] y = trace.y;
+        float[] z = trace.z;
+        for (int i = 0; i < SAMPLESPERINVOCATION; i++) {
+            long timestamp = timeOffsetNs + timestamps[i];
+            latencyRecorder.currentTime = timestamp / 1000000L + UNIXTIMEATBOOT;
+            stepDetector.AddAccelerationData(timestamp, x[i], y[i], z[i]);
+        }
+        // The next invocation continues the trace instead of going back in time
+        timeOffsetNs += timestamps[SAMPLESPERINVOCATION - 1] - timestamps[0] + 1_000_000_000L / sampleRate;
+        invocations++;
+        blackhole.consume(latencyRecorder.stepCount);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLESPERINVOCATION)
+    public void addAccelerationDataBlocks(Blackhole blackhole) {
+        long[] timestamps = blockTimestamps;
+        int sizeOfBlock = Math.max(1, sampleRate / 5);
+        for (int from = 0; from < SAMPLESPERINVOCATION; from += sizeOfBlock) {
+            int count = Math.min(sizeOfBlock, SAMPLESPERINVOCATION - from);
+            for (int i = from; i < from + count; i++) {
+                timestamps[i] = timeOffsetNs + trace.timestamps[i];
+            }
+            latencyRecorder.currentTime = timestamps[from + count - 1] / 1000000L + UNIXTIMEATBOOT;
+            stepDetector.AddAccelerationData(timestamps, trace.x, trace.y, trace.z, from, count);
+        }
+        timeOffsetNs += trace.timestamps[SAMPLESPERINVOCATION - 1] - trace.timestamps[0] + 1_000_000_000L / sampleRate;
+        invocations++;
+        blackhole.consume(latencyRecorder.stepCount);
+    }
+
+    /**
+     * Counts the steps and builds a histogram with 1 ms buckets of the step emission latency.
+     */
+    private static class LatencyRecorder implements StepListener {
+        final long[] histogram = new long[MAXLATENCYMILLIS + 1];
+        long currentTime;
+        long stepCount;
+
+        @Override
+        public void Step(AccelerationData accelerationData, StepType stepType) {
+            long latency = currentTime - accelerationData.GetTime();
+            histogram[(int) Math.max(0, Math.min(MAXLATENCYMILLIS, latency))]++;
+            stepCount++;
+        }
+
+        long Percentile(double percentile) {
+            long rank = (long) Math.ceil(percentile * stepCount);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.stepcounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the single stages of the BATCH mode on one batch of BATCHSIZE samples.
+ * The batch is loaded into a StepDetector without triggering it; the stages then run on its buffers.
+ * RemoveNearHighPoints works in place, so it is measured together with FindHighPoints;
+ * its own cost is the difference to findHighPoints.
+ * perSampleReference is the former per sample calculation of the vector length and the Unix time, with the
+ * clock offset read for every sample, for comparison with calculateValues, which only calculates the vector length
+ * because the detection now runs on sensor time. The reference reads real clocks (System.currentTimeMillis and
+ * System.nanoTime, like the Android clocks) so the per sample clock reads are counted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class StepDetectorStageBenchmark {
+    private static final int BATCHSIZE = 49; // one less than SIZEOFLISTDATA, so AddAccelerationData does not process it
+
+    @Param({"WALKING", "JOGGING", "RUNNING"})
+    public StepType signal;
+
+    @Param({"50", "100", "200", "400"})
+    public int sampleRate;
+
+    private static final float ALPHA = 0.8f;
+
+    private StepDetector stepDetector;
+    private final TimeSource timeSource = new ClockTimeSource();
+    private final LogSink logSink = new NullLogSink();
+    private final float[] gravity = {0.0f, 0.0f, 9.8f};
+    private final long[] times = new long[BATCHSIZE];
+    private final float[] xValues = new float[BATCHSIZE];
+    private final float[] yValues = new float[BATCHSIZE];
+    private final float[] zValues = new float[BATCHSIZE];
+    private final double[] values = new double[BATCHSIZE];
+
+    @Setup(Level.Trial)
+    public void Setup() {
+        SyntheticTrace trace = SyntheticTrace.Generate(signal, sampleRate, 10, 42);
+        stepDetector = new StepDetector(new NullLogSink(), timeSource);
+        // Start at the first step, so the batch contains high points even at 400 Hz
+        int first = sampleRate / 2;
+        for (int i = first; i < first + BATCHSIZE; i++) {
+            stepDetector.AddAccelerationData(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+        }
+        System.arraycopy(trace.timestamps, first, times, 0, BATCHSIZE);
+        System.arraycopy(trace.x, first, xValues, 0, BATCHSIZE);
+        System.arraycopy(trace.y, first, yValues, 0, BATCHSIZE);
+        System.arraycopy(trace.z, first, zValues, 0, BATCHSIZE);
+        for (int i = 0; i < BATCHSIZE; i++) {
+            stepDetector.CalculateValue(i);
+        }
+    }
+
+    @Benchmark
+    public void calculateValue() {
+        for (int i = 0; i < BATCHSIZE; i++) {
+            stepDetector.CalculateValue(i);
+        }
+    }
+
+    @Benchmark
+    public void calculateValues() {
+        stepDetector.CalculateValues(0, BATCHSIZE);
+    }
+
+    @Benchmark
+    public double perSampleReference() {
+        for (int i = 0; i < BATCHSIZE; i++) {
+            float x = xValues[i];
+            float y = yValues[i];
+            float z = zValues[i];
+            gravity[0] = ALPHA * gravity[0] + (1 - ALPHA) * x;
+            gravity[1] = ALPHA * gravity[1] + (1 - ALPHA) * y;
+            gravity[2] = ALPHA * gravity[2] + (1 - ALPHA) * z;
+            x = x - gravity[0];
+            y = y - gravity[1];
+            z = z - gravity[2];
+            double vectorLength = Math.sqrt(x * x + y * y + z * z);
+            values[i] = vectorLength;
+            if (vectorLength > 1) {
+                logSink.Log("SD", "value = %.2f", vectorLength);
+            }
+            long timeOffsetToUnix = timeSource.CurrentTimeMillis() - timeSource.ElapsedRealtime();
+            times[i] = (times[i] / 1000000L) + timeOffsetToUnix;
+        }
+        return values[BATCHSIZE - 1];
+    }
+
+    @Benchmark
+    public void findHighPoints() {
+        stepDetector.FindHighPoints(0, BATCHSIZE);
+    }
+
+    @Benchmark
+    public void findAndRemoveNearHighPoints() {
+        stepDetector.FindHighPoints(0, BATCHSIZE);
+        stepDetector.RemoveNearHighPoints();
+    }
+
+    private static class ClockTimeSource implements TimeSource {
+        @Override
+        public long CurrentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long ElapsedRealtime() {
+            return System.nanoTime() / 1000000L;
+        }
+    }
+}
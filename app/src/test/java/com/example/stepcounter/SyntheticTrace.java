@@ -0,0 +1,136 @@
+package com.example.stepcounter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic accelerometer trace of walking, jogging or running: gravity on the z axis, one acceleration pulse per step
+ * with jittered cadence and amplitude, and Gaussian sensor noise. The same seed always gives the same trace.
+ * GenerateAll gives the set of traces most detector tests run on.
+ */
+public class SyntheticTrace {
+    public static final StepType[] STEPTYPES = {StepType.WALKING, StepType.JOGGING, StepType.RUNNING, StepType.STATIONARY};
+    public static final int[] SAMPLERATES = {50, 100, 200, 400};
+    private static final float GRAVITY = 9.81f;
+    private static final double NOISE = 0.4;
+    private static final double WIDTHOFPULSE = 0.06; // seconds
+
+    public final long[] timestamps;
+    public final float[] x;
+    public final float[] y;
+    public final float[] z;
+    public final int stepCount;
+    public final StepType stepType;
+    public final int sampleRateHz;
+
+    private SyntheticTrace(long[] timestamps, float[] x, float[] y, float[] z, int stepCount, StepType stepType,
+                           int sampleRateHz) {
+        this.timestamps = timestamps;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.stepCount = stepCount;
+        this.stepType = stepType;
+        this.sampleRateHz = sampleRateHz;
+    }
+
+    public int Size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Generates a trace for every StepType of STEPTYPES at every rate of SAMPLERATES.
+     * @param seedFactor The seed of a trace is seedFactor times its sample rate
+     */
+    public static List<SyntheticTrace> GenerateAll(int seconds, int seedFactor) {
+        return GenerateAll(STEPTYPES, SAMPLERATES, seconds, seedFactor);
+    }
+
+    /**
+     * Generates a trace for every StepType of stepTypes at every rate of sampleRates, ordered by StepType first.
+     * @param seedFactor The seed of a trace is seedFactor times its sample rate
+     */
+    public static List<SyntheticTrace> GenerateAll(StepType[] stepTypes, int[] sampleRates, int seconds, int seedFactor) {
+        List<SyntheticTrace> traces = new ArrayList<>();
+        for (StepType stepType : stepTypes) {
+            for (int sampleRate : sampleRates) {
+                traces.add(Generate(stepType, sampleRate, seconds, (long) seedFactor * sampleRate));
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * Generates a trace.
+     * @param stepType WALKING, JOGGING or RUNNING; STATIONARY gives noise only
+     * @param sampleRateHz Samples per second
+     * @param seconds Length of the trace
+     * @param seed Seed of the random generator
+     */
+    public static SyntheticTrace Generate(StepType stepType, int sampleRateHz, int seconds, long seed) {
+        return Generate(stepType, sampleRateHz, seconds, seed, 1, NOISE);
+    }
+
+    /**
+     * Generates a trace with the cadence of stepType and scaled pulses, e.g. soft steps below its threshold.
+     * @param amplitudeFactor Factor of the pulse amplitude of stepType
+     * @param noise Standard deviation of the sensor noise per axis in m/s²
+     */
+    public static SyntheticTrace Generate(StepType stepType, int sampleRateHz, int seconds, long seed,
+                                          double amplitudeFactor, double noise) {
+        double cadence; // steps per second
+        double amplitude;
+        switch (stepType) {
+            case WALKING:
+                cadence = 1.8;
+                amplitude = 9;
+                break;
+            case JOGGING:
+                cadence = 2.5;
+                amplitude = 18;
+                break;
+            case RUNNING:
+                cadence = 3.0;
+                amplitude = 32;
+                break;
+            default:
+                cadence = 0;
+                amplitude = 0;
+                break;
+        }
+
+        Random random = new Random(seed);
+        int size = sampleRateHz * seconds;
+        long[] timestamps = new long[size];
+        float[] x = new float[size];
+        float[] y = new float[size];
+        float[] z = new float[size];
+        long startNs = 1_000_000_000L + random.nextInt(1_000_000);
+        long periodNs = 1_000_000_000L / sampleRateHz;
+
+        double nextStep = cadence > 0 ? 0.5 : Double.MAX_VALUE;
+        double stepTime = -1;
+        double stepAmplitude = 0;
+        int stepCount = 0;
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = startNs + i * periodNs + random.nextInt(200_000);
+            double time = (double) i / sampleRateHz;
+            if (time >= nextStep) {
+                stepTime = nextStep;
+                stepAmplitude = amplitudeFactor * amplitude * (0.9 + 0.2 * random.nextDouble());
+                nextStep += (1 / cadence) * (0.95 + 0.1 * random.nextDouble());
+                stepCount++;
+            }
+            double pulse = 0;
+            if (stepTime >= 0) {
+                double offset = (time - stepTime) / WIDTHOFPULSE;
+                pulse = stepAmplitude * Math.exp(-offset * offset);
+            }
+            x[i] = (float) (0.3 * pulse + random.nextGaussian() * noise);
+            y[i] = (float) (0.2 * pulse + random.nextGaussian() * noise);
+            z[i] = (float) (GRAVITY + pulse + random.nextGaussian() * noise);
+        }
+        return new SyntheticTrace(timestamps, x, y, z, stepCount, stepType, sampleRateHz);
+    }
+}
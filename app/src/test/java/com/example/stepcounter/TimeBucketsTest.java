@@ -0,0 +1,70 @@
+package com.example.stepcounter;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucket starts of TimeBuckets against Calendar, also around daylight saving changes.
+ */
+public class TimeBucketsTest {
+    private static final String[] TIMEZONES = {"UTC", "Asia/Ho_Chi_Minh", "Asia/Kolkata", "Europe/Berlin", "America/New_York"};
+
+    @Test
+    public void start_equalsCalendar() {
+        for (String id : TIMEZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(id);
+            // Every 7 minutes and 13 seconds through 2026, which covers both daylight saving changes
+            long first = Time(timeZone, 2026, Calendar.JANUARY, 1, 0, 0);
+            long last = Time(timeZone, 2027, Calendar.JANUARY, 1, 0, 0);
+            for (long time = first; time < last; time += 433000L) {
+                assertEquals(id, Reference(timeZone, time, Calendar.MINUTE), TimeBuckets.Start(TimeBuckets.MINUTE, time, timeZone));
+                assertEquals(id, Reference(timeZone, time, Calendar.HOUR_OF_DAY), TimeBuckets.Start(TimeBuckets.HOUR, time, timeZone));
+                assertEquals(id, Reference(timeZone, time, Calendar.DAY_OF_MONTH), TimeBuckets.Start(TimeBuckets.DAY, time, timeZone));
+            }
+        }
+    }
+
+    @Test
+    public void start_dayWithDaylightSavingChange() {
+        TimeZone timeZone = TimeZone.getTimeZone("Europe/Berlin");
+        long midnight = Time(timeZone, 2026, Calendar.MARCH, 29, 0, 0);
+        long evening = Time(timeZone, 2026, Calendar.MARCH, 29, 22, 0);
+        // The day has only 23 hours
+        assertEquals(23 * 3600000L, evening + 2 * 3600000L - midnight);
+        assertEquals(midnight, TimeBuckets.Start(TimeBuckets.DAY, evening, timeZone));
+        assertEquals(midnight, TimeBuckets.Start(TimeBuckets.DAY, midnight, timeZone));
+        assertEquals(Time(timeZone, 2026, Calendar.MARCH, 28, 0, 0), TimeBuckets.Start(TimeBuckets.DAY, midnight - 1, timeZone));
+    }
+
+    private static long Time(TimeZone timeZone, int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static long Reference(TimeZone timeZone, long time, int field) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(time);
+        if (field != Calendar.DAY_OF_MONTH) {
+            // Keeps the offset of time, otherwise Calendar picks one of the two instants of a repeated hour
+            int zoneOffset = calendar.get(Calendar.ZONE_OFFSET);
+            int dstOffset = calendar.get(Calendar.DST_OFFSET);
+            calendar.set(Calendar.ZONE_OFFSET, zoneOffset);
+            calendar.set(Calendar.DST_OFFSET, dstOffset);
+        }
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.set(Calendar.SECOND, 0);
+        if (field != Calendar.MINUTE) {
+            calendar.set(Calendar.MINUTE, 0);
+        }
+        if (field == Calendar.DAY_OF_MONTH) {
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+        }
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.stepcounter;
+
+import java.io.IOException;
+
+/**
+ * A TraceReader streams a recorded accelerometer trace of (timestampNs, x, y, z) samples into an AccelerationSink.
+ */
+public interface TraceReader {
+    /**
+     * Reads the whole trace and passes every sample to sink in order.
+     * @return long: The number of samples.
+     */
+    long ReadInto(AccelerationSink sink) throws IOException;
+}